@@ -275,6 +275,12 @@ public class AnsibleConstants {
 	 */
 	public static final String ALL_GROUP = "all";
 
+	/**
+	 * Default group that contains all hosts which do not belong to any other
+	 * group.
+	 */
+	public static final String UNGROUPED_GROUP = "ungrouped";
+
 	private AnsibleConstants() {
 	}
 
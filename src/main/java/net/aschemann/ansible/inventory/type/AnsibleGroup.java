@@ -17,6 +17,7 @@
  */
 package net.aschemann.ansible.inventory.type;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -35,6 +36,11 @@ public class AnsibleGroup {
 
 	private Map<String, AnsibleVariable> variables;
 
+	/**
+	 * The inventory which is notified about changes of this group, if any.
+	 */
+	AnsibleInventory inventory;
+
 	public AnsibleGroup(String name) {
 		super();
 		this.name = name;
@@ -79,8 +85,24 @@ public class AnsibleGroup {
 		return this.variables.values();
 	}
 
+	/**
+	 * Adds a host to this group. If the group is part of an inventory which already has another host with the same
+	 * name, that host is added instead and the variables of <code>host</code> are merged into it, where the
+	 * variables it already has win like with {@link AnsibleHost#addVariable(AnsibleVariable)}. So a name stands for
+	 * one host throughout an inventory and no variables are lost.
+	 *
+	 * @param host the host
+	 */
 	public void addHost(AnsibleHost host) {
-		this.hosts.put(host.getName(), host);
+		final AnsibleHost member = this.inventory != null ? this.inventory.memberFor(host) : host;
+		final AnsibleHost previous = this.hosts.put(member.getName(), member);
+		if (this.inventory != null) {
+			if (previous != null && previous != member) {
+				// Another instance with the same name is no longer a member
+				this.inventory.hostRemoved(this, previous);
+			}
+			this.inventory.hostAdded(this, member);
+		}
 	}
 
 	public void addHosts(List<AnsibleHost> hosts) {
@@ -91,10 +113,14 @@ public class AnsibleGroup {
 
 	public void addSubgroup(AnsibleGroup subgroup) {
 		this.subgroups.put(subgroup.getName(), subgroup);
+		if (this.inventory != null) {
+			this.inventory.subgroupAdded(this, subgroup);
+		}
 	}
 
 	public void addVariable(AnsibleVariable variable) {
 		this.variables.put(variable.getName(), variable);
+		variablesChanged();
 	}
 
 	public void addVariables(List<AnsibleVariable> variables) {
@@ -107,33 +133,71 @@ public class AnsibleGroup {
 		return this.hosts.get(host);
 	}
 
+	AnsibleGroup getSubgroup(String subgroup) {
+		return this.subgroups.get(subgroup);
+	}
+
 	public AnsibleVariable getVariable(String variable) {
 		return this.variables.get(variable);
 	}
 
 	public void removeHost(String host) {
+		final AnsibleHost removed = this.hosts.remove(host);
+		if (removed != null && this.inventory != null) {
+			this.inventory.hostRemoved(this, removed);
+		}
+	}
+
+	/**
+	 * Removes a host without notifying the inventory, which takes care of that itself.
+	 */
+	void unlinkHost(String host) {
 		this.hosts.remove(host);
 	}
 
+	/**
+	 * Replaces a host with another instance with the same name without notifying the inventory, which takes care of
+	 * that itself.
+	 */
+	void relinkHost(AnsibleHost host) {
+		this.hosts.put(host.getName(), host);
+	}
+
 	public void removeSubgroup(String subgroup) {
-		this.subgroups.remove(subgroup);
+		final AnsibleGroup removed = this.subgroups.remove(subgroup);
+		if (removed != null && this.inventory != null) {
+			this.inventory.subgroupRemoved(this, removed);
+		}
 	}
 
 	public void removeVariable(String variable) {
 		this.variables.remove(variable);
+		variablesChanged();
 	}
 
 	public void clear() {
-		this.hosts.clear();
-		this.subgroups.clear();
+		for (String host : new ArrayList<>(this.hosts.keySet())) {
+			removeHost(host);
+		}
+		for (String subgroup : new ArrayList<>(this.subgroups.keySet())) {
+			removeSubgroup(subgroup);
+		}
 		this.variables.clear();
+		variablesChanged();
+	}
+
+	private void variablesChanged() {
+		if (this.inventory != null) {
+			this.inventory.groupVariablesChanged(this);
+		}
 	}
 
 	@Override
 	public boolean equals(Object o) {
 		if (this == o)
 			return true;
-		if ((o == null) || (getClass() != o.getClass()))
+		// The implicit groups of an inventory equal regular groups with the same name
+		if (!(o instanceof AnsibleGroup))
 			return false;
 
 		AnsibleGroup group = (AnsibleGroup) o;
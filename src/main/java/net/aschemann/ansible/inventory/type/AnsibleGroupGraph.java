@@ -0,0 +1,217 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.type;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Transitive closure of the <code>:children</code> graph of an {@link AnsibleInventory}.
+ * <p>
+ * The hosts below a group are computed once with Tarjan's algorithm for strongly connected components, so every
+ * group is visited once per computation even in diamond shaped or cyclic hierarchies, and no recursion is involved.
+ * All groups reached during a computation are cached, both as sets and as {@link BitSet}s of host identifiers; a
+ * change of the hosts or subgroups of a group only drops the cached closures of that group and its ancestors.
+ * <p>
+ * Groups are keyed by identity like in {@link AnsibleMembershipIndex}, so a replaced group which is still the
+ * subgroup of another group does not share its closure with the group of the same name which replaced it.
+ */
+final class AnsibleGroupGraph {
+
+	private final AnsibleMembershipIndex index;
+
+	private final AnsibleHostIds ids;
+
+	private final Map<AnsibleGroup, Set<AnsibleHost>> hostsByGroup = new IdentityHashMap<>();
+
+	private final Map<AnsibleGroup, BitSet> bitsByGroup = new IdentityHashMap<>();
+
+	AnsibleGroupGraph(AnsibleMembershipIndex index, AnsibleHostIds ids) {
+		this.index = index;
+		this.ids = ids;
+	}
+
+	/**
+	 * Drops the cached closures of a group and all its ancestors.
+	 *
+	 * @param group the group whose hosts or subgroups changed
+	 */
+	void invalidate(AnsibleGroup group) {
+		if (this.hostsByGroup.remove(group) != null) {
+			this.bitsByGroup.remove(group);
+			for (AnsibleGroup ancestor : this.index.getAncestorsOf(group)) {
+				this.hostsByGroup.remove(ancestor);
+				this.bitsByGroup.remove(ancestor);
+			}
+		}
+	}
+
+	void clear() {
+		this.hostsByGroup.clear();
+		this.bitsByGroup.clear();
+	}
+
+	Set<AnsibleHost> getAllHosts(AnsibleGroup group) {
+		Set<AnsibleHost> result = this.hostsByGroup.get(group);
+		if (result == null) {
+			stronglyConnectedComponents(Collections.singleton(group), this.hostsByGroup::containsKey,
+					this::cacheHosts);
+			result = this.hostsByGroup.get(group);
+		}
+		return result;
+	}
+
+	/**
+	 * @param group a group
+	 * @return the identifiers of the hosts of {@link #getAllHosts(AnsibleGroup)}, which must not be modified
+	 */
+	BitSet getAllHostBits(AnsibleGroup group) {
+		BitSet result = this.bitsByGroup.get(group);
+		if (result == null) {
+			result = this.ids.toBits(getAllHosts(group));
+			this.bitsByGroup.put(group, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @param groups the groups to start from
+	 * @return the names of the groups of every cycle reachable from <code>groups</code>, sorted by name
+	 */
+	static List<List<String>> findCycles(Collection<AnsibleGroup> groups) {
+		final List<List<String>> cycles = new ArrayList<>();
+		stronglyConnectedComponents(groups, group -> false, component -> {
+			if (component.size() > 1 || component.get(0).getSubgroups().contains(component.get(0))) {
+				final List<String> names = new ArrayList<>(component.size());
+				for (AnsibleGroup group : component) {
+					names.add(group.getName());
+				}
+				Collections.sort(names);
+				cycles.add(names);
+			}
+		});
+		return cycles;
+	}
+
+	private void cacheHosts(List<AnsibleGroup> component) {
+		final Set<AnsibleHost> hosts = new HashSet<>();
+		for (AnsibleGroup group : component) {
+			hosts.addAll(group.getHosts());
+			for (AnsibleGroup subgroup : group.getSubgroups()) {
+				// Subgroups outside of the component have been completed before
+				final Set<AnsibleHost> subgroupHosts = this.hostsByGroup.get(subgroup);
+				if (subgroupHosts != null) {
+					hosts.addAll(subgroupHosts);
+				}
+			}
+		}
+		final Set<AnsibleHost> result = Collections.unmodifiableSet(hosts);
+		for (AnsibleGroup group : component) {
+			this.hostsByGroup.put(group, result);
+		}
+	}
+
+	/**
+	 * Iterative version of Tarjan's algorithm. Components are reported in reverse topological order, i.e. every
+	 * component is reported after all components reachable from it.
+	 *
+	 * @param roots the groups to start from
+	 * @param completed groups which must not be visited again
+	 * @param consumer receives the groups of every component
+	 */
+	private static void stronglyConnectedComponents(Collection<AnsibleGroup> roots, Predicate<AnsibleGroup> completed,
+			Consumer<List<AnsibleGroup>> consumer) {
+		final Map<AnsibleGroup, Integer> indexes = new IdentityHashMap<>();
+		final Map<AnsibleGroup, Integer> lowLinks = new IdentityHashMap<>();
+		final Set<AnsibleGroup> onStack = Collections.newSetFromMap(new IdentityHashMap<>());
+		final Deque<AnsibleGroup> stack = new ArrayDeque<>();
+		final Deque<Frame> calls = new ArrayDeque<>();
+
+		for (AnsibleGroup root : roots) {
+			if (indexes.containsKey(root) || completed.test(root)) {
+				continue;
+			}
+			calls.push(visit(root, indexes, lowLinks, onStack, stack));
+			while (!calls.isEmpty()) {
+				final Frame frame = calls.peek();
+				if (frame.subgroups.hasNext()) {
+					final AnsibleGroup subgroup = frame.subgroups.next();
+					if (completed.test(subgroup)) {
+						continue;
+					}
+					if (!indexes.containsKey(subgroup)) {
+						calls.push(visit(subgroup, indexes, lowLinks, onStack, stack));
+					} else if (onStack.contains(subgroup)) {
+						lowLinks.put(frame.group, Math.min(lowLinks.get(frame.group), indexes.get(subgroup)));
+					}
+					continue;
+				}
+				calls.pop();
+				final int lowLink = lowLinks.get(frame.group);
+				if (lowLink == indexes.get(frame.group)) {
+					final List<AnsibleGroup> component = new ArrayList<>();
+					AnsibleGroup member;
+					do {
+						member = stack.pop();
+						onStack.remove(member);
+						component.add(member);
+					} while (member != frame.group);
+					consumer.accept(component);
+				}
+				final Frame caller = calls.peek();
+				if (caller != null) {
+					lowLinks.put(caller.group, Math.min(lowLinks.get(caller.group), lowLink));
+				}
+			}
+		}
+	}
+
+	private static Frame visit(AnsibleGroup group, Map<AnsibleGroup, Integer> indexes,
+			Map<AnsibleGroup, Integer> lowLinks, Set<AnsibleGroup> onStack, Deque<AnsibleGroup> stack) {
+		final int index = indexes.size();
+		indexes.put(group, index);
+		lowLinks.put(group, index);
+		onStack.add(group);
+		stack.push(group);
+		return new Frame(group);
+	}
+
+	private static final class Frame {
+
+		private final AnsibleGroup group;
+
+		private final Iterator<AnsibleGroup> subgroups;
+
+		private Frame(AnsibleGroup group) {
+			this.group = group;
+			this.subgroups = group.getSubgroups().iterator();
+		}
+	}
+}
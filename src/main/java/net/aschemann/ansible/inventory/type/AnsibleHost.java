@@ -17,8 +17,12 @@
  */
 package net.aschemann.ansible.inventory.type;
 
-import java.util.HashSet;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
@@ -28,12 +32,16 @@ public class AnsibleHost {
 
 	private String name;
 
-	private Set<AnsibleVariable> variables;
+	private final AnsibleVariableTable variables = new AnsibleVariableTable();
+
+	/**
+	 * The inventory which is notified about changes of this host, if any.
+	 */
+	AnsibleInventory inventory;
 
 	public AnsibleHost(String name) {
 		super();
 		this.name = name;
-		this.variables = new HashSet<>();
 	}
 
 	public AnsibleHost(String name, List<AnsibleVariable> variables) {
@@ -50,12 +58,27 @@ public class AnsibleHost {
 		return name;
 	}
 
+	/**
+	 * @return a live view of the variables of this host, in the order they were added. Variables are identified by
+	 * their name, and changes through the view are applied like {@link #addVariable(AnsibleVariable)} and
+	 * {@link #removeVariable(AnsibleVariable)}.
+	 */
 	public Set<AnsibleVariable> getVariables() {
-		return this.variables;
+		return new Variables();
 	}
 
 	public void addVariable(AnsibleVariable variable) {
-		this.variables.add(variable);
+		add(variable);
+	}
+
+	private boolean add(AnsibleVariable variable) {
+		if (!this.variables.add(variable)) {
+			return false;
+		}
+		if (this.inventory != null) {
+			this.inventory.hostVariableAdded(this, variable);
+		}
+		return true;
 	}
 
 	public void addVariables(List<AnsibleVariable> variables) {
@@ -65,13 +88,7 @@ public class AnsibleHost {
 	}
 
 	public AnsibleVariable getVariable(String variableName) {
-		for (AnsibleVariable v : variables) {
-			if (v.getName().equals(variableName)) {
-				return v;
-			}
-		}
-
-		return null;
+		return this.variables.get(variableName);
 	}
 
 	/**
@@ -84,11 +101,104 @@ public class AnsibleHost {
 	}
 
 	public void removeVariable(AnsibleVariable variable) {
-		this.variables.remove(variable);
+		final AnsibleVariable removed = this.variables.remove(variable.getName());
+		if (removed != null) {
+			variableRemoved(removed);
+		}
 	}
 
 	public void clear() {
+		final List<AnsibleVariable> removed = new ArrayList<>(getVariables());
 		this.variables.clear();
+		for (AnsibleVariable variable : removed) {
+			variableRemoved(variable);
+		}
+	}
+
+	private void variableRemoved(AnsibleVariable variable) {
+		if (this.inventory != null) {
+			this.inventory.hostVariableRemoved(this, variable);
+		}
+	}
+
+	private final class Variables extends AbstractSet<AnsibleVariable> {
+
+		@Override
+		public int size() {
+			return AnsibleHost.this.variables.size();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return o instanceof AnsibleVariable
+					&& AnsibleHost.this.variables.get(((AnsibleVariable) o).getName()) != null;
+		}
+
+		@Override
+		public boolean add(AnsibleVariable variable) {
+			return AnsibleHost.this.add(variable);
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			if (!contains(o)) {
+				return false;
+			}
+			removeVariable((AnsibleVariable) o);
+			return true;
+		}
+
+		@Override
+		public void clear() {
+			AnsibleHost.this.clear();
+		}
+
+		@Override
+		public Iterator<AnsibleVariable> iterator() {
+			return new Iterator<AnsibleVariable>() {
+
+				private final AnsibleVariableTable table = AnsibleHost.this.variables;
+
+				private int position = skipRemoved(0);
+
+				private AnsibleVariable last;
+
+				private int skipRemoved(int from) {
+					int i = from;
+					while (i < this.table.end() && this.table.at(i) == null) {
+						i++;
+					}
+					return i;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return this.position < this.table.end();
+				}
+
+				@Override
+				public AnsibleVariable next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					this.last = this.table.at(this.position);
+					if (this.last == null) {
+						throw new ConcurrentModificationException();
+					}
+					this.position = skipRemoved(this.position + 1);
+					return this.last;
+				}
+
+				@Override
+				public void remove() {
+					if (this.last == null) {
+						throw new IllegalStateException();
+					}
+					removeVariable(this.last);
+					this.last = null;
+				}
+			};
+		}
 	}
 
 	@Override
@@ -0,0 +1,134 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.type;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dense integer identifiers of the hosts of an {@link AnsibleInventory}, which allow to represent sets of hosts as
+ * {@link BitSet}s. Identifiers are assigned in the order the hosts become part of the inventory and are not reused,
+ * so ascending identifiers follow the inventory order and a bit set computed before a host was removed never refers
+ * to another host.
+ * <p>
+ * Hosts are identified by identity rather than by name, as a removed host may be replaced by another instance with
+ * the same name. Released identifiers keep an empty slot, but no reference to the host. Once most slots are empty,
+ * the inventory {@link #compact() compacts} the identifiers and drops all bit sets computed before, so the bit sets
+ * of an inventory with many removed hosts do not keep growing.
+ */
+final class AnsibleHostIds {
+
+	/** Fewer released identifiers than this are not worth compacting */
+	private static final int MIN_RELEASED_TO_COMPACT = 64;
+
+	private final Map<AnsibleHost, Integer> ids = new IdentityHashMap<>();
+
+	private final List<AnsibleHost> hosts = new ArrayList<>();
+
+	/** The number of empty slots in {@link #hosts} */
+	private int released;
+
+	int idOf(AnsibleHost host) {
+		Integer id = this.ids.get(host);
+		if (id == null) {
+			id = this.hosts.size();
+			this.ids.put(host, id);
+			this.hosts.add(host);
+		}
+		return id;
+	}
+
+	AnsibleHost get(int id) {
+		return this.hosts.get(id);
+	}
+
+	/**
+	 * Releases the identifier of a host which is no longer part of the inventory.
+	 *
+	 * @param host the host
+	 */
+	void release(AnsibleHost host) {
+		final Integer id = this.ids.remove(host);
+		if (id != null) {
+			this.hosts.set(id, null);
+			this.released++;
+		}
+	}
+
+	/**
+	 * @return whether at least half of the identifiers are released, so {@link #compact()} pays off
+	 */
+	boolean shouldCompact() {
+		return this.released >= MIN_RELEASED_TO_COMPACT && this.released * 2 >= this.hosts.size();
+	}
+
+	/**
+	 * Assigns new identifiers without gaps, in the same order as before. Bit sets computed before refer to the old
+	 * identifiers and must no longer be used.
+	 */
+	void compact() {
+		final List<AnsibleHost> live = new ArrayList<>(this.hosts.size() - this.released);
+		for (AnsibleHost host : this.hosts) {
+			if (host != null) {
+				this.ids.put(host, live.size());
+				live.add(host);
+			}
+		}
+		this.hosts.clear();
+		this.hosts.addAll(live);
+		this.released = 0;
+	}
+
+	/**
+	 * @return the hosts with an identifier in the order of their identifiers, with <code>null</code> for released
+	 * identifiers
+	 */
+	List<AnsibleHost> getHosts() {
+		return Collections.unmodifiableList(this.hosts);
+	}
+
+	BitSet toBits(Collection<AnsibleHost> hosts) {
+		final BitSet bits = new BitSet(this.hosts.size());
+		for (AnsibleHost host : hosts) {
+			bits.set(idOf(host));
+		}
+		return bits;
+	}
+
+	List<AnsibleHost> toHosts(BitSet bits) {
+		final List<AnsibleHost> result = new ArrayList<>(bits.cardinality());
+		for (int id = bits.nextSetBit(0); id >= 0; id = bits.nextSetBit(id + 1)) {
+			final AnsibleHost host = id < this.hosts.size() ? this.hosts.get(id) : null;
+			if (host != null) {
+				result.add(host);
+			}
+		}
+		return result;
+	}
+
+	void clear() {
+		this.ids.clear();
+		this.hosts.clear();
+		this.released = 0;
+	}
+}
@@ -0,0 +1,286 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.type;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled Ansible host pattern like <code>webservers:&amp;staging:!phoenix</code>, <code>db[0:9]</code> or
+ * <code>~web\d+</code>, cf. https://docs.ansible.com/ansible/latest/user_guide/intro_patterns.html
+ * <p>
+ * Patterns are separated by commas or, if there are none, by colons outside of brackets. They are applied like
+ * Ansible does: all plain patterns are joined first, then the intersections with <code>&amp;</code> patterns and then
+ * the exclusions of <code>!</code> patterns are applied. Patterns may be the name of a group, including its
+ * subgroups, or a host, <code>all</code> or <code>*</code>, a glob with <code>*</code> and <code>?</code>, or a
+ * regular expression starting with <code>~</code>. Plain patterns may select hosts by their position with a
+ * subscript like <code>[0]</code>, <code>[-1]</code> or <code>[0:9]</code>, where the end is inclusive. Negative
+ * positions count from the end, so <code>[0:-2]</code> selects all but the last host.
+ * <p>
+ * Selections are computed on {@link BitSet}s of host identifiers, so joining, intersecting and excluding groups
+ * costs a few machine words per 64 hosts. Compiled patterns are immutable and can be cached and shared between
+ * inventories and threads.
+ *
+ * @see AnsibleInventory#selectHosts(String)
+ */
+public final class AnsibleHostPattern {
+
+	private static final int UNION = 0;
+
+	private static final int INTERSECTION = 1;
+
+	private static final int EXCLUSION = 2;
+
+	private final String pattern;
+
+	private final List<Term> terms;
+
+	private final boolean hasUnion;
+
+	private AnsibleHostPattern(String pattern, List<Term> terms) {
+		this.pattern = pattern;
+		this.terms = terms;
+		boolean union = false;
+		for (Term term : terms) {
+			union |= term.operation == UNION;
+		}
+		this.hasUnion = union;
+	}
+
+	/**
+	 * @param pattern an Ansible host pattern
+	 * @return the compiled pattern
+	 * @throws IllegalArgumentException if the pattern contains an invalid regular expression or subscript
+	 */
+	public static AnsibleHostPattern compile(String pattern) {
+		final List<Term> terms = new ArrayList<>();
+		for (String part : split(pattern)) {
+			final String trimmed = part.trim();
+			if (!trimmed.isEmpty()) {
+				terms.add(Term.parse(trimmed));
+			}
+		}
+		return new AnsibleHostPattern(pattern, Collections.unmodifiableList(terms));
+	}
+
+	public String getPattern() {
+		return this.pattern;
+	}
+
+	/**
+	 * @param inventory the inventory to select from
+	 * @return the matching hosts in the order they were added to the inventory
+	 */
+	public List<AnsibleHost> select(AnsibleInventory inventory) {
+		return inventory.select(this);
+	}
+
+	BitSet evaluate(AnsibleInventory inventory) {
+		final BitSet result = this.hasUnion ? new BitSet() : (BitSet) inventory.getHostBits().clone();
+		for (int operation = UNION; operation <= EXCLUSION; operation++) {
+			for (Term term : this.terms) {
+				if (term.operation != operation) {
+					continue;
+				}
+				final BitSet matches = term.evaluate(inventory);
+				if (operation == UNION) {
+					result.or(matches);
+				} else if (operation == INTERSECTION) {
+					result.and(matches);
+				} else {
+					result.andNot(matches);
+				}
+			}
+		}
+		return result;
+	}
+
+	private static List<String> split(String pattern) {
+		final List<String> parts = new ArrayList<>();
+		final char separator = pattern.indexOf(',') >= 0 ? ',' : ':';
+		int depth = 0;
+		int start = 0;
+		for (int i = 0; i < pattern.length(); i++) {
+			final char c = pattern.charAt(i);
+			if (c == '[') {
+				depth++;
+			} else if (c == ']' && depth > 0) {
+				depth--;
+			} else if (c == separator && depth == 0) {
+				parts.add(pattern.substring(start, i));
+				start = i + 1;
+			}
+		}
+		parts.add(pattern.substring(start));
+		return parts;
+	}
+
+	@Override
+	public String toString() {
+		return this.pattern;
+	}
+
+	private static final class Term {
+
+		private final int operation;
+
+		private final String name;
+
+		/** <code>null</code> for plain names, which are looked up directly */
+		private final Pattern regex;
+
+		private final boolean all;
+
+		private final boolean hasSubscript;
+
+		private final int start;
+
+		/** Inclusive end of a range subscript, or <code>null</code> for a single index */
+		private final Integer end;
+
+		private Term(int operation, String name, Pattern regex, boolean hasSubscript, int start, Integer end) {
+			this.operation = operation;
+			this.name = name;
+			this.regex = regex;
+			this.all = regex == null && (AnsibleConstants.ALL_GROUP.equals(name) || "*".equals(name));
+			this.hasSubscript = hasSubscript;
+			this.start = start;
+			this.end = end;
+		}
+
+		static Term parse(String text) {
+			int operation = UNION;
+			if (text.charAt(0) == '&') {
+				operation = INTERSECTION;
+			} else if (text.charAt(0) == '!') {
+				operation = EXCLUSION;
+			}
+			final String pattern = operation == UNION ? text : text.substring(1).trim();
+			if (pattern.startsWith("~")) {
+				return new Term(operation, pattern, Pattern.compile(pattern.substring(1)), false, 0, null);
+			}
+
+			String name = pattern;
+			boolean hasSubscript = false;
+			int start = 0;
+			Integer end = null;
+			final int open = pattern.lastIndexOf('[');
+			if (open > 0 && pattern.endsWith("]")) {
+				final String subscript = pattern.substring(open + 1, pattern.length() - 1);
+				final int separator = subscript.indexOf(':', 1) >= 0 ? subscript.indexOf(':', 1)
+						: subscript.indexOf('-', 1);
+				try {
+					if (separator < 0) {
+						start = Integer.parseInt(subscript);
+					} else {
+						final String from = subscript.substring(0, separator);
+						final String to = subscript.substring(separator + 1);
+						start = from.isEmpty() ? 0 : Integer.parseInt(from);
+						end = to.isEmpty() ? -1 : Integer.parseInt(to);
+					}
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Invalid subscript in host pattern '" + pattern + "'", e);
+				}
+				name = pattern.substring(0, open);
+				hasSubscript = true;
+			}
+
+			Pattern regex = null;
+			if (name.indexOf('*') >= 0 || name.indexOf('?') >= 0) {
+				regex = globToRegex(name);
+			}
+			return new Term(operation, name, regex, hasSubscript, start, end);
+		}
+
+		private static Pattern globToRegex(String glob) {
+			final StringBuilder regex = new StringBuilder(glob.length() + 8);
+			int literalStart = 0;
+			for (int i = 0; i < glob.length(); i++) {
+				final char c = glob.charAt(i);
+				if (c == '*' || c == '?') {
+					if (literalStart < i) {
+						regex.append(Pattern.quote(glob.substring(literalStart, i)));
+					}
+					regex.append(c == '*' ? ".*" : ".");
+					literalStart = i + 1;
+				}
+			}
+			if (literalStart < glob.length()) {
+				regex.append(Pattern.quote(glob.substring(literalStart)));
+			}
+			regex.append('$');
+			return Pattern.compile(regex.toString());
+		}
+
+		private boolean matches(String candidate) {
+			return this.regex.matcher(candidate).lookingAt();
+		}
+
+		BitSet evaluate(AnsibleInventory inventory) {
+			BitSet result;
+			if (this.all) {
+				result = inventory.getHostBits();
+			} else if (this.regex == null) {
+				final AnsibleGroup group = inventory.getGroup(this.name);
+				if (group != null) {
+					result = inventory.getAllHostBits(group);
+				} else {
+					result = new BitSet();
+					final AnsibleHost host = inventory.getHost(this.name);
+					if (host != null) {
+						result.set(inventory.idOf(host));
+					}
+				}
+			} else {
+				result = new BitSet();
+				for (AnsibleGroup group : inventory.getGroups()) {
+					if (matches(group.getName())) {
+						result.or(inventory.getAllHostBits(group));
+					}
+				}
+				for (AnsibleHost host : inventory.getHosts()) {
+					if (matches(host.getName())) {
+						result.set(inventory.idOf(host));
+					}
+				}
+			}
+			return this.hasSubscript ? subscript(result) : result;
+		}
+
+		private BitSet subscript(BitSet hosts) {
+			final int count = hosts.cardinality();
+			int from = this.start < 0 ? count + this.start : this.start;
+			int to = this.end == null ? from : this.end < 0 ? count + this.end : Math.min(this.end, count - 1);
+			final BitSet result = new BitSet();
+			if (from < 0 || from > to) {
+				return result;
+			}
+			int position = 0;
+			for (int id = hosts.nextSetBit(0); id >= 0 && position <= to; id = hosts.nextSetBit(id + 1)) {
+				if (position >= from) {
+					result.set(id);
+				}
+				position++;
+			}
+			return result;
+		}
+	}
+}
@@ -17,20 +17,76 @@
  */
 package net.aschemann.ansible.inventory.type;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
+ * An Ansible inventory of hosts and groups.
+ * <p>
+ * Queries like {@link #getEffectiveVariables(AnsibleHost)} and {@link #selectHosts(String)} fill caches of derived
+ * state on first use. The caches are filled under an internal lock, so many threads may query an inventory at the
+ * same time as long as none of them changes it. Readers which run while the inventory changes should work on a
+ * {@link #freeze() snapshot}.
+ *
  * @author Andrea Scarpino
  */
 public class AnsibleInventory {
 
+	private static final int MAX_CACHED_PATTERNS = 256;
+
 	private Map<String, AnsibleHost> hosts;
 
 	private Map<String, AnsibleGroup> groups;
 
+	private final AnsibleMembershipIndex index = new AnsibleMembershipIndex();
+
+	private final AnsibleHostIds ids = new AnsibleHostIds();
+
+	private final AnsibleGroupGraph graph = new AnsibleGroupGraph(this.index, this.ids);
+
+	/** Built on first use by {@link #getHostsWithVariable(String)} */
+	private AnsibleVariableIndex variableIndex;
+
+	/** Identifiers of {@link #hosts}, or <code>null</code> if they need to be recomputed */
+	private BitSet hostBits;
+
+	private final Map<String, AnsibleHostPattern> patterns = new LinkedHashMap<String, AnsibleHostPattern>(16, 0.75f,
+			true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, AnsibleHostPattern> eldest) {
+			return size() > MAX_CACHED_PATTERNS;
+		}
+	};
+
+	private final AnsibleVariableResolver resolver = new AnsibleVariableResolver(this);
+
+	/** Guards the caches of derived state, which queries fill on first use */
+	private final Object cacheLock = new Object();
+
+	/** The implicit groups, once they were requested */
+	private AllGroup allGroup;
+
+	private UngroupedGroup ungroupedGroup;
+
+	/** Hosts without any explicit group, or <code>null</code> if they need to be recomputed */
+	private List<AnsibleHost> ungroupedHosts;
+
+	/** Whether a batch is being applied */
+	private boolean deferred;
+
+	private final AnsibleSnapshotTracker snapshots = new AnsibleSnapshotTracker(this);
+
 	public AnsibleInventory() {
 		super();
 		this.hosts = new HashMap<>();
@@ -42,7 +98,7 @@ public class AnsibleInventory {
 
 		if (hosts != null) {
 			for (AnsibleHost h : hosts) {
-				this.hosts.put(h.getName(), h);
+				addHost(h);
 			}
 		}
 	}
@@ -52,7 +108,7 @@ public class AnsibleInventory {
 
 		if (groups != null) {
 			for (AnsibleGroup g : groups) {
-				this.groups.put(g.getName(), g);
+				addGroup(g);
 			}
 		}
 	}
@@ -65,12 +121,59 @@ public class AnsibleInventory {
 		return this.groups.values();
 	}
 
+	/**
+	 * Adds a host to this inventory. A host with the same name is replaced, also in all its groups.
+	 *
+	 * @param host the host
+	 */
 	public void addHost(AnsibleHost host) {
-		this.hosts.put(host.getName(), host);
+		final AnsibleHost replaced = this.hosts.put(host.getName(), host);
+		if (this.variableIndex != null) {
+			if (replaced != null && replaced != host) {
+				this.variableIndex.remove(replaced);
+			}
+			if (host.inventory != this) {
+				this.variableIndex.add(host);
+			}
+		}
+		if (replaced != null && replaced != host) {
+			// The groups of a replaced host get the new instance, so a name stands for one host throughout
+			for (AnsibleGroup group : new ArrayList<>(this.index.getGroupsOf(replaced))) {
+				group.relinkHost(host);
+				this.index.removeMembership(group, replaced);
+				this.index.addMembership(group, host);
+				invalidateGraph(group);
+			}
+			this.ids.release(replaced);
+			detach(replaced);
+			compactIds();
+		}
+		host.inventory = this;
+		this.ids.idOf(host);
+		this.hostBits = null;
+		this.snapshots.hostChanged(host);
+		membershipChanged();
+		invalidateResolver();
 	}
 
 	public void addGroup(AnsibleGroup group) {
-		this.groups.put(group.getName(), group);
+		final AnsibleGroup replaced = this.groups.put(group.getName(), group);
+		if (replaced != null && replaced != group) {
+			membershipsChanged(replaced);
+			this.snapshots.groupRemoved(replaced);
+			unindex(replaced);
+			if (replaced == this.allGroup) {
+				this.allGroup = null;
+			} else if (replaced == this.ungroupedGroup) {
+				this.ungroupedGroup = null;
+			}
+		}
+		attach(group);
+		membershipsChanged(group);
+		this.snapshots.groupChanged(group);
+		invalidateGraph();
+		this.ungroupedHosts = null;
+		invalidateResolver();
 	}
 
 	public AnsibleHost getHost(String host) {
@@ -81,16 +184,671 @@ public class AnsibleInventory {
 		return this.groups.get(group);
 	}
 
+	/**
+	 * Returns the implicit <code>all</code> group and adds it to this inventory if necessary. Its hosts are the
+	 * hosts of this inventory, so adding or removing a host of the group adds or removes it from the inventory. A
+	 * regular group named <code>all</code> is replaced, but its subgroups and variables are kept.
+	 *
+	 * @return the group of all hosts
+	 */
+	public AnsibleGroup getAllGroup() {
+		if (this.allGroup == null) {
+			this.allGroup = new AllGroup();
+			addImplicitGroup(this.allGroup);
+		}
+		return this.allGroup;
+	}
+
+	/**
+	 * Returns the implicit <code>ungrouped</code> group and adds it to this inventory if necessary. Its hosts are
+	 * the hosts of this inventory which do not belong to any other group except for <code>all</code>, computed on
+	 * first use and cached until memberships change. Adding a host to the group adds it to the inventory, removing
+	 * one removes it from the inventory. A regular group named <code>ungrouped</code> is replaced, but its
+	 * subgroups and variables are kept.
+	 *
+	 * @return the group of hosts without any other group
+	 */
+	public AnsibleGroup getUngroupedGroup() {
+		if (this.ungroupedGroup == null) {
+			this.ungroupedGroup = new UngroupedGroup();
+			addImplicitGroup(this.ungroupedGroup);
+		}
+		return this.ungroupedGroup;
+	}
+
+	private void addImplicitGroup(AnsibleGroup group) {
+		final AnsibleGroup regular = this.groups.get(group.getName());
+		if (regular != null) {
+			for (AnsibleGroup subgroup : regular.getSubgroups()) {
+				group.addSubgroup(subgroup);
+			}
+			for (AnsibleVariable variable : regular.getVariables()) {
+				group.addVariable(variable);
+			}
+		}
+		addGroup(group);
+	}
+
+	/**
+	 * @param host a host of this inventory
+	 * @return the groups the host is a direct member of, including the implicit groups if they are part of this
+	 * inventory
+	 */
+	public Set<AnsibleGroup> getGroupsOf(AnsibleHost host) {
+		return withImplicitGroups(host, this.index.getGroupsOf(host), false);
+	}
+
+	/**
+	 * Returns the groups a host is a member of, either directly or through the <code>:children</code> of other
+	 * groups. The result is cached until the memberships of the host or one of its groups change.
+	 *
+	 * @param host a host of this inventory
+	 * @return the direct groups of the host and all their ancestors
+	 */
+	public Set<AnsibleGroup> getAncestorGroupsOf(AnsibleHost host) {
+		synchronized (this.cacheLock) {
+			return withImplicitGroups(host, this.index.getAncestorGroupsOf(host), true);
+		}
+	}
+
+	private Set<AnsibleGroup> withImplicitGroups(AnsibleHost host, Set<AnsibleGroup> groups, boolean ancestors) {
+		if ((this.allGroup == null && this.ungroupedGroup == null) || this.hosts.get(host.getName()) != host) {
+			return groups;
+		}
+		final Set<AnsibleGroup> result = new HashSet<>(groups);
+		if (this.allGroup != null) {
+			result.add(this.allGroup);
+			if (ancestors) {
+				result.addAll(this.index.getAncestorsOf(this.allGroup));
+			}
+		}
+		if (this.ungroupedGroup != null && this.index.getGroupsOf(host).isEmpty()) {
+			result.add(this.ungroupedGroup);
+			if (ancestors) {
+				result.addAll(this.index.getAncestorsOf(this.ungroupedGroup));
+			}
+		}
+		return Collections.unmodifiableSet(result);
+	}
+
+	/**
+	 * Returns the hosts of a group and of all its (transitive) subgroups. Cyclic <code>:children</code> definitions
+	 * are tolerated, every group of a cycle contains the hosts of all other groups of the cycle. The result is
+	 * cached until the hosts or subgroups of the group or one of its subgroups change.
+	 *
+	 * @param group a group of this inventory
+	 * @return the hosts of the group and its subgroups
+	 */
+	public Set<AnsibleHost> getAllHosts(AnsibleGroup group) {
+		synchronized (this.cacheLock) {
+			return this.graph.getAllHosts(group);
+		}
+	}
+
+	/**
+	 * @param group a group of this inventory
+	 * @return the groups which contain <code>group</code> as a direct or transitive subgroup
+	 */
+	public Set<AnsibleGroup> getAncestorsOf(AnsibleGroup group) {
+		synchronized (this.cacheLock) {
+			return this.index.getAncestorsOf(group);
+		}
+	}
+
+	/**
+	 * Finds cycles in the <code>:children</code> definitions, which Ansible rejects.
+	 *
+	 * @return the names of the groups of every cycle, or an empty list if there are none
+	 */
+	public List<List<String>> findGroupCycles() {
+		return AnsibleGroupGraph.findCycles(this.groups.values());
+	}
+
+	/**
+	 * Selects hosts with an Ansible host pattern like <code>webservers:&amp;staging:!phoenix</code>. Compiled
+	 * patterns are cached.
+	 *
+	 * @param pattern a host pattern
+	 * @return the matching hosts in the order they were added to the inventory
+	 * @throws IllegalArgumentException if the pattern is invalid
+	 * @see AnsibleHostPattern
+	 */
+	public List<AnsibleHost> selectHosts(String pattern) {
+		synchronized (this.cacheLock) {
+			AnsibleHostPattern compiled = this.patterns.get(pattern);
+			if (compiled == null) {
+				compiled = AnsibleHostPattern.compile(pattern);
+				this.patterns.put(pattern, compiled);
+			}
+			return select(compiled);
+		}
+	}
+
+	/**
+	 * Returns the hosts which set a variable themselves, regardless of its value. Variables inherited from groups
+	 * are not considered.
+	 * <p>
+	 * The lookup is served by an inverted index of the host variables, which is built on first use and then kept
+	 * up to date by {@link AnsibleHost#addVariable(AnsibleVariable)} and
+	 * {@link AnsibleHost#removeVariable(AnsibleVariable)}. Values changed with
+	 * {@link AnsibleVariable#setValue(Object)} are not noticed.
+	 *
+	 * @param variable the name of the variable
+	 * @return the hosts in the order they were added to the inventory
+	 */
+	public List<AnsibleHost> getHostsWithVariable(String variable) {
+		synchronized (this.cacheLock) {
+			return this.ids.toHosts(getVariableIndex().getHosts(variable));
+		}
+	}
+
+	/**
+	 * Like {@link #getHostsWithVariable(String)}, but only returns the hosts which set the variable to a certain
+	 * value. Only scalar values, i.e. strings, numbers, booleans and characters, are indexed.
+	 *
+	 * @param variable the name of the variable
+	 * @param value the value of the variable
+	 * @return the hosts in the order they were added to the inventory
+	 */
+	public List<AnsibleHost> getHostsWithVariable(String variable, Object value) {
+		synchronized (this.cacheLock) {
+			return this.ids.toHosts(getVariableIndex().getHosts(variable, value));
+		}
+	}
+
+	/**
+	 * Returns an immutable snapshot of this inventory, which readers on other threads may use without locking
+	 * while this inventory keeps changing. After the first snapshot, changes are tracked, so freezing again derives
+	 * the new snapshot from the previous one in time proportional to the changes. Values changed with
+	 * {@link AnsibleVariable#setValue(Object)} are not noticed.
+	 *
+	 * @return the snapshot, which is the same as the previous one if nothing changed
+	 */
+	public AnsibleInventorySnapshot freeze() {
+		synchronized (this.cacheLock) {
+			return this.snapshots.freeze();
+		}
+	}
+
+	/**
+	 * Applies many changes at once. The changes are collected by <code>mutations</code> and only applied if it
+	 * completes normally. While they are applied, caches and indexes derived from the memberships and variables,
+	 * like closures of groups and effective variables, are not maintained for every single change, but rebuilt
+	 * once at the end.
+	 *
+	 * @param mutations collects the changes
+	 * @return what was changed
+	 */
+	public AnsibleInventoryBatch.Summary batch(Consumer<AnsibleInventoryBatch> mutations) {
+		final AnsibleInventoryBatch batch = new AnsibleInventoryBatch();
+		mutations.accept(batch);
+		if (this.deferred) {
+			return batch.apply(this);
+		}
+		this.deferred = true;
+		this.index.setDeferred(true);
+		try {
+			return batch.apply(this);
+		} finally {
+			this.deferred = false;
+			this.index.setDeferred(false);
+			this.graph.clear();
+			this.resolver.invalidate();
+			this.ungroupedHosts = null;
+			this.hostBits = null;
+		}
+	}
+
+	/**
+	 * Returns the variables which apply to a host, i.e. its own variables merged with those of all its groups and
+	 * their ancestors in Ansible's precedence order (<code>all</code> &lt; parent group &lt; child group &lt; host).
+	 * The result is computed on first use and cached until the inventory, one of its groups or the host changes.
+	 *
+	 * @param host a host of this inventory
+	 * @return the effective variables of the host by name
+	 */
+	public Map<String, AnsibleVariable> getEffectiveVariables(AnsibleHost host) {
+		synchronized (this.cacheLock) {
+			return this.resolver.resolve(host);
+		}
+	}
+
+	/**
+	 * @param host a host of this inventory
+	 * @param variable the name of the variable
+	 * @return the effective variable of the host, or <code>null</code> if the variable is not set
+	 * @see #getEffectiveVariables(AnsibleHost)
+	 */
+	public AnsibleVariable getEffectiveVariable(AnsibleHost host, String variable) {
+		return getEffectiveVariables(host).get(variable);
+	}
+
+	/**
+	 * Removes a host from this inventory and from all its groups.
+	 *
+	 * @param host the name of the host
+	 */
 	public void removeHost(String host) {
-		this.hosts.remove(host);
+		removeHosts(Collections.singleton(host));
+	}
+
+	/**
+	 * Removes hosts from this inventory and from all their groups. The groups are found with the membership index,
+	 * so this takes time proportional to the number of memberships of the removed hosts, and caches derived from
+	 * a group are dropped once no matter how many of its hosts are removed.
+	 *
+	 * @param hosts the names of the hosts
+	 */
+	public void removeHosts(Collection<String> hosts) {
+		final Set<AnsibleGroup> changedGroups = new HashSet<>();
+		boolean changed = false;
+		for (String host : hosts) {
+			final AnsibleHost removed = this.hosts.remove(host);
+			if (removed == null) {
+				continue;
+			}
+			for (AnsibleGroup group : new ArrayList<>(this.index.getGroupsOf(removed))) {
+				group.unlinkHost(removed.getName());
+				this.index.removeMembership(group, removed);
+				this.snapshots.membershipChanged(group, removed);
+				changedGroups.add(group);
+			}
+			if (this.variableIndex != null) {
+				this.variableIndex.remove(removed);
+			}
+			this.ids.release(removed);
+			invalidateResolver(removed);
+			this.snapshots.hostChanged(removed);
+			detach(removed);
+			changed = true;
+		}
+		if (changed) {
+			for (AnsibleGroup group : changedGroups) {
+				invalidateGraph(group);
+			}
+			this.hostBits = null;
+			membershipChanged();
+			compactIds();
+		}
 	}
 
+	/**
+	 * Removes a group from this inventory and from the subgroups of all its parents. Its hosts and subgroups are
+	 * left untouched.
+	 *
+	 * @param group the name of the group
+	 */
 	public void removeGroup(String group) {
-		this.groups.remove(group);
+		final AnsibleGroup removed = this.groups.remove(group);
+		if (removed != null) {
+			for (AnsibleGroup parent : new ArrayList<>(this.index.getParentsOf(removed))) {
+				parent.removeSubgroup(removed.getName());
+			}
+			unindex(removed);
+			this.snapshots.groupRemoved(removed);
+			if (removed == this.allGroup) {
+				this.allGroup = null;
+			} else if (removed == this.ungroupedGroup) {
+				this.ungroupedGroup = null;
+			}
+		}
+		invalidateGraph();
+		this.ungroupedHosts = null;
+		invalidateResolver();
 	}
 
 	public void clear() {
+		for (AnsibleHost h : this.hosts.values()) {
+			detach(h);
+		}
+		for (AnsibleGroup g : this.groups.values()) {
+			detach(g);
+		}
 		this.hosts.clear();
 		this.groups.clear();
+		this.index.clear();
+		this.ids.clear();
+		this.variableIndex = null;
+		this.allGroup = null;
+		this.ungroupedGroup = null;
+		this.ungroupedHosts = null;
+		this.hostBits = null;
+		this.graph.clear();
+		this.resolver.invalidate();
+		this.snapshots.reset();
+	}
+
+	/**
+	 * Indexes a group together with its hosts and (transitive) subgroups, unless it is already part of this
+	 * inventory and therefore indexed. Hosts of the group which have the name of a host of this inventory are
+	 * replaced by that host like in {@link AnsibleGroup#addHost(AnsibleHost)}.
+	 */
+	private void attach(AnsibleGroup group) {
+		if (group.inventory == this) {
+			return;
+		}
+		group.inventory = this;
+		if (!isImplicit(group)) {
+			for (AnsibleHost host : new ArrayList<>(group.getHosts())) {
+				final AnsibleHost member = memberFor(host);
+				if (member != host) {
+					group.relinkHost(member);
+				}
+				adopt(member);
+				this.index.addMembership(group, member);
+			}
+		}
+		for (AnsibleGroup subgroup : group.getSubgroups()) {
+			this.index.addSubgroup(group, subgroup);
+			attach(subgroup);
+		}
+	}
+
+	/**
+	 * Removes the memberships of a group which is no longer part of this inventory. Groups which are still the
+	 * subgroup of another group stay reachable and are therefore kept.
+	 */
+	private void unindex(AnsibleGroup group) {
+		if (!this.index.getParentsOf(group).isEmpty()) {
+			return;
+		}
+		if (!isImplicit(group)) {
+			for (AnsibleHost host : group.getHosts()) {
+				this.index.removeMembership(group, host);
+			}
+		}
+		for (AnsibleGroup subgroup : group.getSubgroups()) {
+			this.index.removeSubgroup(group, subgroup);
+			if (this.groups.get(subgroup.getName()) != subgroup) {
+				unindex(subgroup);
+			}
+		}
+		detach(group);
+	}
+
+	/*
+	 * While a batch is applied, derived state is not maintained but rebuilt once at the end.
+	 */
+
+	private void invalidateResolver() {
+		if (!this.deferred) {
+			this.resolver.invalidate();
+		}
+	}
+
+	private void invalidateResolver(AnsibleHost host) {
+		if (!this.deferred) {
+			this.resolver.invalidate(host);
+		}
+	}
+
+	private void invalidateGraph() {
+		if (!this.deferred) {
+			this.graph.clear();
+		}
+	}
+
+	private void invalidateGraph(AnsibleGroup group) {
+		if (!this.deferred) {
+			this.graph.invalidate(group);
+		}
+	}
+
+	/**
+	 * Records the memberships of a group as changed for the next snapshot.
+	 */
+	private void membershipsChanged(AnsibleGroup group) {
+		if (!isImplicit(group)) {
+			for (AnsibleHost host : group.getHosts()) {
+				this.snapshots.membershipChanged(group, host);
+			}
+		}
+	}
+
+	boolean isImplicit(AnsibleGroup group) {
+		return group instanceof AllGroup || group instanceof UngroupedGroup;
+	}
+
+	/**
+	 * Drops what is derived from the memberships of all hosts, i.e. the implicit groups.
+	 */
+	private void membershipChanged() {
+		this.ungroupedHosts = null;
+		if (this.deferred) {
+			return;
+		}
+		if (this.allGroup != null) {
+			invalidateGraph(this.allGroup);
+		}
+		if (this.ungroupedGroup != null) {
+			invalidateGraph(this.ungroupedGroup);
+		}
+	}
+
+	private List<AnsibleHost> getUngroupedHosts() {
+		synchronized (this.cacheLock) {
+			if (this.ungroupedHosts == null) {
+				final List<AnsibleHost> result = new ArrayList<>();
+				for (AnsibleHost host : this.hosts.values()) {
+					if (this.index.getGroupsOf(host).isEmpty()) {
+						result.add(host);
+					}
+				}
+				this.ungroupedHosts = Collections.unmodifiableList(result);
+			}
+			return this.ungroupedHosts;
+		}
+	}
+
+	private void adopt(AnsibleHost host) {
+		if (host.inventory == null) {
+			host.inventory = this;
+			if (this.variableIndex != null) {
+				this.variableIndex.add(host);
+			}
+		}
+		this.ids.idOf(host);
+	}
+
+	private void detach(AnsibleHost host) {
+		if (host != null && host.inventory == this) {
+			host.inventory = null;
+		}
+	}
+
+	private void detach(AnsibleGroup group) {
+		if (group != null && group.inventory == this) {
+			group.inventory = null;
+		}
+	}
+
+	/**
+	 * Compacts the host identifiers once most of them are released, and drops everything which refers to the old
+	 * identifiers.
+	 */
+	private void compactIds() {
+		if (!this.ids.shouldCompact()) {
+			return;
+		}
+		this.ids.compact();
+		this.graph.clear();
+		this.hostBits = null;
+		this.variableIndex = null;
+	}
+
+	private AnsibleVariableIndex getVariableIndex() {
+		if (this.variableIndex == null) {
+			final AnsibleVariableIndex index = new AnsibleVariableIndex(this.ids);
+			for (AnsibleHost host : this.ids.getHosts()) {
+				if (host != null && host.inventory == this) {
+					index.add(host);
+				}
+			}
+			this.variableIndex = index;
+		}
+		return this.variableIndex;
+	}
+
+	Set<AnsibleGroup> getParentsOf(AnsibleGroup group) {
+		return this.index.getParentsOf(group);
+	}
+
+	BitSet getHostBits() {
+		if (this.hostBits == null) {
+			this.hostBits = this.ids.toBits(this.hosts.values());
+		}
+		return this.hostBits;
+	}
+
+	BitSet getAllHostBits(AnsibleGroup group) {
+		return this.graph.getAllHostBits(group);
+	}
+
+	int idOf(AnsibleHost host) {
+		return this.ids.idOf(host);
+	}
+
+	List<AnsibleHost> select(AnsibleHostPattern pattern) {
+		synchronized (this.cacheLock) {
+			return this.ids.toHosts(pattern.evaluate(this));
+		}
+	}
+
+	/**
+	 * Returns the host of this inventory which a group gets when <code>host</code> is added to it: the host with the
+	 * same name, into which the variables of <code>host</code> are merged, or <code>host</code> if there is none.
+	 */
+	AnsibleHost memberFor(AnsibleHost host) {
+		final AnsibleHost existing = this.hosts.get(host.getName());
+		if (existing == null || existing == host) {
+			return host;
+		}
+		for (AnsibleVariable variable : host.getVariables()) {
+			existing.addVariable(variable);
+		}
+		return existing;
+	}
+
+	void hostAdded(AnsibleGroup group, AnsibleHost host) {
+		adopt(host);
+		this.index.addMembership(group, host);
+		this.snapshots.membershipChanged(group, host);
+		invalidateGraph(group);
+		membershipChanged();
+		invalidateResolver(host);
+	}
+
+	void hostRemoved(AnsibleGroup group, AnsibleHost host) {
+		this.index.removeMembership(group, host);
+		this.snapshots.membershipChanged(group, host);
+		invalidateGraph(group);
+		membershipChanged();
+		invalidateResolver(host);
+	}
+
+	void subgroupAdded(AnsibleGroup group, AnsibleGroup subgroup) {
+		this.index.addSubgroup(group, subgroup);
+		attach(subgroup);
+		this.snapshots.groupChanged(group);
+		invalidateGraph(group);
+		invalidateResolver();
+	}
+
+	void subgroupRemoved(AnsibleGroup group, AnsibleGroup subgroup) {
+		this.index.removeSubgroup(group, subgroup);
+		if (this.groups.get(subgroup.getName()) != subgroup) {
+			unindex(subgroup);
+		}
+		this.snapshots.groupChanged(group);
+		invalidateGraph(group);
+		invalidateResolver();
+	}
+
+	void groupVariablesChanged(AnsibleGroup group) {
+		this.snapshots.groupChanged(group);
+		invalidateResolver();
+	}
+
+	void hostVariableAdded(AnsibleHost host, AnsibleVariable variable) {
+		if (this.variableIndex != null) {
+			this.variableIndex.add(host, variable);
+		}
+		this.snapshots.hostChanged(host);
+		invalidateResolver(host);
+	}
+
+	void hostVariableRemoved(AnsibleHost host, AnsibleVariable variable) {
+		if (this.variableIndex != null) {
+			this.variableIndex.remove(host, variable);
+		}
+		this.snapshots.hostChanged(host);
+		invalidateResolver(host);
+	}
+
+	/**
+	 * The <code>all</code> group, whose hosts are the hosts of the inventory.
+	 */
+	private final class AllGroup extends AnsibleGroup {
+
+		AllGroup() {
+			super(AnsibleConstants.ALL_GROUP);
+		}
+
+		@Override
+		public Collection<AnsibleHost> getHosts() {
+			return Collections.unmodifiableCollection(AnsibleInventory.this.hosts.values());
+		}
+
+		@Override
+		public AnsibleHost getHost(String host) {
+			return AnsibleInventory.this.getHost(host);
+		}
+
+		@Override
+		public void addHost(AnsibleHost host) {
+			if (AnsibleInventory.this.getHost(host.getName()) != host) {
+				AnsibleInventory.this.addHost(host);
+			}
+		}
+
+		@Override
+		public void removeHost(String host) {
+			AnsibleInventory.this.removeHost(host);
+		}
+	}
+
+	/**
+	 * The <code>ungrouped</code> group, whose hosts are the hosts of the inventory without any explicit group.
+	 */
+	private final class UngroupedGroup extends AnsibleGroup {
+
+		UngroupedGroup() {
+			super(AnsibleConstants.UNGROUPED_GROUP);
+		}
+
+		@Override
+		public Collection<AnsibleHost> getHosts() {
+			return getUngroupedHosts();
+		}
+
+		@Override
+		public AnsibleHost getHost(String host) {
+			final AnsibleHost result = AnsibleInventory.this.getHost(host);
+			return result != null && index.getGroupsOf(result).isEmpty() ? result : null;
+		}
+
+		@Override
+		public void addHost(AnsibleHost host) {
+			if (AnsibleInventory.this.getHost(host.getName()) != host) {
+				AnsibleInventory.this.addHost(host);
+			}
+		}
+
+		@Override
+		public void removeHost(String host) {
+			if (getHost(host) != null) {
+				AnsibleInventory.this.removeHost(host);
+			}
+		}
 	}
 }
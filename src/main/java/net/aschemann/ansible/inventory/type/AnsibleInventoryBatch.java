@@ -0,0 +1,266 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects changes of an {@link AnsibleInventory} which are applied together by
+ * {@link AnsibleInventory#batch(java.util.function.Consumer)}. Groups and hosts are referred to by name and looked
+ * up when the changes are applied, so a batch may refer to groups and hosts it adds itself. Groups which do not
+ * exist yet are created.
+ */
+public final class AnsibleInventoryBatch {
+
+	private interface Operation {
+		void apply(AnsibleInventory inventory, Summary summary);
+	}
+
+	private final List<Operation> operations = new ArrayList<>();
+
+	AnsibleInventoryBatch() {
+	}
+
+	/**
+	 * Adds a host to the inventory like {@link AnsibleInventory#addHost(AnsibleHost)}: a host with the same name is
+	 * replaced, also in all its groups, which is counted by {@link Summary#getHostsReplaced()}.
+	 *
+	 * @param host the host
+	 * @return this batch
+	 */
+	public AnsibleInventoryBatch addHost(AnsibleHost host) {
+		this.operations.add((inventory, summary) -> {
+			final AnsibleHost existing = inventory.getHost(host.getName());
+			if (existing != host) {
+				inventory.addHost(host);
+				if (existing == null) {
+					summary.hostsAdded++;
+				} else {
+					summary.hostsReplaced++;
+				}
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Adds a host to a group, and to the inventory if it is not part of it yet. Like
+	 * {@link AnsibleGroup#addHost(AnsibleHost)}, a host of the inventory with the same name is kept and the
+	 * variables of <code>host</code> are merged into it.
+	 *
+	 * @param group the name of the group
+	 * @param host the host
+	 * @return this batch
+	 */
+	public AnsibleInventoryBatch addHost(String group, AnsibleHost host) {
+		this.operations.add((inventory, summary) -> {
+			final AnsibleHost added = getOrAddHost(inventory, host, summary);
+			final AnsibleGroup target = getOrAddGroup(inventory, group, summary);
+			if (target.getHost(added.getName()) != added) {
+				target.addHost(added);
+				summary.membershipsAdded++;
+			}
+		});
+		return this;
+	}
+
+	public AnsibleInventoryBatch addGroup(AnsibleGroup group) {
+		this.operations.add((inventory, summary) -> {
+			if (inventory.getGroup(group.getName()) != group) {
+				inventory.addGroup(group);
+				summary.groupsAdded++;
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * @param parent the name of the parent group
+	 * @param subgroup the name of the subgroup
+	 * @return this batch
+	 */
+	public AnsibleInventoryBatch addSubgroup(String parent, String subgroup) {
+		this.operations.add((inventory, summary) -> {
+			final AnsibleGroup parentGroup = getOrAddGroup(inventory, parent, summary);
+			final AnsibleGroup child = getOrAddGroup(inventory, subgroup, summary);
+			if (!inventory.getParentsOf(child).contains(parentGroup)) {
+				parentGroup.addSubgroup(child);
+				summary.subgroupsAdded++;
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Adds a variable to a host of the inventory, cf. {@link AnsibleHost#addVariable(AnsibleVariable)}. Variables of
+	 * unknown hosts are ignored.
+	 *
+	 * @param host the name of the host
+	 * @param variable the variable
+	 * @return this batch
+	 */
+	public AnsibleInventoryBatch addHostVariable(String host, AnsibleVariable variable) {
+		this.operations.add((inventory, summary) -> {
+			final AnsibleHost target = inventory.getHost(host);
+			if (target != null && target.getVariable(variable.getName()) == null) {
+				target.addVariable(variable);
+				summary.variablesSet++;
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Sets a variable of a group, cf. {@link AnsibleGroup#addVariable(AnsibleVariable)}.
+	 *
+	 * @param group the name of the group
+	 * @param variable the variable
+	 * @return this batch
+	 */
+	public AnsibleInventoryBatch addGroupVariable(String group, AnsibleVariable variable) {
+		this.operations.add((inventory, summary) -> {
+			getOrAddGroup(inventory, group, summary).addVariable(variable);
+			summary.variablesSet++;
+		});
+		return this;
+	}
+
+	/**
+	 * @param host the name of the host, which is removed from all its groups, too
+	 * @return this batch
+	 */
+	public AnsibleInventoryBatch removeHost(String host) {
+		this.operations.add((inventory, summary) -> {
+			if (inventory.getHost(host) != null) {
+				inventory.removeHost(host);
+				summary.hostsRemoved++;
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * @param group the name of the group, which is removed from all its parents, too
+	 * @return this batch
+	 */
+	public AnsibleInventoryBatch removeGroup(String group) {
+		this.operations.add((inventory, summary) -> {
+			if (inventory.getGroup(group) != null) {
+				inventory.removeGroup(group);
+				summary.groupsRemoved++;
+			}
+		});
+		return this;
+	}
+
+	Summary apply(AnsibleInventory inventory) {
+		final Summary summary = new Summary();
+		for (Operation operation : this.operations) {
+			operation.apply(inventory, summary);
+		}
+		return summary;
+	}
+
+	private static AnsibleHost getOrAddHost(AnsibleInventory inventory, AnsibleHost host, Summary summary) {
+		if (inventory.getHost(host.getName()) != null) {
+			return inventory.memberFor(host);
+		}
+		inventory.addHost(host);
+		summary.hostsAdded++;
+		return host;
+	}
+
+	private static AnsibleGroup getOrAddGroup(AnsibleInventory inventory, String name, Summary summary) {
+		AnsibleGroup group = inventory.getGroup(name);
+		if (group == null) {
+			group = new AnsibleGroup(name);
+			inventory.addGroup(group);
+			summary.groupsAdded++;
+		}
+		return group;
+	}
+
+	/**
+	 * What a batch changed. Changes without an effect, like adding a host which already is part of the inventory,
+	 * are not counted.
+	 */
+	public static final class Summary {
+
+		private int hostsAdded;
+
+		private int hostsReplaced;
+
+		private int hostsRemoved;
+
+		private int groupsAdded;
+
+		private int groupsRemoved;
+
+		private int membershipsAdded;
+
+		private int subgroupsAdded;
+
+		private int variablesSet;
+
+		Summary() {
+		}
+
+		public int getHostsAdded() {
+			return this.hostsAdded;
+		}
+
+		/**
+		 * @return the number of hosts which replaced another host with the same name
+		 */
+		public int getHostsReplaced() {
+			return this.hostsReplaced;
+		}
+
+		public int getHostsRemoved() {
+			return this.hostsRemoved;
+		}
+
+		public int getGroupsAdded() {
+			return this.groupsAdded;
+		}
+
+		public int getGroupsRemoved() {
+			return this.groupsRemoved;
+		}
+
+		public int getMembershipsAdded() {
+			return this.membershipsAdded;
+		}
+
+		public int getSubgroupsAdded() {
+			return this.subgroupsAdded;
+		}
+
+		public int getVariablesSet() {
+			return this.variablesSet;
+		}
+
+		@Override
+		public String toString() {
+			return "hosts +" + this.hostsAdded + "/~" + this.hostsReplaced + "/-" + this.hostsRemoved + ", groups +"
+					+ this.groupsAdded + "/-" + this.groupsRemoved + ", memberships +" + this.membershipsAdded
+					+ ", subgroups +" + this.subgroupsAdded + ", variables " + this.variablesSet;
+		}
+	}
+}
@@ -0,0 +1,669 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.type;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable copy of an {@link AnsibleInventory}, created by {@link AnsibleInventory#freeze()} or a
+ * {@link Builder}. Snapshots may be shared between threads without any locking.
+ * <p>
+ * Hosts, groups, memberships and variables are kept in persistent hash tries, so a snapshot derived from another one
+ * shares everything except for the paths to the changed entries: freezing an inventory again after a few changes, or
+ * deriving a snapshot with {@link #toBuilder()}, takes time and memory proportional to the changes rather than to the
+ * size of the inventory.
+ * <p>
+ * Hosts and groups are referred to by name. The implicit groups <code>all</code> and <code>ungrouped</code> contain
+ * all hosts respectively the hosts without any explicit group.
+ * <p>
+ * Maps, collections and arrays in the values of variables are copied into unmodifiable maps, sets and lists when
+ * they are frozen, and copied into modifiable ones again by {@link #toInventory()}, so neither the inventory a
+ * snapshot was taken from nor a copy can change it.
+ */
+public final class AnsibleInventorySnapshot {
+
+	private static final AnsibleInventorySnapshot EMPTY = new AnsibleInventorySnapshot(
+			AnsiblePersistentMap.<String, Host>empty(), AnsiblePersistentMap.<String, Group>empty(),
+			AnsiblePersistentMap.<String, String>empty());
+
+	private final AnsiblePersistentMap<String, Host> hosts;
+
+	private final AnsiblePersistentMap<String, Group> groups;
+
+	/** Hosts without any explicit group */
+	private final AnsiblePersistentMap<String, String> ungrouped;
+
+	private AnsibleInventorySnapshot(AnsiblePersistentMap<String, Host> hosts,
+			AnsiblePersistentMap<String, Group> groups, AnsiblePersistentMap<String, String> ungrouped) {
+		this.hosts = hosts;
+		this.groups = groups;
+		this.ungrouped = ungrouped;
+	}
+
+	/**
+	 * @return a snapshot without any hosts and groups
+	 */
+	public static AnsibleInventorySnapshot empty() {
+		return EMPTY;
+	}
+
+	public Collection<Host> getHosts() {
+		return this.hosts.asMap().values();
+	}
+
+	public Host getHost(String host) {
+		return this.hosts.get(host);
+	}
+
+	public Collection<Group> getGroups() {
+		return this.groups.asMap().values();
+	}
+
+	public Group getGroup(String group) {
+		return this.groups.get(group);
+	}
+
+	/**
+	 * @return a builder which starts from this snapshot
+	 */
+	public Builder toBuilder() {
+		return new Builder(this);
+	}
+
+	/**
+	 * Copies this snapshot into a new, mutable inventory. Subgroups which are not part of the snapshot are left
+	 * out.
+	 *
+	 * @return the inventory
+	 */
+	public AnsibleInventory toInventory() {
+		final AnsibleInventory inventory = new AnsibleInventory();
+		final Map<String, AnsibleHost> hosts = new HashMap<>();
+		for (Host host : getHosts()) {
+			final AnsibleHost copy = new AnsibleHost(host.getName());
+			for (AnsibleVariable variable : host.getVariables()) {
+				copy.addVariable(new AnsibleVariable(variable.getName(), thaw(variable.getValue())));
+			}
+			hosts.put(copy.getName(), copy);
+			inventory.addHost(copy);
+		}
+		final Map<String, AnsibleGroup> groups = new HashMap<>();
+		for (Group group : getGroups()) {
+			final AnsibleGroup copy;
+			if (AnsibleConstants.ALL_GROUP.equals(group.getName()) && group.isImplicit()) {
+				copy = inventory.getAllGroup();
+			} else if (AnsibleConstants.UNGROUPED_GROUP.equals(group.getName()) && group.isImplicit()) {
+				copy = inventory.getUngroupedGroup();
+			} else {
+				copy = new AnsibleGroup(group.getName());
+				for (String host : group.getHostNames()) {
+					AnsibleHost member = hosts.get(host);
+					if (member == null) {
+						member = new AnsibleHost(host);
+						hosts.put(host, member);
+					}
+					copy.addHost(member);
+				}
+			}
+			for (AnsibleVariable variable : group.getVariables()) {
+				copy.addVariable(new AnsibleVariable(variable.getName(), thaw(variable.getValue())));
+			}
+			groups.put(copy.getName(), copy);
+		}
+		for (Group group : getGroups()) {
+			final AnsibleGroup copy = groups.get(group.getName());
+			for (String subgroup : group.getSubgroupNames()) {
+				if (groups.containsKey(subgroup)) {
+					copy.addSubgroup(groups.get(subgroup));
+				}
+			}
+			if (!group.isImplicit()) {
+				inventory.addGroup(copy);
+			}
+		}
+		return inventory;
+	}
+
+	private static AnsibleVariable freeze(AnsibleVariable variable) {
+		return variable instanceof FrozenVariable ? variable
+				: new FrozenVariable(variable.getName(), freeze(variable.getValue()));
+	}
+
+	/**
+	 * @return a deep, unmodifiable copy of a compound value, i.e. a map, set, collection or array; the value itself
+	 * otherwise
+	 */
+	private static Object freeze(Object value) {
+		if (value instanceof Map) {
+			final Map<Object, Object> copy = new LinkedHashMap<>();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				copy.put(freeze(entry.getKey()), freeze(entry.getValue()));
+			}
+			return Collections.unmodifiableMap(copy);
+		}
+		if (value instanceof Set) {
+			final Set<Object> copy = new LinkedHashSet<>();
+			for (Object element : (Set<?>) value) {
+				copy.add(freeze(element));
+			}
+			return Collections.unmodifiableSet(copy);
+		}
+		if (value instanceof Collection) {
+			final List<Object> copy = new ArrayList<>(((Collection<?>) value).size());
+			for (Object element : (Collection<?>) value) {
+				copy.add(freeze(element));
+			}
+			return Collections.unmodifiableList(copy);
+		}
+		if (value != null && value.getClass().isArray()) {
+			final int length = Array.getLength(value);
+			final List<Object> copy = new ArrayList<>(length);
+			for (int i = 0; i < length; i++) {
+				copy.add(freeze(Array.get(value, i)));
+			}
+			return Collections.unmodifiableList(copy);
+		}
+		return value;
+	}
+
+	/**
+	 * @return a deep, modifiable copy of a frozen compound value; the value itself otherwise
+	 */
+	private static Object thaw(Object value) {
+		if (value instanceof Map) {
+			final Map<Object, Object> copy = new LinkedHashMap<>();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				copy.put(thaw(entry.getKey()), thaw(entry.getValue()));
+			}
+			return copy;
+		}
+		if (value instanceof Set) {
+			final Set<Object> copy = new LinkedHashSet<>();
+			for (Object element : (Set<?>) value) {
+				copy.add(thaw(element));
+			}
+			return copy;
+		}
+		if (value instanceof Collection) {
+			final List<Object> copy = new ArrayList<>(((Collection<?>) value).size());
+			for (Object element : (Collection<?>) value) {
+				copy.add(thaw(element));
+			}
+			return copy;
+		}
+		return value;
+	}
+
+	private static boolean isImplicit(String group) {
+		return AnsibleConstants.ALL_GROUP.equals(group) || AnsibleConstants.UNGROUPED_GROUP.equals(group);
+	}
+
+	/**
+	 * A host of a snapshot.
+	 */
+	public static final class Host {
+
+		private final String name;
+
+		private final AnsiblePersistentMap<String, AnsibleVariable> variables;
+
+		/** The explicit groups the host is a direct member of */
+		private final AnsiblePersistentMap<String, String> groups;
+
+		Host(String name, AnsiblePersistentMap<String, AnsibleVariable> variables,
+				AnsiblePersistentMap<String, String> groups) {
+			this.name = name;
+			this.variables = variables;
+			this.groups = groups;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return the variables of the host, which can not be changed
+		 */
+		public Collection<AnsibleVariable> getVariables() {
+			return this.variables.asMap().values();
+		}
+
+		public AnsibleVariable getVariable(String variable) {
+			return this.variables.get(variable);
+		}
+
+		/**
+		 * @return the names of the groups the host is a direct member of, without the implicit groups
+		 */
+		public Set<String> getGroupNames() {
+			return this.groups.asMap().keySet();
+		}
+
+		Host withVariables(AnsiblePersistentMap<String, AnsibleVariable> variables) {
+			return variables == this.variables ? this : new Host(this.name, variables, this.groups);
+		}
+
+		Host withGroups(AnsiblePersistentMap<String, String> groups) {
+			return groups == this.groups ? this : new Host(this.name, this.variables, groups);
+		}
+
+		@Override
+		public String toString() {
+			return this.name;
+		}
+	}
+
+	/**
+	 * A group of a snapshot.
+	 */
+	public static final class Group {
+
+		private final String name;
+
+		private final boolean implicit;
+
+		private final AnsiblePersistentMap<String, ?> hosts;
+
+		private final AnsiblePersistentMap<String, String> subgroups;
+
+		private final AnsiblePersistentMap<String, AnsibleVariable> variables;
+
+		Group(String name, boolean implicit, AnsiblePersistentMap<String, ?> hosts,
+				AnsiblePersistentMap<String, String> subgroups, AnsiblePersistentMap<String, AnsibleVariable> variables) {
+			this.name = name;
+			this.implicit = implicit;
+			this.hosts = hosts;
+			this.subgroups = subgroups;
+			this.variables = variables;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return whether this is the implicit <code>all</code> or <code>ungrouped</code> group
+		 */
+		public boolean isImplicit() {
+			return this.implicit;
+		}
+
+		/**
+		 * @return the names of the direct hosts of the group
+		 */
+		public Set<String> getHostNames() {
+			return Collections.unmodifiableSet(this.hosts.asMap().keySet());
+		}
+
+		public Set<String> getSubgroupNames() {
+			return this.subgroups.asMap().keySet();
+		}
+
+		/**
+		 * @return the variables of the group, which can not be changed
+		 */
+		public Collection<AnsibleVariable> getVariables() {
+			return this.variables.asMap().values();
+		}
+
+		public AnsibleVariable getVariable(String variable) {
+			return this.variables.get(variable);
+		}
+
+		@SuppressWarnings("unchecked")
+		AnsiblePersistentMap<String, String> hosts() {
+			return (AnsiblePersistentMap<String, String>) this.hosts;
+		}
+
+		Group withHosts(AnsiblePersistentMap<String, ?> hosts) {
+			return hosts == this.hosts ? this : new Group(this.name, this.implicit, hosts, this.subgroups, this.variables);
+		}
+
+		Group withSubgroups(AnsiblePersistentMap<String, String> subgroups) {
+			return subgroups == this.subgroups ? this
+					: new Group(this.name, this.implicit, this.hosts, subgroups, this.variables);
+		}
+
+		Group withVariables(AnsiblePersistentMap<String, AnsibleVariable> variables) {
+			return variables == this.variables ? this
+					: new Group(this.name, this.implicit, this.hosts, this.subgroups, variables);
+		}
+
+		@Override
+		public String toString() {
+			return this.name;
+		}
+	}
+
+	/**
+	 * Derives a new snapshot from an existing one. Every change copies only the paths to the changed entries, the
+	 * snapshot the builder started from is not affected. Unknown hosts and groups are created when they are
+	 * referred to, except for removals, which ignore them.
+	 */
+	public static final class Builder {
+
+		private AnsiblePersistentMap<String, Host> hosts;
+
+		private AnsiblePersistentMap<String, Group> groups;
+
+		private AnsiblePersistentMap<String, String> ungrouped;
+
+		Builder(AnsibleInventorySnapshot snapshot) {
+			this.hosts = snapshot.hosts;
+			this.groups = snapshot.groups;
+			this.ungrouped = snapshot.ungrouped;
+		}
+
+		public Builder addHost(String host) {
+			getOrAddHost(host);
+			return this;
+		}
+
+		/**
+		 * @param host the name of the host, which is removed from all its groups, too
+		 * @return this builder
+		 */
+		public Builder removeHost(String host) {
+			final Host removed = this.hosts.get(host);
+			if (removed != null) {
+				for (String group : removed.getGroupNames()) {
+					final Group target = this.groups.get(group);
+					this.groups = this.groups.plus(group, target.withHosts(target.hosts().minus(host)));
+				}
+				this.hosts = this.hosts.minus(host);
+				this.ungrouped = this.ungrouped.minus(host);
+			}
+			return this;
+		}
+
+		/**
+		 * Adds a group. Groups named <code>all</code> or <code>ungrouped</code> are implicit groups.
+		 *
+		 * @param group the name of the group
+		 * @return this builder
+		 */
+		public Builder addGroup(String group) {
+			getOrAddGroup(group, isImplicit(group));
+			return this;
+		}
+
+		/**
+		 * @param group the name of the group, which is removed from the subgroups of all other groups, too
+		 * @return this builder
+		 */
+		public Builder removeGroup(String group) {
+			dropGroup(group);
+			for (Group parent : this.groups.asMap().values()) {
+				if (parent.subgroups.containsKey(group)) {
+					this.groups = this.groups.plus(parent.getName(), parent.withSubgroups(parent.subgroups.minus(group)));
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Adds a host to a group. Adding a host to an implicit group only adds it to the snapshot.
+		 *
+		 * @param group the name of the group
+		 * @param host the name of the host
+		 * @return this builder
+		 */
+		public Builder addHost(String group, String host) {
+			getOrAddGroup(group, isImplicit(group));
+			getOrAddHost(host);
+			link(group, host, true);
+			return this;
+		}
+
+		/**
+		 * Removes a host from a group. Removing a host from an implicit group removes it from the snapshot.
+		 *
+		 * @param group the name of the group
+		 * @param host the name of the host
+		 * @return this builder
+		 */
+		public Builder removeHost(String group, String host) {
+			final Group target = this.groups.get(group);
+			if (target != null && target.isImplicit()) {
+				if (target.hosts.containsKey(host)) {
+					removeHost(host);
+				}
+			} else {
+				link(group, host, false);
+			}
+			return this;
+		}
+
+		public Builder addSubgroup(String group, String subgroup) {
+			final Group parent = getOrAddGroup(group, isImplicit(group));
+			getOrAddGroup(subgroup, isImplicit(subgroup));
+			this.groups = this.groups.plus(group, parent.withSubgroups(parent.subgroups.plus(subgroup, subgroup)));
+			return this;
+		}
+
+		public Builder removeSubgroup(String group, String subgroup) {
+			final Group parent = this.groups.get(group);
+			if (parent != null) {
+				this.groups = this.groups.plus(group, parent.withSubgroups(parent.subgroups.minus(subgroup)));
+			}
+			return this;
+		}
+
+		/**
+		 * Sets a variable of a host, replacing a variable with the same name.
+		 *
+		 * @param host the name of the host
+		 * @param variable the variable, which is copied
+		 * @return this builder
+		 */
+		public Builder setHostVariable(String host, AnsibleVariable variable) {
+			final Host target = getOrAddHost(host);
+			this.hosts = this.hosts.plus(host,
+					target.withVariables(target.variables.plus(variable.getName(), freeze(variable))));
+			return this;
+		}
+
+		public Builder removeHostVariable(String host, String variable) {
+			final Host target = this.hosts.get(host);
+			if (target != null) {
+				this.hosts = this.hosts.plus(host, target.withVariables(target.variables.minus(variable)));
+			}
+			return this;
+		}
+
+		/**
+		 * Sets a variable of a group, replacing a variable with the same name.
+		 *
+		 * @param group the name of the group
+		 * @param variable the variable, which is copied
+		 * @return this builder
+		 */
+		public Builder setGroupVariable(String group, AnsibleVariable variable) {
+			final Group target = getOrAddGroup(group, isImplicit(group));
+			this.groups = this.groups.plus(group,
+					target.withVariables(target.variables.plus(variable.getName(), freeze(variable))));
+			return this;
+		}
+
+		public Builder removeGroupVariable(String group, String variable) {
+			final Group target = this.groups.get(group);
+			if (target != null) {
+				this.groups = this.groups.plus(group, target.withVariables(target.variables.minus(variable)));
+			}
+			return this;
+		}
+
+		public AnsibleInventorySnapshot build() {
+			final Group all = this.groups.get(AnsibleConstants.ALL_GROUP);
+			if (all != null && all.isImplicit()) {
+				this.groups = this.groups.plus(all.getName(), all.withHosts(this.hosts));
+			}
+			final Group ungrouped = this.groups.get(AnsibleConstants.UNGROUPED_GROUP);
+			if (ungrouped != null && ungrouped.isImplicit()) {
+				this.groups = this.groups.plus(ungrouped.getName(), ungrouped.withHosts(this.ungrouped));
+			}
+			return new AnsibleInventorySnapshot(this.hosts, this.groups, this.ungrouped);
+		}
+
+		/**
+		 * Replaces the variables of a host of an inventory, and adds the host if necessary.
+		 *
+		 * @param host the host
+		 * @param groups the explicit groups of the host, which are only used if the host is added
+		 */
+		void syncHost(AnsibleHost host, Collection<String> groups) {
+			Host target = this.hosts.get(host.getName());
+			if (target == null) {
+				AnsiblePersistentMap<String, String> names = AnsiblePersistentMap.empty();
+				for (String group : groups) {
+					names = names.plus(group, group);
+				}
+				target = new Host(host.getName(), AnsiblePersistentMap.<String, AnsibleVariable>empty(), names);
+				updateUngrouped(target);
+			}
+			AnsiblePersistentMap<String, AnsibleVariable> variables = AnsiblePersistentMap.empty();
+			for (AnsibleVariable variable : host.getVariables()) {
+				final AnsibleVariable existing = target.variables.get(variable.getName());
+				variables = variables.plus(variable.getName(), existing != null
+						&& existing.getValue() == variable.getValue() ? existing : freeze(variable));
+			}
+			this.hosts = this.hosts.plus(host.getName(), target.withVariables(variables));
+		}
+
+		/**
+		 * Replaces the variables and subgroups of a group of an inventory, and adds the group if necessary. The hosts
+		 * of the group are kept, they are changed by {@link #link(String, String, boolean)}.
+		 *
+		 * @param group the group
+		 * @param implicit whether this is an implicit group
+		 */
+		void syncGroup(AnsibleGroup group, boolean implicit) {
+			Group target = this.groups.get(group.getName());
+			if (target != null && target.isImplicit() != implicit) {
+				dropGroup(group.getName());
+				target = null;
+			}
+			if (target == null) {
+				target = getOrAddGroup(group.getName(), implicit);
+			}
+			AnsiblePersistentMap<String, String> subgroups = AnsiblePersistentMap.empty();
+			for (AnsibleGroup subgroup : group.getSubgroups()) {
+				subgroups = subgroups.plus(subgroup.getName(), subgroup.getName());
+			}
+			AnsiblePersistentMap<String, AnsibleVariable> variables = AnsiblePersistentMap.empty();
+			for (AnsibleVariable variable : group.getVariables()) {
+				final AnsibleVariable existing = target.variables.get(variable.getName());
+				variables = variables.plus(variable.getName(), existing != null
+						&& existing.getValue() == variable.getValue() ? existing : freeze(variable));
+			}
+			this.groups = this.groups.plus(group.getName(), target.withSubgroups(subgroups).withVariables(variables));
+		}
+
+		/**
+		 * Removes a group without touching the subgroups of the other groups.
+		 */
+		void dropGroup(String group) {
+			final Group removed = this.groups.get(group);
+			if (removed == null) {
+				return;
+			}
+			if (!removed.isImplicit()) {
+				for (String host : removed.getHostNames()) {
+					final Host member = this.hosts.get(host);
+					if (member != null) {
+						updateHost(member.withGroups(member.groups.minus(group)));
+					}
+				}
+			}
+			this.groups = this.groups.minus(group);
+		}
+
+		/**
+		 * Adds a host to or removes it from an explicit group of the snapshot. Hosts of the group which are not part
+		 * of the snapshot themselves are allowed, like in an {@link AnsibleInventory}.
+		 */
+		void link(String group, String host, boolean member) {
+			final Group target = this.groups.get(group);
+			if (target == null || target.isImplicit()) {
+				return;
+			}
+			final AnsiblePersistentMap<String, String> hosts = member ? target.hosts().plus(host, host)
+					: target.hosts().minus(host);
+			this.groups = this.groups.plus(group, target.withHosts(hosts));
+			final Host existing = this.hosts.get(host);
+			if (existing != null) {
+				updateHost(existing.withGroups(member ? existing.groups.plus(group, group) : existing.groups.minus(group)));
+			}
+		}
+
+		private Host getOrAddHost(String host) {
+			Host result = this.hosts.get(host);
+			if (result == null) {
+				result = new Host(host, AnsiblePersistentMap.<String, AnsibleVariable>empty(),
+						AnsiblePersistentMap.<String, String>empty());
+				updateHost(result);
+			}
+			return result;
+		}
+
+		private Group getOrAddGroup(String group, boolean implicit) {
+			Group result = this.groups.get(group);
+			if (result == null) {
+				result = new Group(group, implicit, AnsiblePersistentMap.<String, String>empty(),
+						AnsiblePersistentMap.<String, String>empty(),
+						AnsiblePersistentMap.<String, AnsibleVariable>empty());
+				this.groups = this.groups.plus(group, result);
+			}
+			return result;
+		}
+
+		private void updateHost(Host host) {
+			this.hosts = this.hosts.plus(host.getName(), host);
+			updateUngrouped(host);
+		}
+
+		private void updateUngrouped(Host host) {
+			this.ungrouped = host.groups.isEmpty() ? this.ungrouped.plus(host.getName(), host.getName())
+					: this.ungrouped.minus(host.getName());
+		}
+	}
+
+	/**
+	 * A variable of a snapshot, whose value can not be changed.
+	 */
+	private static final class FrozenVariable extends AnsibleVariable {
+
+		FrozenVariable(String name, Object value) {
+			super(name, value);
+		}
+
+		@Override
+		public void setValue(Object value) {
+			throw new UnsupportedOperationException("Variables of a snapshot can not be changed");
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.type;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reverse index of the group memberships of an {@link AnsibleInventory}: which groups a host belongs to and which
+ * groups a group is a subgroup of.
+ * <p>
+ * The index is kept up to date by the inventory whenever hosts or subgroups are added to or removed from one of its
+ * groups. The transitive closures are cached and only invalidated for the hosts and groups below a changed edge.
+ * <p>
+ * Like {@link AnsibleHostIds}, hosts and groups are keyed by identity, so a replaced host or group does not share
+ * the memberships of another instance with the same name.
+ */
+final class AnsibleMembershipIndex {
+
+	private final Map<AnsibleHost, Set<AnsibleGroup>> groupsByHost = new IdentityHashMap<>();
+
+	private final Map<AnsibleGroup, Set<AnsibleGroup>> parentsByGroup = new IdentityHashMap<>();
+
+	/** Cached transitive parents of groups, without the group itself */
+	private final Map<AnsibleGroup, Set<AnsibleGroup>> ancestorsByGroup = new IdentityHashMap<>();
+
+	/** Cached direct and transitive groups of hosts */
+	private final Map<AnsibleHost, Set<AnsibleGroup>> ancestorsByHost = new IdentityHashMap<>();
+
+	/** Whether the cached closures are dropped at once at the end of a batch instead of for every change */
+	private boolean deferred;
+
+	void setDeferred(boolean deferred) {
+		this.deferred = deferred;
+		if (!deferred) {
+			this.ancestorsByGroup.clear();
+			this.ancestorsByHost.clear();
+		}
+	}
+
+	void addMembership(AnsibleGroup group, AnsibleHost host) {
+		if (this.groupsByHost.computeIfAbsent(host, h -> newIdentitySet()).add(group) && !this.deferred) {
+			this.ancestorsByHost.remove(host);
+		}
+	}
+
+	void removeMembership(AnsibleGroup group, AnsibleHost host) {
+		final Set<AnsibleGroup> groups = this.groupsByHost.get(host);
+		if (groups != null && groups.remove(group)) {
+			if (groups.isEmpty()) {
+				this.groupsByHost.remove(host);
+			}
+			if (!this.deferred) {
+				this.ancestorsByHost.remove(host);
+			}
+		}
+	}
+
+	void addSubgroup(AnsibleGroup parent, AnsibleGroup subgroup) {
+		if (this.parentsByGroup.computeIfAbsent(subgroup, g -> newIdentitySet()).add(parent) && !this.deferred) {
+			invalidateBelow(subgroup);
+		}
+	}
+
+	void removeSubgroup(AnsibleGroup parent, AnsibleGroup subgroup) {
+		final Set<AnsibleGroup> parents = this.parentsByGroup.get(subgroup);
+		if (parents != null && parents.remove(parent)) {
+			if (parents.isEmpty()) {
+				this.parentsByGroup.remove(subgroup);
+			}
+			if (!this.deferred) {
+				invalidateBelow(subgroup);
+			}
+		}
+	}
+
+	void clear() {
+		this.groupsByHost.clear();
+		this.parentsByGroup.clear();
+		this.ancestorsByGroup.clear();
+		this.ancestorsByHost.clear();
+	}
+
+	/**
+	 * Drops the cached closures of <code>group</code>, its descendants and their hosts, whose ancestors change
+	 * with an edge above <code>group</code>.
+	 */
+	private void invalidateBelow(AnsibleGroup group) {
+		final Set<AnsibleGroup> visited = newIdentitySet();
+		final Deque<AnsibleGroup> pending = new ArrayDeque<>();
+		pending.push(group);
+		while (!pending.isEmpty()) {
+			final AnsibleGroup g = pending.pop();
+			if (visited.add(g)) {
+				this.ancestorsByGroup.remove(g);
+				for (AnsibleHost host : g.getHosts()) {
+					this.ancestorsByHost.remove(host);
+				}
+				pending.addAll(g.getSubgroups());
+			}
+		}
+	}
+
+	Set<AnsibleGroup> getGroupsOf(AnsibleHost host) {
+		final Set<AnsibleGroup> groups = this.groupsByHost.get(host);
+		return groups == null ? Collections.<AnsibleGroup>emptySet() : Collections.unmodifiableSet(groups);
+	}
+
+	Set<AnsibleGroup> getParentsOf(AnsibleGroup group) {
+		final Set<AnsibleGroup> parents = this.parentsByGroup.get(group);
+		return parents == null ? Collections.<AnsibleGroup>emptySet() : Collections.unmodifiableSet(parents);
+	}
+
+	Set<AnsibleGroup> getAncestorsOf(AnsibleGroup group) {
+		Set<AnsibleGroup> result = this.ancestorsByGroup.get(group);
+		if (result == null) {
+			final Set<AnsibleGroup> ancestors = newIdentitySet();
+			final Deque<AnsibleGroup> pending = new ArrayDeque<>(getParentsOf(group));
+			while (!pending.isEmpty()) {
+				final AnsibleGroup parent = pending.pop();
+				if (ancestors.add(parent)) {
+					pending.addAll(getParentsOf(parent));
+				}
+			}
+			result = Collections.unmodifiableSet(ancestors);
+			this.ancestorsByGroup.put(group, result);
+		}
+		return result;
+	}
+
+	Set<AnsibleGroup> getAncestorGroupsOf(AnsibleHost host) {
+		Set<AnsibleGroup> result = this.ancestorsByHost.get(host);
+		if (result == null) {
+			final Set<AnsibleGroup> groups = newIdentitySet();
+			for (AnsibleGroup group : getGroupsOf(host)) {
+				if (groups.add(group)) {
+					groups.addAll(getAncestorsOf(group));
+				}
+			}
+			result = Collections.unmodifiableSet(groups);
+			this.ancestorsByHost.put(host, result);
+		}
+		return result;
+	}
+
+	private static <T> Set<T> newIdentitySet() {
+		return Collections.newSetFromMap(new IdentityHashMap<>());
+	}
+}
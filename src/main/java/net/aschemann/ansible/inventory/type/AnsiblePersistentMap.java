@@ -0,0 +1,423 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.type;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable hash array mapped trie. Every update returns a new map which shares all nodes with the old one
+ * except for those on the path to the changed entry, i.e. at most seven nodes of at most 32 entries each.
+ * <p>
+ * Nodes keep a bitmap of their occupied slots and a compact array with a key and a value, or <code>null</code> and
+ * a child node, for every occupied slot. Keys with the same hash end up in a collision node. Keys and values must
+ * not be <code>null</code>.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+final class AnsiblePersistentMap<K, V> {
+
+	private static final int BITS = 5;
+
+	private static final int MASK = (1 << BITS) - 1;
+
+	private static final AnsiblePersistentMap<?, ?> EMPTY = new AnsiblePersistentMap<>(BitmapNode.EMPTY, 0);
+
+	private final Node root;
+
+	private final int size;
+
+	private AnsiblePersistentMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <K, V> AnsiblePersistentMap<K, V> empty() {
+		return (AnsiblePersistentMap<K, V>) EMPTY;
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	V get(Object key) {
+		return (V) this.root.get(0, hash(key), key);
+	}
+
+	boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	AnsiblePersistentMap<K, V> plus(K key, V value) {
+		final boolean[] added = new boolean[1];
+		final Node root = this.root.plus(0, hash(key), key, value, added);
+		if (root == this.root) {
+			return this;
+		}
+		return new AnsiblePersistentMap<>(root, added[0] ? this.size + 1 : this.size);
+	}
+
+	AnsiblePersistentMap<K, V> minus(Object key) {
+		final Node root = this.root.minus(0, hash(key), key);
+		if (root == this.root) {
+			return this;
+		}
+		return root == null ? empty() : new AnsiblePersistentMap<>(root, this.size - 1);
+	}
+
+	/**
+	 * @return an unmodifiable view of this map
+	 */
+	Map<K, V> asMap() {
+		return new AbstractMap<K, V>() {
+			@Override
+			public int size() {
+				return AnsiblePersistentMap.this.size;
+			}
+
+			@Override
+			public V get(Object key) {
+				return key == null ? null : AnsiblePersistentMap.this.get(key);
+			}
+
+			@Override
+			public boolean containsKey(Object key) {
+				return get(key) != null;
+			}
+
+			@Override
+			public Set<Entry<K, V>> entrySet() {
+				return new AbstractSet<Entry<K, V>>() {
+					@Override
+					public int size() {
+						return AnsiblePersistentMap.this.size;
+					}
+
+					@Override
+					public Iterator<Entry<K, V>> iterator() {
+						return new EntryIterator<>(AnsiblePersistentMap.this.root);
+					}
+				};
+			}
+		};
+	}
+
+	private static int hash(Object key) {
+		final int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private static int bit(int hash, int shift) {
+		return 1 << ((hash >>> shift) & MASK);
+	}
+
+	private abstract static class Node {
+
+		abstract Object get(int shift, int hash, Object key);
+
+		abstract Node plus(int shift, int hash, Object key, Object value, boolean[] added);
+
+		/**
+		 * @return this node if nothing changed, <code>null</code> if the node became empty
+		 */
+		abstract Node minus(int shift, int hash, Object key);
+
+		/** Number of slots, each of which is either an entry or a child node */
+		abstract int slots();
+
+		/** Key of a slot, <code>null</code> for a child node */
+		abstract Object keyAt(int slot);
+
+		/** Value of a slot, or the child node */
+		abstract Object valueAt(int slot);
+	}
+
+	private static final class BitmapNode extends Node {
+
+		static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+		private final int bitmap;
+
+		/** Pairs of key and value, or of <code>null</code> and a child node */
+		private final Object[] array;
+
+		BitmapNode(int bitmap, Object[] array) {
+			this.bitmap = bitmap;
+			this.array = array;
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(this.bitmap & (bit - 1));
+		}
+
+		@Override
+		Object get(int shift, int hash, Object key) {
+			final int bit = bit(hash, shift);
+			if ((this.bitmap & bit) == 0) {
+				return null;
+			}
+			final int index = index(bit);
+			final Object k = this.array[2 * index];
+			final Object v = this.array[2 * index + 1];
+			if (k == null) {
+				return ((Node) v).get(shift + BITS, hash, key);
+			}
+			return key.equals(k) ? v : null;
+		}
+
+		@Override
+		Node plus(int shift, int hash, Object key, Object value, boolean[] added) {
+			final int bit = bit(hash, shift);
+			final int index = index(bit);
+			if ((this.bitmap & bit) == 0) {
+				final Object[] array = new Object[this.array.length + 2];
+				System.arraycopy(this.array, 0, array, 0, 2 * index);
+				array[2 * index] = key;
+				array[2 * index + 1] = value;
+				System.arraycopy(this.array, 2 * index, array, 2 * index + 2, this.array.length - 2 * index);
+				added[0] = true;
+				return new BitmapNode(this.bitmap | bit, array);
+			}
+			final Object k = this.array[2 * index];
+			final Object v = this.array[2 * index + 1];
+			if (k == null) {
+				final Node child = ((Node) v).plus(shift + BITS, hash, key, value, added);
+				return child == v ? this : with(2 * index + 1, child);
+			}
+			if (key.equals(k)) {
+				return value == v ? this : with(2 * index + 1, value);
+			}
+			added[0] = true;
+			final Node child = createNode(shift + BITS, k, v, hash, key, value);
+			final Object[] array = this.array.clone();
+			array[2 * index] = null;
+			array[2 * index + 1] = child;
+			return new BitmapNode(this.bitmap, array);
+		}
+
+		@Override
+		Node minus(int shift, int hash, Object key) {
+			final int bit = bit(hash, shift);
+			if ((this.bitmap & bit) == 0) {
+				return this;
+			}
+			final int index = index(bit);
+			final Object k = this.array[2 * index];
+			final Object v = this.array[2 * index + 1];
+			if (k == null) {
+				final Node child = ((Node) v).minus(shift + BITS, hash, key);
+				if (child == v) {
+					return this;
+				}
+				if (child != null) {
+					return with(2 * index + 1, child);
+				}
+			} else if (!key.equals(k)) {
+				return this;
+			}
+			if (this.bitmap == bit) {
+				return null;
+			}
+			final Object[] array = new Object[this.array.length - 2];
+			System.arraycopy(this.array, 0, array, 0, 2 * index);
+			System.arraycopy(this.array, 2 * index + 2, array, 2 * index, array.length - 2 * index);
+			return new BitmapNode(this.bitmap & ~bit, array);
+		}
+
+		private BitmapNode with(int position, Object object) {
+			final Object[] array = this.array.clone();
+			array[position] = object;
+			return new BitmapNode(this.bitmap, array);
+		}
+
+		private static Node createNode(int shift, Object key1, Object value1, int hash2, Object key2,
+				Object value2) {
+			final int hash1 = hash(key1);
+			if (hash1 == hash2) {
+				return new CollisionNode(hash1, new Object[] { key1, value1, key2, value2 });
+			}
+			final boolean[] added = new boolean[1];
+			return EMPTY.plus(shift, hash1, key1, value1, added).plus(shift, hash2, key2, value2, added);
+		}
+
+		@Override
+		int slots() {
+			return this.array.length / 2;
+		}
+
+		@Override
+		Object keyAt(int slot) {
+			return this.array[2 * slot];
+		}
+
+		@Override
+		Object valueAt(int slot) {
+			return this.array[2 * slot + 1];
+		}
+	}
+
+	private static final class CollisionNode extends Node {
+
+		private final int hash;
+
+		/** Pairs of key and value */
+		private final Object[] array;
+
+		CollisionNode(int hash, Object[] array) {
+			this.hash = hash;
+			this.array = array;
+		}
+
+		private int find(Object key) {
+			for (int i = 0; i < this.array.length; i += 2) {
+				if (key.equals(this.array[i])) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		Object get(int shift, int hash, Object key) {
+			final int index = find(key);
+			return index < 0 ? null : this.array[index + 1];
+		}
+
+		@Override
+		Node plus(int shift, int hash, Object key, Object value, boolean[] added) {
+			if (hash != this.hash) {
+				// Nest this node below a bitmap node which tells the hashes apart
+				final Node nested = new BitmapNode(bit(this.hash, shift), new Object[] { null, this });
+				return nested.plus(shift, hash, key, value, added);
+			}
+			final int index = find(key);
+			if (index >= 0) {
+				if (this.array[index + 1] == value) {
+					return this;
+				}
+				final Object[] array = this.array.clone();
+				array[index + 1] = value;
+				return new CollisionNode(hash, array);
+			}
+			added[0] = true;
+			final Object[] array = Arrays.copyOf(this.array, this.array.length + 2);
+			array[this.array.length] = key;
+			array[this.array.length + 1] = value;
+			return new CollisionNode(hash, array);
+		}
+
+		@Override
+		Node minus(int shift, int hash, Object key) {
+			final int index = find(key);
+			if (index < 0) {
+				return this;
+			}
+			if (this.array.length == 2) {
+				return null;
+			}
+			final Object[] array = new Object[this.array.length - 2];
+			System.arraycopy(this.array, 0, array, 0, index);
+			System.arraycopy(this.array, index + 2, array, index, array.length - index);
+			return new CollisionNode(hash, array);
+		}
+
+		@Override
+		int slots() {
+			return this.array.length / 2;
+		}
+
+		@Override
+		Object keyAt(int slot) {
+			return this.array[2 * slot];
+		}
+
+		@Override
+		Object valueAt(int slot) {
+			return this.array[2 * slot + 1];
+		}
+	}
+
+	/**
+	 * Walks the trie depth first with an explicit stack of nodes and slots.
+	 */
+	private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+
+		private final Deque<Node> nodes = new ArrayDeque<>();
+
+		private final Deque<Integer> slots = new ArrayDeque<>();
+
+		private Map.Entry<K, V> next;
+
+		EntryIterator(Node root) {
+			this.nodes.push(root);
+			this.slots.push(0);
+			advance();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void advance() {
+			this.next = null;
+			while (!this.nodes.isEmpty()) {
+				final Node node = this.nodes.peek();
+				final int slot = this.slots.pop();
+				if (slot >= node.slots()) {
+					this.nodes.pop();
+					continue;
+				}
+				this.slots.push(slot + 1);
+				final Object key = node.keyAt(slot);
+				if (key == null) {
+					this.nodes.push((Node) node.valueAt(slot));
+					this.slots.push(0);
+				} else {
+					this.next = new AbstractMap.SimpleImmutableEntry<>((K) key, (V) node.valueAt(slot));
+					return;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return this.next != null;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if (this.next == null) {
+				throw new NoSuchElementException();
+			}
+			final Map.Entry<K, V> result = this.next;
+			advance();
+			return result;
+		}
+	}
+}
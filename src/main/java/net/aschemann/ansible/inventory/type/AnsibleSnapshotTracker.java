@@ -0,0 +1,161 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.type;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Creates the snapshots of an {@link AnsibleInventory}. The first snapshot is built from scratch. Afterwards, the
+ * names of changed hosts and groups and of changed memberships are recorded, so the next snapshot is derived from
+ * the previous one by copying only what changed.
+ */
+final class AnsibleSnapshotTracker {
+
+	private final AnsibleInventory inventory;
+
+	/** The last snapshot, or <code>null</code> if changes are not recorded */
+	private AnsibleInventorySnapshot snapshot;
+
+	private final Set<String> hosts = new HashSet<>();
+
+	private final Set<String> groups = new HashSet<>();
+
+	/** Groups which were removed or replaced, whose previous state must not be carried over */
+	private final Set<String> removedGroups = new HashSet<>();
+
+	/** Changed memberships, hosts by group */
+	private final Map<String, Set<String>> memberships = new HashMap<>();
+
+	AnsibleSnapshotTracker(AnsibleInventory inventory) {
+		this.inventory = inventory;
+	}
+
+	void hostChanged(AnsibleHost host) {
+		if (this.snapshot != null) {
+			this.hosts.add(host.getName());
+		}
+	}
+
+	void groupChanged(AnsibleGroup group) {
+		if (this.snapshot != null) {
+			this.groups.add(group.getName());
+		}
+	}
+
+	void groupRemoved(AnsibleGroup group) {
+		if (this.snapshot != null) {
+			this.groups.add(group.getName());
+			this.removedGroups.add(group.getName());
+		}
+	}
+
+	void membershipChanged(AnsibleGroup group, AnsibleHost host) {
+		if (this.snapshot != null) {
+			this.memberships.computeIfAbsent(group.getName(), name -> new HashSet<>()).add(host.getName());
+		}
+	}
+
+	/**
+	 * Forgets the last snapshot, so the next one is built from scratch.
+	 */
+	void reset() {
+		this.snapshot = null;
+		this.hosts.clear();
+		this.groups.clear();
+		this.removedGroups.clear();
+		this.memberships.clear();
+	}
+
+	AnsibleInventorySnapshot freeze() {
+		if (this.snapshot == null) {
+			this.snapshot = build();
+		} else if (!this.hosts.isEmpty() || !this.groups.isEmpty() || !this.memberships.isEmpty()) {
+			this.snapshot = update(this.snapshot.toBuilder());
+		}
+		return this.snapshot;
+	}
+
+	private AnsibleInventorySnapshot build() {
+		final AnsibleInventorySnapshot.Builder builder = AnsibleInventorySnapshot.empty().toBuilder();
+		for (AnsibleGroup group : this.inventory.getGroups()) {
+			builder.syncGroup(group, this.inventory.isImplicit(group));
+		}
+		for (AnsibleHost host : this.inventory.getHosts()) {
+			builder.syncHost(host, groupsOf(host));
+		}
+		for (AnsibleGroup group : this.inventory.getGroups()) {
+			if (!this.inventory.isImplicit(group)) {
+				for (AnsibleHost host : group.getHosts()) {
+					builder.link(group.getName(), host.getName(), true);
+				}
+			}
+		}
+		return builder.build();
+	}
+
+	private AnsibleInventorySnapshot update(AnsibleInventorySnapshot.Builder builder) {
+		for (String name : this.groups) {
+			final AnsibleGroup group = this.inventory.getGroup(name);
+			if (group == null || this.removedGroups.contains(name)) {
+				// The hosts of a group are only synced through memberships, so a new group must not inherit them
+				builder.dropGroup(name);
+			}
+			if (group != null) {
+				builder.syncGroup(group, this.inventory.isImplicit(group));
+			}
+		}
+		for (String name : this.hosts) {
+			final AnsibleHost host = this.inventory.getHost(name);
+			if (host == null) {
+				builder.removeHost(name);
+			} else {
+				builder.syncHost(host, groupsOf(host));
+			}
+		}
+		for (Map.Entry<String, Set<String>> entry : this.memberships.entrySet()) {
+			final AnsibleGroup group = this.inventory.getGroup(entry.getKey());
+			for (String host : entry.getValue()) {
+				builder.link(entry.getKey(), host, group != null && group.getHost(host) != null);
+			}
+		}
+		this.hosts.clear();
+		this.groups.clear();
+		this.removedGroups.clear();
+		this.memberships.clear();
+		return builder.build();
+	}
+
+	/**
+	 * @return the names of the explicit groups of the inventory the host is a direct member of
+	 */
+	private Collection<String> groupsOf(AnsibleHost host) {
+		final List<String> result = new ArrayList<>();
+		for (AnsibleGroup group : this.inventory.getGroupsOf(host)) {
+			if (!this.inventory.isImplicit(group) && this.inventory.getGroup(group.getName()) == group) {
+				result.add(group.getName());
+			}
+		}
+		return result;
+	}
+}
@@ -72,9 +72,8 @@ public class AnsibleVariable {
 	public boolean equals(Object obj) {
 		if (this == obj)
 			return true;
-		if (obj == null)
-			return false;
-		if (getClass() != obj.getClass())
+		// Subclasses, like the variables of snapshots, equal plain variables with the same name
+		if (!(obj instanceof AnsibleVariable))
 			return false;
 		AnsibleVariable other = (AnsibleVariable) obj;
 		if (name == null) {
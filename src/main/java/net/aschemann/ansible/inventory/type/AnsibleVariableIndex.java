@@ -0,0 +1,112 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.type;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Inverted index of the variables of the hosts of an {@link AnsibleInventory}: which hosts set a variable, and which
+ * hosts set it to a certain scalar value. Hosts are represented by their {@link AnsibleHostIds identifiers}.
+ * <p>
+ * Only the variables of the hosts themselves are indexed, not those inherited from their groups. Values are
+ * indexed as they are when the variable is added to the host, so a changed value must be applied by replacing the
+ * variable rather than by {@link AnsibleVariable#setValue(Object)}.
+ */
+final class AnsibleVariableIndex {
+
+	private static final BitSet EMPTY = new BitSet();
+
+	private final AnsibleHostIds ids;
+
+	private final Map<String, BitSet> hostsByName = new HashMap<>();
+
+	private final Map<String, Map<Object, BitSet>> hostsByValue = new HashMap<>();
+
+	AnsibleVariableIndex(AnsibleHostIds ids) {
+		this.ids = ids;
+	}
+
+	void add(AnsibleHost host) {
+		for (AnsibleVariable variable : host.getVariables()) {
+			add(host, variable);
+		}
+	}
+
+	void remove(AnsibleHost host) {
+		for (AnsibleVariable variable : host.getVariables()) {
+			remove(host, variable);
+		}
+	}
+
+	void add(AnsibleHost host, AnsibleVariable variable) {
+		final int id = this.ids.idOf(host);
+		this.hostsByName.computeIfAbsent(variable.getName(), n -> new BitSet()).set(id);
+		final Object value = variable.getValue();
+		if (isScalar(value)) {
+			this.hostsByValue.computeIfAbsent(variable.getName(), n -> new HashMap<>())
+					.computeIfAbsent(value, v -> new BitSet()).set(id);
+		}
+	}
+
+	void remove(AnsibleHost host, AnsibleVariable variable) {
+		final int id = this.ids.idOf(host);
+		final BitSet hosts = this.hostsByName.get(variable.getName());
+		if (hosts != null) {
+			hosts.clear(id);
+			if (hosts.isEmpty()) {
+				this.hostsByName.remove(variable.getName());
+			}
+		}
+		final Object value = variable.getValue();
+		final Map<Object, BitSet> values = this.hostsByValue.get(variable.getName());
+		if (values != null && isScalar(value)) {
+			final BitSet valueHosts = values.get(value);
+			if (valueHosts != null) {
+				valueHosts.clear(id);
+				if (valueHosts.isEmpty()) {
+					values.remove(value);
+					if (values.isEmpty()) {
+						this.hostsByValue.remove(variable.getName());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the identifiers of the hosts which set the variable, which must not be modified
+	 */
+	BitSet getHosts(String name) {
+		return this.hostsByName.getOrDefault(name, EMPTY);
+	}
+
+	/**
+	 * @return the identifiers of the hosts which set the variable to <code>value</code>, which must not be modified
+	 */
+	BitSet getHosts(String name, Object value) {
+		final Map<Object, BitSet> values = this.hostsByValue.get(name);
+		return values == null ? EMPTY : values.getOrDefault(value, EMPTY);
+	}
+
+	static boolean isScalar(Object value) {
+		return value instanceof String || value instanceof Number || value instanceof Boolean
+				|| value instanceof Character;
+	}
+}
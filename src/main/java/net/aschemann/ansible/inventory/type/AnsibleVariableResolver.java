@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.type;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the effective variables of the hosts of an {@link AnsibleInventory}.
+ * <p>
+ * Hosts and groups only keep their own variables. The effective variables of a host are computed on demand by
+ * walking its groups in Ansible's precedence order: the variables of <code>all</code> are overridden by those of
+ * parent groups, which are overridden by those of their child groups, which are overridden by the variables of the
+ * host itself. Groups of the same depth are ordered by <code>ansible_group_priority</code> and then by name, cf.
+ * https://docs.ansible.com/ansible/latest/user_guide/intro_inventory.html#how-variables-are-merged
+ * <p>
+ * Results are memoized per host until the inventory, one of its groups or the host changes. Hosts and groups are
+ * keyed by identity like in {@link AnsibleMembershipIndex}, so a replaced host or group never serves the memoized
+ * state of the one with the same name it replaced.
+ */
+final class AnsibleVariableResolver {
+
+	static final String GROUP_PRIORITY = "ansible_group_priority";
+
+	private static final int DEFAULT_GROUP_PRIORITY = 1;
+
+	private final AnsibleInventory inventory;
+
+	private final Map<AnsibleHost, Map<String, AnsibleVariable>> resolved = new IdentityHashMap<>();
+
+	private final Map<AnsibleGroup, Integer> depths = new IdentityHashMap<>();
+
+	AnsibleVariableResolver(AnsibleInventory inventory) {
+		this.inventory = inventory;
+	}
+
+	/**
+	 * Forgets everything, e.g. after groups were added or removed or group variables changed.
+	 */
+	void invalidate() {
+		this.resolved.clear();
+		this.depths.clear();
+	}
+
+	/**
+	 * Forgets the memoized variables of a single host, after its own variables or direct groups changed.
+	 *
+	 * @param host the changed host
+	 */
+	void invalidate(AnsibleHost host) {
+		this.resolved.remove(host);
+	}
+
+	Map<String, AnsibleVariable> resolve(AnsibleHost host) {
+		Map<String, AnsibleVariable> result = this.resolved.get(host);
+		if (result == null) {
+			result = Collections.unmodifiableMap(compute(host));
+			this.resolved.put(host, result);
+		}
+		return result;
+	}
+
+	private Map<String, AnsibleVariable> compute(AnsibleHost host) {
+		final Map<String, AnsibleVariable> result = new LinkedHashMap<>();
+
+		final AnsibleGroup all = this.inventory.getGroup(AnsibleConstants.ALL_GROUP);
+		if (all != null) {
+			putAll(result, all.getVariables());
+		}
+
+		final List<AnsibleGroup> groups = new ArrayList<>(this.inventory.getAncestorGroupsOf(host));
+		groups.remove(all);
+		groups.sort(Comparator.comparingInt(this::getDepth)
+				.thenComparingInt(AnsibleVariableResolver::getPriority)
+				.thenComparing(AnsibleGroup::getName));
+		for (AnsibleGroup group : groups) {
+			putAll(result, group.getVariables());
+		}
+
+		putAll(result, host.getVariables());
+		return result;
+	}
+
+	private static void putAll(Map<String, AnsibleVariable> result, Collection<AnsibleVariable> variables) {
+		for (AnsibleVariable variable : variables) {
+			result.put(variable.getName(), variable);
+		}
+	}
+
+	private int getDepth(AnsibleGroup group) {
+		final Integer depth = this.depths.get(group);
+		if (depth != null) {
+			return depth;
+		}
+		// Guard against cyclic :children definitions
+		this.depths.put(group, 1);
+		int result = 1;
+		for (AnsibleGroup parent : this.inventory.getParentsOf(group)) {
+			if (!AnsibleConstants.ALL_GROUP.equals(parent.getName())) {
+				result = Math.max(result, getDepth(parent) + 1);
+			}
+		}
+		this.depths.put(group, result);
+		return result;
+	}
+
+	private static int getPriority(AnsibleGroup group) {
+		final AnsibleVariable priority = group.getVariable(GROUP_PRIORITY);
+		if (priority == null || priority.getValue() == null) {
+			return DEFAULT_GROUP_PRIORITY;
+		}
+		try {
+			return Integer.parseInt(priority.getValue().toString().trim());
+		} catch (NumberFormatException e) {
+			return DEFAULT_GROUP_PRIORITY;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.type;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Compact storage of variables by name, for the many hosts which only have a handful of variables.
+ * <p>
+ * Variables are kept in insertion order in a plain array, which is scanned linearly as long as there are at most
+ * {@link #LINEAR_LIMIT} of them. Larger tables additionally get an open addressing index of positions in that
+ * array, with linear probing and a load factor of at most one half. Removed variables leave a gap, which is
+ * reclaimed when the array is full, so positions stay stable while iterating. Tables without variables share a
+ * single empty array.
+ */
+final class AnsibleVariableTable {
+
+	static final int LINEAR_LIMIT = 8;
+
+	private static final AnsibleVariable[] EMPTY = new AnsibleVariable[0];
+
+	private static final int INITIAL_CAPACITY = 4;
+
+	/** Variables in insertion order, <code>null</code> for removed ones */
+	private AnsibleVariable[] entries = EMPTY;
+
+	/** Positions in {@link #entries} plus one by hash, <code>0</code> for free slots, or <code>null</code> */
+	private int[] slots;
+
+	/** Number of used positions in {@link #entries}, including removed ones */
+	private int end;
+
+	private int size;
+
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return the end of the used positions, for iterating with {@link #at(int)}
+	 */
+	int end() {
+		return this.end;
+	}
+
+	/**
+	 * @param position a position below {@link #end()}
+	 * @return the variable at the position, or <code>null</code> if it was removed
+	 */
+	AnsibleVariable at(int position) {
+		return this.entries[position];
+	}
+
+	AnsibleVariable get(String name) {
+		final int position = find(name);
+		return position < 0 ? null : this.entries[position];
+	}
+
+	/**
+	 * Adds a variable unless there already is one with the same name.
+	 *
+	 * @return <code>true</code> if the variable was added
+	 */
+	boolean add(AnsibleVariable variable) {
+		if (find(variable.getName()) >= 0) {
+			return false;
+		}
+		if (this.end == this.entries.length) {
+			resize();
+		}
+		this.entries[this.end] = variable;
+		if (this.slots != null) {
+			insertSlot(this.end);
+		}
+		this.end++;
+		this.size++;
+		return true;
+	}
+
+	/**
+	 * @return the removed variable, or <code>null</code> if there was none with that name
+	 */
+	AnsibleVariable remove(String name) {
+		final int position = find(name);
+		if (position < 0) {
+			return null;
+		}
+		final AnsibleVariable removed = this.entries[position];
+		// The slot keeps pointing to the gap and is dropped when the index is rebuilt
+		this.entries[position] = null;
+		this.size--;
+		return removed;
+	}
+
+	void clear() {
+		this.entries = EMPTY;
+		this.slots = null;
+		this.end = 0;
+		this.size = 0;
+	}
+
+	private int find(String name) {
+		if (this.slots == null) {
+			for (int i = 0; i < this.end; i++) {
+				final AnsibleVariable variable = this.entries[i];
+				if (variable != null && Objects.equals(variable.getName(), name)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		final int mask = this.slots.length - 1;
+		for (int slot = hash(name) & mask; this.slots[slot] != 0; slot = (slot + 1) & mask) {
+			final AnsibleVariable variable = this.entries[this.slots[slot] - 1];
+			if (variable != null && Objects.equals(variable.getName(), name)) {
+				return this.slots[slot] - 1;
+			}
+		}
+		return -1;
+	}
+
+	private void insertSlot(int position) {
+		final int mask = this.slots.length - 1;
+		int slot = hash(this.entries[position].getName()) & mask;
+		while (this.slots[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		this.slots[slot] = position + 1;
+	}
+
+	/**
+	 * Makes room for one more variable, either by closing the gaps of removed variables or by growing.
+	 */
+	private void resize() {
+		if (this.size < this.end) {
+			int target = 0;
+			for (int i = 0; i < this.end; i++) {
+				if (this.entries[i] != null) {
+					this.entries[target++] = this.entries[i];
+				}
+			}
+			Arrays.fill(this.entries, target, this.end, null);
+			this.end = target;
+		} else {
+			this.entries = Arrays.copyOf(this.entries, Math.max(INITIAL_CAPACITY, this.entries.length * 2));
+		}
+		if (this.entries.length > LINEAR_LIMIT) {
+			this.slots = new int[this.entries.length * 2];
+			for (int i = 0; i < this.end; i++) {
+				insertSlot(i);
+			}
+		} else {
+			this.slots = null;
+		}
+	}
+
+	private static int hash(String name) {
+		final int h = name == null ? 0 : name.hashCode();
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,299 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.type;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * An inventory which many threads may populate and change at the same time without external locking, e.g. one
+ * importer per data center.
+ * <p>
+ * Hosts and groups are kept in concurrent maps and created atomically by {@link #getOrAddHost(String)} and
+ * {@link #getOrAddGroup(String)}. Changes of a single host or group lock only that host or group, and changes of a
+ * membership only the member and its group, so threads working on different hosts and groups do not block each
+ * other. The hosts and groups returned must only be changed through this class.
+ * <p>
+ * Queries like host patterns or effective variables are answered by an {@link AnsibleInventory}, which
+ * {@link #toInventory()} creates once the inventory is populated.
+ */
+public class ConcurrentAnsibleInventory {
+
+	private final ConcurrentMap<String, AnsibleHost> hosts = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, AnsibleGroup> groups = new ConcurrentHashMap<>();
+
+	/**
+	 * @param host the name of the host
+	 * @return the host, which is added atomically if there is none with this name yet
+	 */
+	public AnsibleHost getOrAddHost(String host) {
+		return this.hosts.computeIfAbsent(host, AnsibleHost::new);
+	}
+
+	/**
+	 * @param group the name of the group
+	 * @return the group, which is added atomically if there is none with this name yet
+	 */
+	public AnsibleGroup getOrAddGroup(String group) {
+		return this.groups.computeIfAbsent(group, AnsibleGroup::new);
+	}
+
+	public AnsibleHost getHost(String host) {
+		return this.hosts.get(host);
+	}
+
+	public AnsibleGroup getGroup(String group) {
+		return this.groups.get(group);
+	}
+
+	/**
+	 * @return the hosts, which may or may not reflect concurrent changes
+	 */
+	public Collection<AnsibleHost> getHosts() {
+		return Collections.unmodifiableCollection(this.hosts.values());
+	}
+
+	/**
+	 * @return the groups, which may or may not reflect concurrent changes
+	 */
+	public Collection<AnsibleGroup> getGroups() {
+		return Collections.unmodifiableCollection(this.groups.values());
+	}
+
+	/**
+	 * Adds a host to a group. Both are added to the inventory if necessary. Runs atomically with respect to
+	 * {@link #removeHost(String)}, so a group never keeps a host which is no longer part of the inventory.
+	 *
+	 * @param group the name of the group
+	 * @param host the name of the host
+	 * @return the host
+	 */
+	public AnsibleHost addHost(String group, String host) {
+		final AnsibleGroup target = getOrAddGroup(group);
+		while (true) {
+			final AnsibleHost member = getOrAddHost(host);
+			synchronized (member) {
+				// Otherwise the host was removed concurrently and is added again
+				if (this.hosts.get(host) == member) {
+					synchronized (target) {
+						target.addHost(member);
+					}
+					return member;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds a subgroup to a group. Both are added to the inventory if necessary. Runs atomically with respect to
+	 * {@link #removeGroup(String)}, so a group never keeps a subgroup which is no longer part of the inventory.
+	 *
+	 * @param parent the name of the group
+	 * @param subgroup the name of the subgroup
+	 */
+	public void addSubgroup(String parent, String subgroup) {
+		final AnsibleGroup target = getOrAddGroup(parent);
+		while (true) {
+			final AnsibleGroup child = getOrAddGroup(subgroup);
+			// Otherwise the subgroup was removed concurrently and is added again
+			final boolean linked = withLocks(target, child, () -> {
+				if (this.groups.get(subgroup) != child) {
+					return false;
+				}
+				target.addSubgroup(child);
+				return true;
+			});
+			if (linked) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Adds a variable to a host, which is added to the inventory if necessary. Like
+	 * {@link AnsibleHost#addVariable(AnsibleVariable)}, an existing variable with the same name is kept.
+	 *
+	 * @param host the name of the host
+	 * @param variable the variable
+	 */
+	public void addHostVariable(String host, AnsibleVariable variable) {
+		final AnsibleHost target = getOrAddHost(host);
+		synchronized (target) {
+			target.addVariable(variable);
+		}
+	}
+
+	/**
+	 * Sets a variable of a group, which is added to the inventory if necessary.
+	 *
+	 * @param group the name of the group
+	 * @param variable the variable
+	 */
+	public void addGroupVariable(String group, AnsibleVariable variable) {
+		final AnsibleGroup target = getOrAddGroup(group);
+		synchronized (target) {
+			target.addVariable(variable);
+		}
+	}
+
+	public AnsibleVariable getHostVariable(String host, String variable) {
+		final AnsibleHost target = this.hosts.get(host);
+		if (target == null) {
+			return null;
+		}
+		synchronized (target) {
+			return target.getVariable(variable);
+		}
+	}
+
+	public AnsibleVariable getGroupVariable(String group, String variable) {
+		final AnsibleGroup target = this.groups.get(group);
+		if (target == null) {
+			return null;
+		}
+		synchronized (target) {
+			return target.getVariable(variable);
+		}
+	}
+
+	/**
+	 * Removes a host from this inventory and from all groups.
+	 *
+	 * @param host the name of the host
+	 */
+	public void removeHost(String host) {
+		final AnsibleHost removed = this.hosts.get(host);
+		if (removed == null) {
+			return;
+		}
+		// The lock keeps addHost(String, String) from adding the host to a group while it is being removed
+		synchronized (removed) {
+			if (!this.hosts.remove(host, removed)) {
+				return;
+			}
+			for (AnsibleGroup group : this.groups.values()) {
+				synchronized (group) {
+					// A host with the same name may have been added since
+					if (group.getHost(host) == removed) {
+						group.removeHost(host);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes a group from this inventory and from the subgroups of all other groups.
+	 *
+	 * @param group the name of the group
+	 */
+	public void removeGroup(String group) {
+		final AnsibleGroup removed = this.groups.get(group);
+		if (removed == null) {
+			return;
+		}
+		// The lock keeps addSubgroup(String, String) from linking the group while it is being removed
+		synchronized (removed) {
+			if (!this.groups.remove(group, removed)) {
+				return;
+			}
+		}
+		for (AnsibleGroup parent : this.groups.values()) {
+			withLocks(parent, removed, () -> {
+				// A group with the same name may have been added since
+				if (parent.getSubgroup(group) == removed) {
+					parent.removeSubgroup(group);
+				}
+				return null;
+			});
+		}
+	}
+
+	/**
+	 * Runs an action while holding the locks of a group and a subgroup. The locks are taken in the order of the
+	 * names of the groups, the parent first if they are equal, so concurrent calls can not deadlock.
+	 */
+	private static <T> T withLocks(AnsibleGroup parent, AnsibleGroup child, Supplier<T> action) {
+		final boolean childFirst = child.getName().compareTo(parent.getName()) < 0;
+		synchronized (childFirst ? child : parent) {
+			synchronized (childFirst ? parent : child) {
+				return action.get();
+			}
+		}
+	}
+
+	/**
+	 * Copies this inventory into a regular {@link AnsibleInventory} with the implicit groups <code>all</code> and
+	 * <code>ungrouped</code>. Each host and group is copied atomically, but changes made while copying may or may
+	 * not be included.
+	 *
+	 * @return the inventory
+	 */
+	public AnsibleInventory toInventory() {
+		final AnsibleInventory inventory = new AnsibleInventory();
+		inventory.getAllGroup();
+		inventory.getUngroupedGroup();
+		inventory.batch(batch -> {
+			for (AnsibleHost host : this.hosts.values()) {
+				final List<AnsibleVariable> variables;
+				synchronized (host) {
+					variables = new ArrayList<>(host.getVariables());
+				}
+				batch.addHost(new AnsibleHost(host.getName(), copy(variables)));
+			}
+			for (AnsibleGroup group : this.groups.values()) {
+				final List<String> members = new ArrayList<>();
+				final List<String> subgroups = new ArrayList<>();
+				final List<AnsibleVariable> variables;
+				synchronized (group) {
+					for (AnsibleHost host : group.getHosts()) {
+						members.add(host.getName());
+					}
+					for (AnsibleGroup subgroup : group.getSubgroups()) {
+						subgroups.add(subgroup.getName());
+					}
+					variables = new ArrayList<>(group.getVariables());
+				}
+				for (String host : members) {
+					batch.addHost(group.getName(), new AnsibleHost(host));
+				}
+				for (String subgroup : subgroups) {
+					batch.addSubgroup(group.getName(), subgroup);
+				}
+				for (AnsibleVariable variable : copy(variables)) {
+					batch.addGroupVariable(group.getName(), variable);
+				}
+			}
+		});
+		return inventory;
+	}
+
+	private static List<AnsibleVariable> copy(List<AnsibleVariable> variables) {
+		final List<AnsibleVariable> result = new ArrayList<>(variables.size());
+		for (AnsibleVariable variable : variables) {
+			result.add(new AnsibleVariable(variable.getName(), variable.getValue()));
+		}
+		return result;
+	}
+}
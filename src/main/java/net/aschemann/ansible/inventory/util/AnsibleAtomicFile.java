@@ -0,0 +1,175 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Replaces files atomically: the content is written to a temporary file in the same directory, which is then renamed
+ * to the target, so readers see either the old or the new content but never a partially written file.
+ * <p>
+ * If the target is a symbolic link, the file it points to is replaced and the link is kept. A link whose target
+ * does not exist is replaced by a regular file.
+ */
+final class AnsibleAtomicFile {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Renders text which is written to a file.
+     */
+    interface Renderer {
+        void render(Appendable out) throws IOException;
+    }
+
+    /**
+     * Writes binary content to a file.
+     */
+    interface Content {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private AnsibleAtomicFile() {
+    }
+
+    /**
+     * @param target the file to write, or a symbolic link to it
+     * @param renderer renders the content, which is encoded as UTF-8
+     * @param options the options
+     * @return <code>false</code> if the existing file was left untouched because its content did not change
+     * @throws IOException if the file can not be written
+     */
+    static boolean write(final Path target, final Renderer renderer, final AnsibleWriteOptions options)
+            throws IOException {
+        return writeBytes(target, out -> {
+            final AnsibleUtf8Sink sink = new AnsibleUtf8Sink(out, BUFFER_SIZE);
+            renderer.render(sink);
+            sink.flush();
+        }, options);
+    }
+
+    /**
+     * @param link the file to write, or a symbolic link to it
+     * @param content writes the content to an unbuffered stream
+     * @param options the options
+     * @return <code>false</code> if the existing file was left untouched because its content did not change
+     * @throws IOException if the file can not be written
+     */
+    static boolean writeBytes(final Path link, final Content content, final AnsibleWriteOptions options)
+            throws IOException {
+        // The temporary file must be renamed to the file a link points to, not to the link itself
+        final Path target = Files.exists(link) ? link.toRealPath() : link;
+        final Path directory = target.toAbsolutePath().getParent();
+        final Path temporary = directory.resolve("." + target.getFileName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+        boolean moved = false;
+        try {
+            final MessageDigest digest = sha256();
+            final long size;
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                // The channel stream is not closed here, the channel is closed by the surrounding try
+                content.write(new DigestOutputStream(Channels.newOutputStream(channel), digest));
+                size = channel.position();
+                if (options.isSkipUnchanged() && isUnchanged(target, size, digest.digest())) {
+                    return false;
+                }
+                if (options.isFsync()) {
+                    channel.force(true);
+                }
+            }
+            copyPermissions(target, temporary);
+            try {
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+            if (options.isFsync()) {
+                forceDirectory(directory);
+            }
+            return true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    private static boolean isUnchanged(final Path target, final long size, final byte[] hash) throws IOException {
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ)) {
+            if (channel.size() != size) {
+                return false;
+            }
+            final MessageDigest digest = sha256();
+            final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+            return Arrays.equals(hash, digest.digest());
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private static void copyPermissions(final Path from, final Path to) throws IOException {
+        try {
+            Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+        } catch (UnsupportedOperationException | NoSuchFileException e) {
+            // Not a POSIX file system, or a new file which keeps the default permissions
+        }
+    }
+
+    /**
+     * Forces the directory entry of a renamed file to the storage device. Not every platform allows to open
+     * directories, so failures are ignored.
+     */
+    private static void forceDirectory(final Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Best effort
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
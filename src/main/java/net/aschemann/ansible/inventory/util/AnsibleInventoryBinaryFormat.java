@@ -0,0 +1,524 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.util;
+
+import net.aschemann.ansible.inventory.type.AnsibleConstants;
+import net.aschemann.ansible.inventory.type.AnsibleGroup;
+import net.aschemann.ansible.inventory.type.AnsibleHost;
+import net.aschemann.ansible.inventory.type.AnsibleInventory;
+import net.aschemann.ansible.inventory.type.AnsibleVariable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A compact binary format for inventories, which loads much faster than parsing the hosts file and the vars files
+ * again. All numbers are big-endian:
+ * <pre>
+ * header    magic "AINV", int version, 32 bytes source fingerprint
+ * strings   int count, per string: int length, UTF-8 bytes
+ * hosts     int count, per host: int name, variables
+ * groups    int count, per group: int name, variables, int count, host ids, int count, subgroup ids
+ * trailer   long CRC-32 of everything before
+ * </pre>
+ * Names and string values refer to the string table, so every string is stored and decoded once; hosts and groups
+ * refer to each other by their dense index in the file. Variables are stored as an <code>int</code> count and per
+ * variable the name and a tagged value. Strings, numbers, booleans, <code>null</code>, maps, collections and arrays
+ * keep their type, where collections and arrays are read back as lists; other values are stored as their string
+ * representation. The hosts of the implicit groups <code>all</code> and <code>ungrouped</code> are not stored, as
+ * they are computed.
+ * <p>
+ * Files are memory-mapped for reading and their checksum is verified before anything is decoded. The source
+ * fingerprint identifies the files an inventory was read from, so a stale file can be detected without reading it.
+ */
+final class AnsibleInventoryBinaryFormat {
+
+    static final int VERSION = 1;
+
+    static final int FINGERPRINT_LENGTH = 32;
+
+    private static final int MAGIC = 0x41494E56;
+
+    private static final int HEADER_LENGTH = 8 + FINGERPRINT_LENGTH;
+
+    private static final int TRAILER_LENGTH = 8;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte NULL = 0;
+
+    private static final byte STRING = 1;
+
+    private static final byte INT = 2;
+
+    private static final byte LONG = 3;
+
+    private static final byte FLOAT = 4;
+
+    private static final byte DOUBLE = 5;
+
+    private static final byte FALSE = 6;
+
+    private static final byte TRUE = 7;
+
+    private static final byte BIG_INTEGER = 8;
+
+    private static final byte BIG_DECIMAL = 9;
+
+    private static final byte LIST = 10;
+
+    private static final byte MAP = 11;
+
+    private AnsibleInventoryBinaryFormat() {
+    }
+
+    /**
+     * Computes the fingerprint of the files an inventory is read from by {@link AnsibleInventoryReader#read(Path)},
+     * i.e. the hosts file and, for an inventory directory, every file in <code>group_vars/</code> and
+     * <code>host_vars/</code>. Only the names, sizes and modification times are hashed, so this is cheap even for
+     * thousands of files; any edit, added or deleted file changes the fingerprint.
+     *
+     * @param inventoryPath an inventory file or directory
+     * @return the SHA-256 fingerprint
+     * @throws IOException if a file cannot be accessed
+     */
+    static byte[] fingerprint(final Path inventoryPath) throws IOException {
+        final MessageDigest digest = sha256();
+        digest.update(ByteBuffer.allocate(4).putInt(VERSION).array());
+        if (Files.isDirectory(inventoryPath)) {
+            update(digest, "hosts", Paths.get(inventoryPath.toString(), "hosts"));
+            for (String directory : new String[]{"group_vars", "host_vars"}) {
+                for (Map.Entry<String, Path> file : AnsibleInventoryVarsLoader.list(
+                        Paths.get(inventoryPath.toString(), directory), name -> true).entrySet()) {
+                    update(digest, directory + '/' + file.getKey(), file.getValue());
+                }
+            }
+        } else {
+            update(digest, "", inventoryPath);
+        }
+        return digest.digest();
+    }
+
+    private static void update(final MessageDigest digest, final String name, final Path file) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(4 + bytes.length + 16)
+                .putInt(bytes.length)
+                .put(bytes)
+                .putLong(attributes.size())
+                .putLong(attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS))
+                .array());
+    }
+
+    /**
+     * Writes an inventory to a file atomically.
+     *
+     * @param inventory the inventory
+     * @param fingerprint the fingerprint of the sources of the inventory, or <code>null</code>
+     * @param file the file
+     * @param options whether to force the file to the storage device and whether to skip unchanged files
+     * @return <code>false</code> if the file was left untouched because its content did not change
+     * @throws IOException if the file can not be written
+     */
+    static boolean write(final AnsibleInventory inventory, final byte[] fingerprint, final Path file,
+                         final AnsibleWriteOptions options) throws IOException {
+        return AnsibleAtomicFile.writeBytes(file, out -> write(inventory, fingerprint, out), options);
+    }
+
+    /**
+     * @param inventory the inventory
+     * @param fingerprint the fingerprint of the sources of the inventory, or <code>null</code>
+     * @param stream the stream, which is flushed but not closed
+     * @throws IOException if writing fails
+     */
+    static void write(final AnsibleInventory inventory, final byte[] fingerprint, final OutputStream stream)
+            throws IOException {
+        final List<AnsibleHost> hosts = new ArrayList<>(inventory.getHosts());
+        final List<AnsibleGroup> groups = new ArrayList<>(inventory.getGroups());
+        final Map<String, Integer> hostIds = new HashMap<>();
+        for (AnsibleHost host : hosts) {
+            hostIds.put(host.getName(), hostIds.size());
+        }
+        final Map<String, Integer> groupIds = new HashMap<>();
+        for (AnsibleGroup group : groups) {
+            groupIds.put(group.getName(), groupIds.size());
+        }
+
+        // The string table comes first, so collect the strings in a first pass
+        final Map<String, Integer> strings = new LinkedHashMap<>();
+        for (AnsibleHost host : hosts) {
+            collect(strings, host.getName());
+            collect(strings, host.getVariables());
+        }
+        for (AnsibleGroup group : groups) {
+            collect(strings, group.getName());
+            collect(strings, group.getVariables());
+        }
+
+        final CRC32 checksum = new CRC32();
+        final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new CheckedOutputStream(stream, checksum), BUFFER_SIZE));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(fingerprint == null ? new byte[FINGERPRINT_LENGTH] : fingerprint);
+
+        out.writeInt(strings.size());
+        for (String string : strings.keySet()) {
+            final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        out.writeInt(hosts.size());
+        for (AnsibleHost host : hosts) {
+            out.writeInt(strings.get(host.getName()));
+            writeVariables(out, strings, host.getVariables());
+        }
+
+        out.writeInt(groups.size());
+        for (AnsibleGroup group : groups) {
+            out.writeInt(strings.get(group.getName()));
+            writeVariables(out, strings, group.getVariables());
+            if (isImplicit(group)) {
+                out.writeInt(0);
+            } else {
+                writeIds(out, hostIds, group.getHosts(), AnsibleHost::getName);
+            }
+            writeIds(out, groupIds, group.getSubgroups(), AnsibleGroup::getName);
+        }
+        out.flush();
+        // The trailer is not part of the checksum
+        new DataOutputStream(stream).writeLong(checksum.getValue());
+        stream.flush();
+    }
+
+    private interface Name<T> {
+        String of(T element);
+    }
+
+    private static <T> void writeIds(final DataOutputStream out, final Map<String, Integer> ids,
+                                     final Collection<T> elements, final Name<T> name) throws IOException {
+        // Members which are not part of the inventory are dropped
+        final int[] result = new int[elements.size()];
+        int count = 0;
+        for (T element : elements) {
+            final Integer id = ids.get(name.of(element));
+            if (id != null) {
+                result[count++] = id;
+            }
+        }
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeInt(result[i]);
+        }
+    }
+
+    private static void collect(final Map<String, Integer> strings, final String string) {
+        strings.putIfAbsent(string, strings.size());
+    }
+
+    private static void collect(final Map<String, Integer> strings, final Collection<AnsibleVariable> variables) {
+        for (AnsibleVariable variable : variables) {
+            collect(strings, variable.getName());
+            collectValue(strings, variable.getValue());
+        }
+    }
+
+    private static void collectValue(final Map<String, Integer> strings, final Object value) {
+        if (value == null || value instanceof Boolean || value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte || value instanceof Float
+                || value instanceof Double) {
+            return;
+        }
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                collectValue(strings, entry.getKey());
+                collectValue(strings, entry.getValue());
+            }
+        } else if (value instanceof Collection) {
+            for (Object element : (Collection<?>) value) {
+                collectValue(strings, element);
+            }
+        } else if (value.getClass().isArray()) {
+            final int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                collectValue(strings, Array.get(value, i));
+            }
+        } else {
+            // Strings, big numbers and anything else which is stored as a string
+            collect(strings, value.toString());
+        }
+    }
+
+    private static void writeVariables(final DataOutputStream out, final Map<String, Integer> strings,
+                                       final Collection<AnsibleVariable> variables) throws IOException {
+        out.writeInt(variables.size());
+        for (AnsibleVariable variable : variables) {
+            out.writeInt(strings.get(variable.getName()));
+            writeValue(out, strings, variable.getValue());
+        }
+    }
+
+    private static void writeValue(final DataOutputStream out, final Map<String, Integer> strings,
+                                   final Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(INT);
+            out.writeInt(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof BigInteger) {
+            out.writeByte(BIG_INTEGER);
+            out.writeInt(strings.get(value.toString()));
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(BIG_DECIMAL);
+            out.writeInt(strings.get(value.toString()));
+        } else if (value instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(MAP);
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(out, strings, entry.getKey());
+                writeValue(out, strings, entry.getValue());
+            }
+        } else if (value instanceof Collection) {
+            final Collection<?> collection = (Collection<?>) value;
+            out.writeByte(LIST);
+            out.writeInt(collection.size());
+            for (Object element : collection) {
+                writeValue(out, strings, element);
+            }
+        } else if (value.getClass().isArray()) {
+            final int length = Array.getLength(value);
+            out.writeByte(LIST);
+            out.writeInt(length);
+            for (int i = 0; i < length; i++) {
+                writeValue(out, strings, Array.get(value, i));
+            }
+        } else {
+            out.writeByte(STRING);
+            out.writeInt(strings.get(value.toString()));
+        }
+    }
+
+    /**
+     * Reads an inventory from a file.
+     *
+     * @param file the file
+     * @param fingerprint the expected fingerprint of the sources, or <code>null</code> to accept any
+     * @return the inventory, or <code>null</code> if the fingerprint of the file does not match
+     * @throws IOException if the file cannot be read, is corrupt or has another version
+     */
+    static AnsibleInventory read(final Path file, final byte[] fingerprint) throws IOException {
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < HEADER_LENGTH + TRAILER_LENGTH || size > Integer.MAX_VALUE) {
+                throw corrupt(file);
+            }
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException(file + " is not a binary inventory");
+        }
+        final int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException(file + " has the unsupported version " + version);
+        }
+        final byte[] stored = new byte[FINGERPRINT_LENGTH];
+        buffer.get(stored);
+        if (fingerprint != null && !Arrays.equals(fingerprint, stored)) {
+            return null;
+        }
+
+        final int end = buffer.limit() - TRAILER_LENGTH;
+        final ByteBuffer content = buffer.duplicate();
+        content.position(0).limit(end);
+        final CRC32 checksum = new CRC32();
+        checksum.update(content);
+        if (checksum.getValue() != buffer.getLong(end)) {
+            throw corrupt(file);
+        }
+        buffer.limit(end);
+        try {
+            return decode(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                | NegativeArraySizeException e) {
+            throw corrupt(file);
+        }
+    }
+
+    private static IOException corrupt(final Path file) {
+        return new IOException(file + " is not a valid binary inventory");
+    }
+
+    private static AnsibleInventory decode(final ByteBuffer buffer) {
+        final String[] strings = new String[buffer.getInt()];
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < strings.length; i++) {
+            final int length = buffer.getInt();
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, 2 * bytes.length)];
+            }
+            buffer.get(bytes, 0, length);
+            strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        final AnsibleInventory inventory = new AnsibleInventory();
+        final AnsibleHost[] hosts = new AnsibleHost[buffer.getInt()];
+        for (int i = 0; i < hosts.length; i++) {
+            hosts[i] = new AnsibleHost(strings[buffer.getInt()]);
+            final int variables = buffer.getInt();
+            for (int v = 0; v < variables; v++) {
+                hosts[i].addVariable(new AnsibleVariable(strings[buffer.getInt()], readValue(buffer, strings)));
+            }
+            inventory.addHost(hosts[i]);
+        }
+
+        // Groups may refer to groups further down, so the subgroups are resolved once all groups exist
+        final AnsibleGroup[] groups = new AnsibleGroup[buffer.getInt()];
+        final int[][] subgroups = new int[groups.length][];
+        for (int i = 0; i < groups.length; i++) {
+            final String name = strings[buffer.getInt()];
+            if (AnsibleConstants.ALL_GROUP.equals(name)) {
+                groups[i] = inventory.getAllGroup();
+            } else if (AnsibleConstants.UNGROUPED_GROUP.equals(name)) {
+                groups[i] = inventory.getUngroupedGroup();
+            } else {
+                groups[i] = new AnsibleGroup(name);
+                inventory.addGroup(groups[i]);
+            }
+            final int variables = buffer.getInt();
+            for (int v = 0; v < variables; v++) {
+                groups[i].addVariable(new AnsibleVariable(strings[buffer.getInt()], readValue(buffer, strings)));
+            }
+            final int members = buffer.getInt();
+            for (int h = 0; h < members; h++) {
+                groups[i].addHost(hosts[buffer.getInt()]);
+            }
+            subgroups[i] = new int[buffer.getInt()];
+            for (int s = 0; s < subgroups[i].length; s++) {
+                subgroups[i][s] = buffer.getInt();
+            }
+        }
+        if (buffer.hasRemaining()) {
+            throw new IllegalArgumentException("Unexpected data after the groups");
+        }
+        for (int i = 0; i < groups.length; i++) {
+            for (int subgroup : subgroups[i]) {
+                groups[i].addSubgroup(groups[subgroup]);
+            }
+        }
+        return inventory;
+    }
+
+    private static Object readValue(final ByteBuffer buffer, final String[] strings) {
+        final byte type = buffer.get();
+        switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                return strings[buffer.getInt()];
+            case INT:
+                return buffer.getInt();
+            case LONG:
+                return buffer.getLong();
+            case FLOAT:
+                return buffer.getFloat();
+            case DOUBLE:
+                return buffer.getDouble();
+            case FALSE:
+                return Boolean.FALSE;
+            case TRUE:
+                return Boolean.TRUE;
+            case BIG_INTEGER:
+                return new BigInteger(strings[buffer.getInt()]);
+            case BIG_DECIMAL:
+                return new BigDecimal(strings[buffer.getInt()]);
+            case LIST: {
+                final int size = buffer.getInt();
+                final List<Object> list = new ArrayList<>(Math.min(size, buffer.remaining()));
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(buffer, strings));
+                }
+                return list;
+            }
+            case MAP: {
+                final int size = buffer.getInt();
+                final Map<Object, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    map.put(readValue(buffer, strings), readValue(buffer, strings));
+                }
+                return map;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown value type " + type);
+        }
+    }
+
+    private static boolean isImplicit(final AnsibleGroup group) {
+        return AnsibleConstants.ALL_GROUP.equals(group.getName())
+                || AnsibleConstants.UNGROUPED_GROUP.equals(group.getName());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,463 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.util;
+
+import net.aschemann.ansible.inventory.type.AnsibleInventory;
+import net.aschemann.ansible.inventory.type.AnsibleInventorySnapshot;
+import net.aschemann.ansible.inventory.type.AnsibleVariable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Array;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps parsed inventories in memory, so services which read the same inventories over and over again only pay for
+ * checking whether the files changed instead of parsing them again.
+ * <p>
+ * Inventories are cached by their absolute path together with a fingerprint of the names, sizes and modification
+ * times of the hosts file and the files in <code>group_vars/</code> and <code>host_vars/</code>, so a hit costs one
+ * <code>stat</code> per file. A changed inventory is loaded again. The least recently used inventories are evicted
+ * once the estimated heap usage of all cached inventories exceeds the maximum weight. Concurrent requests for an
+ * inventory which is not cached are served by a single load.
+ * <p>
+ * The cached inventories are immutable {@link AnsibleInventorySnapshot}s, which may be shared between threads; use
+ * {@link AnsibleInventorySnapshot#toInventory()} to get an inventory which can be modified. This class is
+ * thread-safe.
+ */
+public class AnsibleInventoryCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AnsibleInventoryCache.class);
+
+    /** Estimated size of an object header plus a reference, for the weight */
+    private static final int OBJECT_SIZE = 24;
+
+    /** Estimated size of a map or set entry, for the weight */
+    private static final int ENTRY_SIZE = 48;
+
+    /**
+     * Loads an inventory on a cache miss.
+     */
+    public interface Loader {
+        AnsibleInventory load(Path inventoryPath) throws IOException;
+    }
+
+    private final long maximumWeight;
+
+    private final Loader loader;
+
+    /** The cached inventories by path, in access order */
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The loads in progress */
+    private final Map<Key, CompletableFuture<AnsibleInventorySnapshot>> loading = new HashMap<>();
+
+    private long weight;
+
+    /** Numbers the loads in the order they were started */
+    private long loadSequence;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long loadCount;
+
+    private long loadFailureCount;
+
+    private long totalLoadTime;
+
+    private long evictionCount;
+
+    /**
+     * @param maximumWeight the maximum estimated heap usage of the cached inventories, in bytes
+     */
+    public AnsibleInventoryCache(long maximumWeight) {
+        this(maximumWeight, AnsibleInventoryReader::read);
+    }
+
+    /**
+     * @param maximumWeight the maximum estimated heap usage of the cached inventories, in bytes
+     * @param loader loads an inventory on a cache miss, e.g. <code>AnsibleInventoryReader::readMapped</code>
+     */
+    public AnsibleInventoryCache(long maximumWeight, Loader loader) {
+        if (maximumWeight < 0) {
+            throw new IllegalArgumentException("The maximum weight must not be negative: " + maximumWeight);
+        }
+        this.maximumWeight = maximumWeight;
+        this.loader = loader;
+    }
+
+    /**
+     * Returns the cached inventory if its files did not change since it was loaded, loads it otherwise. If another
+     * thread is already loading the same inventory, waits for that load instead.
+     *
+     * @param inventoryPath an inventory file or directory
+     * @return the inventory
+     * @throws IOException if the files cannot be accessed or the inventory cannot be loaded
+     */
+    public AnsibleInventorySnapshot get(Path inventoryPath) throws IOException {
+        final Path path = inventoryPath.toAbsolutePath().normalize();
+        final Key key = new Key(path, AnsibleInventoryBinaryFormat.fingerprint(path));
+        CompletableFuture<AnsibleInventorySnapshot> future;
+        final boolean loads;
+        final long sequence;
+        synchronized (this) {
+            final Entry entry = this.entries.get(path);
+            if (entry != null && Arrays.equals(entry.fingerprint, key.fingerprint)) {
+                this.hitCount++;
+                return entry.inventory;
+            }
+            this.missCount++;
+            future = this.loading.get(key);
+            loads = future == null;
+            if (loads) {
+                future = new CompletableFuture<>();
+                this.loading.put(key, future);
+                sequence = ++this.loadSequence;
+            } else {
+                sequence = 0;
+            }
+        }
+        // Neither loading nor waiting holds the lock, so other inventories can be served meanwhile
+        return loads ? load(key, future, sequence) : await(path, future);
+    }
+
+    /**
+     * Loads an inventory and caches it, unless a load which was started later already cached a newer version, e.g.
+     * because the files changed while this load was slow.
+     */
+    private AnsibleInventorySnapshot load(final Key key, final CompletableFuture<AnsibleInventorySnapshot> future,
+                                          final long sequence) throws IOException {
+        final long start = System.nanoTime();
+        final AnsibleInventorySnapshot inventory;
+        try {
+            inventory = this.loader.load(key.path).freeze();
+        } catch (IOException | RuntimeException | Error e) {
+            synchronized (this) {
+                this.loading.remove(key);
+                this.loadFailureCount++;
+                this.totalLoadTime += System.nanoTime() - start;
+            }
+            future.completeExceptionally(e);
+            throw e;
+        }
+        final long entryWeight = weigh(inventory);
+        final long loadTime = System.nanoTime() - start;
+        synchronized (this) {
+            this.loading.remove(key);
+            this.loadCount++;
+            this.totalLoadTime += loadTime;
+            final Entry current = this.entries.get(key.path);
+            if (current == null || current.sequence < sequence
+                    || Arrays.equals(current.fingerprint, key.fingerprint)) {
+                this.entries.put(key.path, new Entry(key.fingerprint, inventory, entryWeight, sequence));
+                if (current != null) {
+                    this.weight -= current.weight;
+                }
+                this.weight += entryWeight;
+                evict();
+            }
+        }
+        future.complete(inventory);
+        LOGGER.debug("Loaded {} ({} bytes) in {} ms", key.path, entryWeight,
+                TimeUnit.NANOSECONDS.toMillis(loadTime));
+        return inventory;
+    }
+
+    private static AnsibleInventorySnapshot await(final Path path,
+                                                  final CompletableFuture<AnsibleInventorySnapshot> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + path);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Could not load " + path + ": " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Evicts the least recently used inventories until the weight does not exceed the maximum. An inventory which is
+     * heavier than the maximum on its own is not kept at all.
+     */
+    private void evict() {
+        final Iterator<Entry> iterator = this.entries.values().iterator();
+        while (this.weight > this.maximumWeight && iterator.hasNext()) {
+            final Entry eldest = iterator.next();
+            iterator.remove();
+            this.weight -= eldest.weight;
+            this.evictionCount++;
+        }
+    }
+
+    /**
+     * Removes an inventory from the cache.
+     *
+     * @param inventoryPath an inventory file or directory
+     */
+    public synchronized void invalidate(Path inventoryPath) {
+        final Entry entry = this.entries.remove(inventoryPath.toAbsolutePath().normalize());
+        if (entry != null) {
+            this.weight -= entry.weight;
+        }
+    }
+
+    /**
+     * Removes all inventories from the cache.
+     */
+    public synchronized void invalidateAll() {
+        this.entries.clear();
+        this.weight = 0;
+    }
+
+    /**
+     * @return the statistics of this cache since it was created
+     */
+    public synchronized Stats getStats() {
+        final Stats stats = new Stats();
+        stats.hitCount = this.hitCount;
+        stats.missCount = this.missCount;
+        stats.loadCount = this.loadCount;
+        stats.loadFailureCount = this.loadFailureCount;
+        stats.totalLoadTime = this.totalLoadTime;
+        stats.evictionCount = this.evictionCount;
+        stats.size = this.entries.size();
+        stats.weight = this.weight;
+        return stats;
+    }
+
+    /**
+     * Estimates the heap usage of an inventory, assuming that no names and values are shared.
+     *
+     * @param inventory the inventory
+     * @return the estimated size in bytes
+     */
+    static long weigh(final AnsibleInventorySnapshot inventory) {
+        long result = OBJECT_SIZE;
+        for (AnsibleInventorySnapshot.Host host : inventory.getHosts()) {
+            result += ENTRY_SIZE + OBJECT_SIZE + weigh(host.getName()) + weigh(host.getVariables())
+                    + (long) ENTRY_SIZE * host.getGroupNames().size();
+        }
+        for (AnsibleInventorySnapshot.Group group : inventory.getGroups()) {
+            result += ENTRY_SIZE + OBJECT_SIZE + weigh(group.getName()) + weigh(group.getVariables())
+                    + (long) ENTRY_SIZE * (group.getHostNames().size() + group.getSubgroupNames().size());
+        }
+        return result;
+    }
+
+    private static long weigh(final Collection<AnsibleVariable> variables) {
+        long result = 0;
+        for (AnsibleVariable variable : variables) {
+            result += ENTRY_SIZE + OBJECT_SIZE + weigh(variable.getName()) + weigh(variable.getValue());
+        }
+        return result;
+    }
+
+    private static long weigh(final Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return 2 * OBJECT_SIZE + 2L * ((String) value).length();
+        }
+        if (value instanceof Map) {
+            long result = OBJECT_SIZE;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                result += ENTRY_SIZE + weigh(entry.getKey()) + weigh(entry.getValue());
+            }
+            return result;
+        }
+        if (value instanceof Collection) {
+            long result = OBJECT_SIZE;
+            for (Object element : (Collection<?>) value) {
+                result += 8 + weigh(element);
+            }
+            return result;
+        }
+        if (value.getClass().isArray()) {
+            final int length = Array.getLength(value);
+            long result = OBJECT_SIZE;
+            for (int i = 0; i < length; i++) {
+                result += 8 + weigh(Array.get(value, i));
+            }
+            return result;
+        }
+        // Numbers, booleans and other small objects
+        return OBJECT_SIZE;
+    }
+
+    /**
+     * The statistics of a cache at one point in time.
+     */
+    public static final class Stats {
+
+        private long hitCount;
+
+        private long missCount;
+
+        private long loadCount;
+
+        private long loadFailureCount;
+
+        private long totalLoadTime;
+
+        private long evictionCount;
+
+        private int size;
+
+        private long weight;
+
+        Stats() {
+        }
+
+        /**
+         * @return the number of requests which were served from the cache
+         */
+        public long getHitCount() {
+            return this.hitCount;
+        }
+
+        /**
+         * @return the number of requests which were not served from the cache, including the ones which waited for
+         * a load by another request
+         */
+        public long getMissCount() {
+            return this.missCount;
+        }
+
+        /**
+         * @return the number of successful loads
+         */
+        public long getLoadCount() {
+            return this.loadCount;
+        }
+
+        public long getLoadFailureCount() {
+            return this.loadFailureCount;
+        }
+
+        /**
+         * @return the time spent loading, including failed loads, in nanoseconds
+         */
+        public long getTotalLoadTime() {
+            return this.totalLoadTime;
+        }
+
+        public long getEvictionCount() {
+            return this.evictionCount;
+        }
+
+        /**
+         * @return the number of cached inventories
+         */
+        public int getSize() {
+            return this.size;
+        }
+
+        /**
+         * @return the estimated heap usage of the cached inventories, in bytes
+         */
+        public long getWeight() {
+            return this.weight;
+        }
+
+        /**
+         * @return the share of requests which were served from the cache, or 1 if there were none
+         */
+        public double getHitRate() {
+            final long requests = this.hitCount + this.missCount;
+            return requests == 0 ? 1.0 : (double) this.hitCount / requests;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{hits=" + this.hitCount + ", misses=" + this.missCount + ", loads=" + this.loadCount
+                    + ", loadFailures=" + this.loadFailureCount + ", totalLoadTime=" + this.totalLoadTime
+                    + "ns, evictions=" + this.evictionCount + ", size=" + this.size + ", weight=" + this.weight + '}';
+        }
+    }
+
+    private static final class Entry {
+
+        final byte[] fingerprint;
+
+        final AnsibleInventorySnapshot inventory;
+
+        final long weight;
+
+        /** The number of the load which created this entry */
+        final long sequence;
+
+        Entry(final byte[] fingerprint, final AnsibleInventorySnapshot inventory, final long weight,
+              final long sequence) {
+            this.fingerprint = fingerprint;
+            this.inventory = inventory;
+            this.weight = weight;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class Key {
+
+        final Path path;
+
+        final byte[] fingerprint;
+
+        Key(final Path path, final byte[] fingerprint) {
+            this.path = path;
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return this.path.equals(other.path) && Arrays.equals(this.fingerprint, other.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.path.hashCode() + Arrays.hashCode(this.fingerprint);
+        }
+    }
+}
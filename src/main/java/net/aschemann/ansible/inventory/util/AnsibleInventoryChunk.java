@@ -0,0 +1,122 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.util;
+
+import net.aschemann.ansible.inventory.type.AnsibleVariable;
+import net.aschemann.ansible.inventory.util.AnsibleInventoryLexer.LineType;
+
+import java.util.Arrays;
+
+/**
+ * Records the calls of an {@link AnsibleInventoryParser} for one part of an inventory, so the part can be parsed on
+ * its own thread and replayed into the actual {@link AnsibleInventoryHandler} later in file order.
+ */
+final class AnsibleInventoryChunk implements AnsibleInventoryHandler {
+
+    private static final byte GROUP = 0;
+    private static final byte GROUP_VARS = 1;
+    private static final byte GROUP_CHILDREN = 2;
+    private static final byte HOST = 3;
+    private static final byte HOST_VARIABLE = 4;
+    private static final byte CHILD = 5;
+    private static final byte GROUP_VARIABLE = 6;
+
+    private byte[] operations = new byte[256];
+    private Object[] arguments = new Object[256];
+    private int size;
+
+    private void record(final byte operation, final Object argument) {
+        if (size == operations.length) {
+            operations = Arrays.copyOf(operations, size * 2);
+            arguments = Arrays.copyOf(arguments, size * 2);
+        }
+        operations[size] = operation;
+        arguments[size] = argument;
+        size++;
+    }
+
+    @Override
+    public void section(final LineType type, final String groupName) {
+        switch (type) {
+            case GROUP_VARS:
+                record(GROUP_VARS, groupName);
+                break;
+            case GROUP_CHILDREN:
+                record(GROUP_CHILDREN, groupName);
+                break;
+            default:
+                record(GROUP, groupName);
+        }
+    }
+
+    @Override
+    public void host(final String hostName) {
+        record(HOST, hostName);
+    }
+
+    @Override
+    public void hostVariable(final AnsibleVariable variable) {
+        record(HOST_VARIABLE, variable);
+    }
+
+    @Override
+    public void child(final String groupName) {
+        record(CHILD, groupName);
+    }
+
+    @Override
+    public void groupVariable(final AnsibleVariable variable) {
+        record(GROUP_VARIABLE, variable);
+    }
+
+    /**
+     * Passes all recorded calls to <code>handler</code>, in the order they were recorded.
+     *
+     * @param handler the receiver of the calls
+     */
+    void replay(final AnsibleInventoryHandler handler) {
+        for (int i = 0; i < size; i++) {
+            final Object argument = arguments[i];
+            switch (operations[i]) {
+                case GROUP:
+                    handler.section(LineType.GROUP, (String) argument);
+                    break;
+                case GROUP_VARS:
+                    handler.section(LineType.GROUP_VARS, (String) argument);
+                    break;
+                case GROUP_CHILDREN:
+                    handler.section(LineType.GROUP_CHILDREN, (String) argument);
+                    break;
+                case HOST:
+                    handler.host((String) argument);
+                    break;
+                case HOST_VARIABLE:
+                    handler.hostVariable((AnsibleVariable) argument);
+                    break;
+                case CHILD:
+                    handler.child((String) argument);
+                    break;
+                case GROUP_VARIABLE:
+                    handler.groupVariable((AnsibleVariable) argument);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operation " + operations[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.util;
+
+import net.aschemann.ansible.inventory.type.AnsibleGroup;
+import net.aschemann.ansible.inventory.type.AnsibleHost;
+import net.aschemann.ansible.inventory.type.AnsibleInventory;
+import net.aschemann.ansible.inventory.type.AnsibleVariable;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes an inventory in the directory layout with a <code>hosts</code> file and YAML files in
+ * <code>group_vars/</code> and <code>host_vars/</code>.
+ * <p>
+ * The variables are collected by the calling thread, the files are rendered and written in parallel on a bounded
+ * number of threads, each of which reuses a single {@link Yaml} instance.
+ */
+final class AnsibleInventoryDirectoryWriter {
+
+    /** Fewer files than this are written by the calling thread */
+    private static final int MIN_FILES_PER_TASK = 16;
+
+    private static final String HOSTS_FILE = "hosts";
+
+    private static final String GROUP_VARS = "group_vars";
+
+    private static final String HOST_VARS = "host_vars";
+
+    /** Lists the files the writer created in a vars directory, hidden so Ansible and the reader skip it */
+    private static final String MANIFEST = ".written";
+
+    /**
+     * A vars file and its content.
+     */
+    private static final class VarsFile {
+        final Path path;
+        final Map<String, Object> variables;
+
+        VarsFile(final Path path, final Map<String, Object> variables) {
+            this.path = path;
+            this.variables = variables;
+        }
+    }
+
+    private AnsibleInventoryDirectoryWriter() {
+    }
+
+    static int write(final AnsibleInventory inventory, final Path directory, final AnsibleWriteOptions options)
+            throws IOException {
+        Files.createDirectories(directory);
+        final Path groupVars = directory.resolve(GROUP_VARS);
+        final Path hostVars = directory.resolve(HOST_VARS);
+
+        final List<VarsFile> files = new ArrayList<>();
+        final Set<String> groupFiles = new HashSet<>();
+        for (AnsibleGroup group : inventory.getGroups()) {
+            if (!group.getVariables().isEmpty()) {
+                files.add(new VarsFile(varsFile(groupVars, group.getName()), toMap(group.getVariables())));
+                groupFiles.add(group.getName());
+            }
+        }
+        final Set<String> hostFiles = new HashSet<>();
+        for (AnsibleHost host : inventory.getHosts()) {
+            if (!host.getVariables().isEmpty()) {
+                files.add(new VarsFile(varsFile(hostVars, host.getName()), toMap(host.getVariables())));
+                hostFiles.add(host.getName());
+            }
+        }
+        if (!groupFiles.isEmpty()) {
+            Files.createDirectories(groupVars);
+        }
+        if (!hostFiles.isEmpty()) {
+            Files.createDirectories(hostVars);
+        }
+
+        int changed = AnsibleAtomicFile.write(directory.resolve(HOSTS_FILE),
+                out -> AnsibleInventoryWriter.write(inventory, out, false), options) ? 1 : 0;
+        changed += write(files, options);
+        changed += deleteOrphans(groupVars, groupFiles, options);
+        changed += deleteOrphans(hostVars, hostFiles, options);
+        return changed;
+    }
+
+    /**
+     * Resolves the vars file of a host or group. Names which are not a plain file name, like <code>..</code> or
+     * <code>../hosts</code>, are rejected, so no file outside of the vars directory is ever written, and so is the
+     * name of the manifest.
+     *
+     * @throws IOException if the name can not be used as a file name
+     */
+    private static Path varsFile(final Path directory, final String name) throws IOException {
+        final Path file;
+        try {
+            file = directory.resolve(name).normalize();
+        } catch (InvalidPathException e) {
+            throw new IOException("Invalid name for a vars file: " + name, e);
+        }
+        if (name.indexOf('/') >= 0 || name.indexOf('\\') >= 0 || !directory.normalize().equals(file.getParent())
+                || !file.getFileName().toString().equals(name) || MANIFEST.equals(name)) {
+            throw new IOException("Invalid name for a vars file: " + name);
+        }
+        return file;
+    }
+
+    private static Map<String, Object> toMap(final Collection<AnsibleVariable> variables) {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        for (AnsibleVariable variable : variables) {
+            result.put(variable.getName(), variable.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of files which were written
+     */
+    private static int write(final List<VarsFile> files, final AnsibleWriteOptions options) throws IOException {
+        final int tasks = Math.min(Runtime.getRuntime().availableProcessors(), files.size() / MIN_FILES_PER_TASK);
+        final AtomicInteger written = new AtomicInteger();
+        if (tasks <= 1) {
+            write(files, 0, 1, options, written);
+            return written.get();
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(tasks,
+                AnsibleInventoryVarsLoader.THREAD_FACTORY);
+        try {
+            final List<Future<?>> futures = new ArrayList<>(tasks);
+            for (int task = 0; task < tasks; task++) {
+                final int first = task;
+                futures.add(executor.submit(() -> {
+                    write(files, first, tasks, options, written);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing vars files", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Cannot write vars files", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return written.get();
+    }
+
+    /**
+     * Writes every <code>step</code>-th file starting at <code>first</code>, with a single {@link Yaml} instance
+     * (which is not thread safe).
+     */
+    private static void write(final List<VarsFile> files, final int first, final int step,
+                              final AnsibleWriteOptions options, final AtomicInteger written) throws IOException {
+        final DumperOptions dumperOptions = new DumperOptions();
+        dumperOptions.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+        final Yaml yaml = new Yaml(dumperOptions);
+        for (int i = first; i < files.size(); i += step) {
+            final VarsFile file = files.get(i);
+            if (AnsibleAtomicFile.write(file.path, out -> out.append(yaml.dump(file.variables)), options)) {
+                written.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Deletes the vars files which were written to a directory before but no longer belong to a host or group with
+     * variables, and records the wanted files for the next run. Only files listed in the manifest of the directory
+     * are deleted, so files the writer did not create, like <code>web.yml</code> or a README, are kept.
+     *
+     * @return the number of files which were deleted
+     */
+    private static int deleteOrphans(final Path directory, final Set<String> wanted,
+                                     final AnsibleWriteOptions options) throws IOException {
+        final Path manifest = directory.resolve(MANIFEST);
+        int deleted = 0;
+        if (Files.isRegularFile(manifest)) {
+            for (String name : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                if (!name.isEmpty() && !wanted.contains(name)) {
+                    final Path file = varsFile(directory, name);
+                    if (Files.isRegularFile(file) && Files.deleteIfExists(file)) {
+                        deleted++;
+                    }
+                }
+            }
+        }
+        if (wanted.isEmpty()) {
+            Files.deleteIfExists(manifest);
+        } else {
+            AnsibleAtomicFile.write(manifest, out -> {
+                for (String name : new TreeSet<>(wanted)) {
+                    out.append(name).append('\n');
+                }
+            }, options);
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.util;
+
+import net.aschemann.ansible.inventory.type.AnsibleVariable;
+import net.aschemann.ansible.inventory.util.AnsibleInventoryLexer.LineType;
+
+/**
+ * Receives the contents of an INI inventory from an {@link AnsibleInventoryParser}, in the order they appear.
+ */
+interface AnsibleInventoryHandler {
+
+    /**
+     * Starts a new section.
+     *
+     * @param type {@link LineType#GROUP}, {@link LineType#GROUP_VARS} or {@link LineType#GROUP_CHILDREN}
+     * @param groupName the group the section belongs to
+     */
+    void section(LineType type, String groupName);
+
+    /**
+     * Adds a host to the group of the current section.
+     *
+     * @param hostName the name of the host
+     */
+    void host(String hostName);
+
+    /**
+     * Adds a variable to the host most recently passed to {@link #host(String)}.
+     *
+     * @param variable the variable
+     */
+    void hostVariable(AnsibleVariable variable);
+
+    /**
+     * Adds a child group to the group of the current <code>:children</code> section.
+     *
+     * @param groupName the name of the child group
+     */
+    void child(String groupName);
+
+    /**
+     * Adds a variable to the group of the current <code>:vars</code> section.
+     *
+     * @param variable the variable
+     */
+    void groupVariable(AnsibleVariable variable);
+}
@@ -0,0 +1,549 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.util;
+
+import net.aschemann.ansible.inventory.type.AnsibleConstants;
+import net.aschemann.ansible.inventory.type.AnsibleVariable;
+import net.aschemann.ansible.inventory.util.AnsibleInventoryLexer.LineType;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming parser for the JSON output of dynamic inventory scripts and <code>ansible-inventory --list</code>:
+ * <pre>
+ * {"_meta": {"hostvars": {"host": {"var": "value"}}},
+ *  "group": {"hosts": ["host"], "children": ["subgroup"], "vars": {"var": "value"}},
+ *  "other": ["host"]}
+ * </pre>
+ * The text is scanned in a fixed size buffer and passed to an {@link AnsibleInventoryHandler} as it is read, like an
+ * INI inventory; only the values of variables are turned into objects, i.e. strings, numbers, booleans,
+ * <code>null</code>, maps and lists. Strings without escapes are deduplicated straight from the buffer. The
+ * children of <code>all</code> are ignored, as <code>all</code> contains every group anyway.
+ */
+final class AnsibleInventoryJsonParser {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String META = "_meta";
+
+    private static final String HOSTVARS = "hostvars";
+
+    private final Reader reader;
+
+    private final AnsibleInventoryHandler handler;
+
+    private final AnsibleStringPool strings;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    private final CharBuffer view = CharBuffer.wrap(this.buffer);
+
+    /** Collects strings which contain escapes or cross the end of the buffer */
+    private final StringBuilder text = new StringBuilder();
+
+    private int position;
+
+    private int limit;
+
+    /** Number of characters read before the current buffer, for error messages */
+    private long offset;
+
+    AnsibleInventoryJsonParser(final Reader reader, final AnsibleInventoryHandler handler,
+                               final AnsibleStringPool strings) {
+        this.reader = reader;
+        this.handler = handler;
+        this.strings = strings;
+    }
+
+    /**
+     * Parses the whole text.
+     *
+     * @throws IOException if reading fails or the text is not valid JSON
+     */
+    void parse() throws IOException {
+        expect('{');
+        if (!consume('}')) {
+            do {
+                final String key = readString(false);
+                expect(':');
+                if (META.equals(key)) {
+                    meta();
+                } else {
+                    group(key);
+                }
+            } while (consume(','));
+            expect('}');
+        }
+        if (peek() >= 0) {
+            throw error("Unexpected text after the inventory");
+        }
+    }
+
+    private void meta() throws IOException {
+        if (peek() != '{') {
+            skipValue();
+            return;
+        }
+        expect('{');
+        if (consume('}')) {
+            return;
+        }
+        do {
+            final String key = readString(false);
+            expect(':');
+            if (HOSTVARS.equals(key) && peek() == '{') {
+                hostvars();
+            } else {
+                skipValue();
+            }
+        } while (consume(','));
+        expect('}');
+    }
+
+    private void hostvars() throws IOException {
+        expect('{');
+        if (consume('}')) {
+            return;
+        }
+        // Adding a host to "ungrouped" adds it to the inventory without any membership
+        this.handler.section(LineType.GROUP, AnsibleConstants.UNGROUPED_GROUP);
+        do {
+            final String host = readString(false);
+            expect(':');
+            this.handler.host(host);
+            if (peek() != '{') {
+                skipValue();
+                continue;
+            }
+            expect('{');
+            if (!consume('}')) {
+                do {
+                    final String name = readString(false);
+                    expect(':');
+                    this.handler.hostVariable(new AnsibleVariable(name, readValue()));
+                } while (consume(','));
+                expect('}');
+            }
+        } while (consume(','));
+        expect('}');
+    }
+
+    private void group(final String group) throws IOException {
+        final int next = peek();
+        if (next == '[') {
+            // The short format lists the hosts only
+            this.handler.section(LineType.GROUP, group);
+            hosts();
+            return;
+        }
+        if (next != '{') {
+            skipValue();
+            return;
+        }
+        this.handler.section(LineType.GROUP, group);
+        expect('{');
+        if (consume('}')) {
+            return;
+        }
+        do {
+            final String key = readString(false);
+            expect(':');
+            if ("hosts".equals(key) && peek() == '[') {
+                this.handler.section(LineType.GROUP, group);
+                hosts();
+            } else if ("children".equals(key) && peek() == '[' && !AnsibleConstants.ALL_GROUP.equals(group)) {
+                this.handler.section(LineType.GROUP_CHILDREN, group);
+                expect('[');
+                if (!consume(']')) {
+                    do {
+                        this.handler.child(readString(false));
+                    } while (consume(','));
+                    expect(']');
+                }
+            } else if ("vars".equals(key) && peek() == '{') {
+                this.handler.section(LineType.GROUP_VARS, group);
+                expect('{');
+                if (!consume('}')) {
+                    do {
+                        final String name = readString(false);
+                        expect(':');
+                        this.handler.groupVariable(new AnsibleVariable(name, readValue()));
+                    } while (consume(','));
+                    expect('}');
+                }
+            } else {
+                skipValue();
+            }
+        } while (consume(','));
+        expect('}');
+    }
+
+    private void hosts() throws IOException {
+        expect('[');
+        if (consume(']')) {
+            return;
+        }
+        do {
+            this.handler.host(readString(false));
+        } while (consume(','));
+        expect(']');
+    }
+
+    /**
+     * Reads the value of a variable.
+     */
+    private Object readValue() throws IOException {
+        switch (peek()) {
+            case '"':
+                return readString(true);
+            case '{': {
+                expect('{');
+                final Map<String, Object> map = new LinkedHashMap<>();
+                if (!consume('}')) {
+                    do {
+                        final String key = readString(false);
+                        expect(':');
+                        map.put(key, readValue());
+                    } while (consume(','));
+                    expect('}');
+                }
+                return map;
+            }
+            case '[': {
+                expect('[');
+                final List<Object> list = new ArrayList<>();
+                if (!consume(']')) {
+                    do {
+                        list.add(readValue());
+                    } while (consume(','));
+                    expect(']');
+                }
+                return list;
+            }
+            case 't':
+                literal("true");
+                return Boolean.TRUE;
+            case 'f':
+                literal("false");
+                return Boolean.FALSE;
+            case 'n':
+                literal("null");
+                return null;
+            default:
+                return readNumber();
+        }
+    }
+
+    /**
+     * Skips a value of any type without creating objects for it.
+     */
+    private void skipValue() throws IOException {
+        switch (peek()) {
+            case '"':
+                skipString();
+                break;
+            case '{':
+                expect('{');
+                if (!consume('}')) {
+                    do {
+                        skipString();
+                        expect(':');
+                        skipValue();
+                    } while (consume(','));
+                    expect('}');
+                }
+                break;
+            case '[':
+                expect('[');
+                if (!consume(']')) {
+                    do {
+                        skipValue();
+                    } while (consume(','));
+                    expect(']');
+                }
+                break;
+            case 't':
+                literal("true");
+                break;
+            case 'f':
+                literal("false");
+                break;
+            case 'n':
+                literal("null");
+                break;
+            default:
+                scanNumber();
+                break;
+        }
+    }
+
+    private Number readNumber() throws IOException {
+        scanNumber();
+        final String number = this.text.toString();
+        if (number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0) {
+            return Double.valueOf(number);
+        }
+        final BigInteger value = new BigInteger(number);
+        if (value.bitLength() < Integer.SIZE) {
+            return value.intValue();
+        }
+        if (value.bitLength() < Long.SIZE) {
+            return value.longValue();
+        }
+        return value;
+    }
+
+    /**
+     * Scans a number into {@link #text}, following the JSON grammar: an optional minus, an integer part without
+     * leading zeros, an optional fraction and an optional exponent.
+     */
+    private void scanNumber() throws IOException {
+        this.text.setLength(0);
+        int c = peek();
+        if (c == '-') {
+            c = append(c);
+        }
+        if (c < '0' || c > '9') {
+            throw error(this.text.length() == 0 ? "Expected a value" : "Invalid number");
+        }
+        if (c == '0') {
+            c = append(c);
+            if (c >= '0' && c <= '9') {
+                throw error("Invalid number");
+            }
+        } else {
+            c = digits(c);
+        }
+        if (c == '.') {
+            c = digits(append(c));
+        }
+        if (c == 'e' || c == 'E') {
+            c = append(c);
+            if (c == '+' || c == '-') {
+                c = append(c);
+            }
+            c = digits(c);
+        }
+        if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+            throw error("Invalid number");
+        }
+    }
+
+    /**
+     * Scans at least one digit into {@link #text}.
+     *
+     * @return the character after the digits
+     */
+    private int digits(int c) throws IOException {
+        if (c < '0' || c > '9') {
+            throw error("Invalid number");
+        }
+        do {
+            c = append(c);
+        } while (c >= '0' && c <= '9');
+        return c;
+    }
+
+    /**
+     * Consumes a character of a number and appends it to {@link #text}.
+     *
+     * @return the next character
+     */
+    private int append(final int c) throws IOException {
+        this.text.append((char) c);
+        this.position++;
+        return peekRaw();
+    }
+
+    private void literal(final String literal) throws IOException {
+        peek();
+        for (int i = 0; i < literal.length(); i++) {
+            if (peekRaw() != literal.charAt(i)) {
+                throw error("Expected " + literal);
+            }
+            this.position++;
+        }
+    }
+
+    /**
+     * Reads a string and deduplicates it.
+     *
+     * @param value whether the string is a value, which is only deduplicated if it is short
+     */
+    private String readString(final boolean value) throws IOException {
+        expect('"');
+        final int start = this.position;
+        while (this.position < this.limit) {
+            final char c = this.buffer[this.position];
+            if (c == '"') {
+                this.position++;
+                return value ? this.strings.internValue(this.view, start, this.position - 1)
+                        : this.strings.intern(this.view, start, this.position - 1);
+            }
+            if (c == '\\') {
+                break;
+            }
+            if (c < 0x20) {
+                throw error("Unescaped control character in string");
+            }
+            this.position++;
+        }
+        // Escapes or the end of the buffer: continue character by character
+        this.text.setLength(0);
+        this.text.append(this.buffer, start, this.position - start);
+        scanString(true);
+        return value ? this.strings.internValue(this.text, 0, this.text.length())
+                : this.strings.intern(this.text, 0, this.text.length());
+    }
+
+    private void skipString() throws IOException {
+        expect('"');
+        scanString(false);
+    }
+
+    /**
+     * Scans the rest of a string up to and including the closing quote.
+     *
+     * @param collect whether to append the unescaped characters to {@link #text}
+     */
+    private void scanString(final boolean collect) throws IOException {
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return;
+            }
+            if (c < 0) {
+                throw error("Unterminated string");
+            }
+            if (c < 0x20) {
+                throw error("Unescaped control character in string");
+            }
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        break;
+                    case 'b':
+                        c = '\b';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'u':
+                        c = 0;
+                        for (int i = 0; i < 4; i++) {
+                            final int digit = Character.digit(read(), 16);
+                            if (digit < 0) {
+                                throw error("Invalid unicode escape");
+                            }
+                            c = (c << 4) | digit;
+                        }
+                        break;
+                    default:
+                        throw error("Invalid escape");
+                }
+            }
+            if (collect) {
+                this.text.append((char) c);
+            }
+        }
+    }
+
+    private void expect(final char expected) throws IOException {
+        if (peek() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+        this.position++;
+    }
+
+    private boolean consume(final char expected) throws IOException {
+        if (peek() == expected) {
+            this.position++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the next character which is not whitespace, without consuming it, or <code>-1</code> at the end
+     */
+    private int peek() throws IOException {
+        while (true) {
+            final int c = peekRaw();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+            this.position++;
+        }
+    }
+
+    /**
+     * @return the next character without consuming it, or <code>-1</code> at the end
+     */
+    private int peekRaw() throws IOException {
+        if (this.position == this.limit && !fill()) {
+            return -1;
+        }
+        return this.buffer[this.position];
+    }
+
+    private int read() throws IOException {
+        final int c = peekRaw();
+        if (c >= 0) {
+            this.position++;
+        }
+        return c;
+    }
+
+    private boolean fill() throws IOException {
+        this.offset += this.limit;
+        this.position = 0;
+        this.limit = 0;
+        int read;
+        do {
+            read = this.reader.read(this.buffer, 0, this.buffer.length);
+        } while (read == 0);
+        if (read < 0) {
+            return false;
+        }
+        this.limit = read;
+        return true;
+    }
+
+    private IOException error(final String message) {
+        return new IOException(message + " at character " + (this.offset + this.position) + " of the JSON inventory");
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.util;
+
+import net.aschemann.ansible.inventory.type.AnsibleConstants;
+import net.aschemann.ansible.inventory.type.AnsibleGroup;
+import net.aschemann.ansible.inventory.type.AnsibleHost;
+import net.aschemann.ansible.inventory.type.AnsibleInventory;
+import net.aschemann.ansible.inventory.type.AnsibleVariable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes inventories as JSON in the format of dynamic inventory scripts, i.e. the output of
+ * <code>ansible-inventory --list</code> respectively <code>--host &lt;name&gt;</code>.
+ * <p>
+ * The JSON is streamed straight from the model without building an intermediate tree. Every string is escaped in
+ * the same pass which appends it, and streams receive the text through a reusable UTF-8 buffer.
+ * <p>
+ * Like in Ansible, the group <code>all</code> has all top-level groups as children, and the hosts without any
+ * other group are the hosts of <code>ungrouped</code>. The variables of hosts are listed in
+ * <code>_meta.hostvars</code>, so Ansible does not need to call the script once per host. Scalar values are
+ * written as JSON strings, numbers and booleans, maps as objects and collections and arrays as lists.
+ */
+public final class AnsibleInventoryJsonWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private AnsibleInventoryJsonWriter() {
+    }
+
+    /**
+     * Writes the <code>--list</code> output of an inventory to a stream, encoded as UTF-8. The stream is flushed,
+     * but not closed.
+     *
+     * @param inventory the inventory
+     * @param stream the stream
+     * @throws IOException if writing to the stream fails
+     */
+    public static void writeList(final AnsibleInventory inventory, final OutputStream stream) throws IOException {
+        final AnsibleUtf8Sink sink = new AnsibleUtf8Sink(stream);
+        writeList(inventory, sink);
+        sink.flush();
+    }
+
+    /**
+     * @param inventory the inventory
+     * @param out where to append the <code>--list</code> output
+     * @throws IOException if appending fails
+     */
+    public static void writeList(final AnsibleInventory inventory, final Appendable out) throws IOException {
+        out.append("{\"_meta\":{\"hostvars\":{");
+        boolean first = true;
+        for (AnsibleHost host : inventory.getHosts()) {
+            if (host.getVariables().isEmpty()) {
+                continue;
+            }
+            first = separate(out, first);
+            string(out, host.getName());
+            out.append(':');
+            variables(out, host.getVariables());
+        }
+        out.append("}}");
+
+        final Set<String> subgroups = new HashSet<>();
+        AnsibleGroup all = null;
+        AnsibleGroup ungrouped = null;
+        for (AnsibleGroup group : inventory.getGroups()) {
+            if (AnsibleConstants.ALL_GROUP.equals(group.getName())) {
+                all = group;
+            } else if (AnsibleConstants.UNGROUPED_GROUP.equals(group.getName())) {
+                ungrouped = group;
+            } else {
+                for (AnsibleGroup subgroup : group.getSubgroups()) {
+                    subgroups.add(subgroup.getName());
+                }
+            }
+        }
+        final List<AnsibleHost> ungroupedHosts = AnsibleInventoryWriter.getUngroupedHosts(inventory);
+
+        // all
+        final Set<String> children = new LinkedHashSet<>();
+        if (all != null) {
+            for (AnsibleGroup subgroup : all.getSubgroups()) {
+                children.add(subgroup.getName());
+            }
+        }
+        for (AnsibleGroup group : inventory.getGroups()) {
+            if (group != all && !subgroups.contains(group.getName())) {
+                children.add(group.getName());
+            }
+        }
+        if (!ungroupedHosts.isEmpty()) {
+            children.add(AnsibleConstants.UNGROUPED_GROUP);
+        }
+        out.append(",\"").append(AnsibleConstants.ALL_GROUP).append("\":{");
+        boolean firstField = names(out, "children", children, true);
+        if (all != null) {
+            groupVariables(out, all, firstField);
+        }
+        out.append('}');
+
+        // ungrouped
+        if (ungrouped != null || !ungroupedHosts.isEmpty()) {
+            out.append(",\"").append(AnsibleConstants.UNGROUPED_GROUP).append("\":{");
+            firstField = hosts(out, ungroupedHosts, true);
+            if (ungrouped != null) {
+                firstField = groups(out, ungrouped.getSubgroups(), firstField);
+                groupVariables(out, ungrouped, firstField);
+            }
+            out.append('}');
+        }
+
+        for (AnsibleGroup group : inventory.getGroups()) {
+            if (group == all || group == ungrouped) {
+                continue;
+            }
+            out.append(',');
+            string(out, group.getName());
+            out.append(":{");
+            firstField = hosts(out, group.getHosts(), true);
+            firstField = groups(out, group.getSubgroups(), firstField);
+            groupVariables(out, group, firstField);
+            out.append('}');
+        }
+        out.append('}');
+    }
+
+    /**
+     * Writes the <code>--host</code> output of an inventory to a stream, encoded as UTF-8. The stream is flushed,
+     * but not closed.
+     *
+     * @param inventory the inventory
+     * @param host the name of the host
+     * @param stream the stream
+     * @throws IOException if writing to the stream fails
+     */
+    public static void writeHost(final AnsibleInventory inventory, final String host, final OutputStream stream)
+            throws IOException {
+        final AnsibleUtf8Sink sink = new AnsibleUtf8Sink(stream);
+        writeHost(inventory, host, sink);
+        sink.flush();
+    }
+
+    /**
+     * @param inventory the inventory
+     * @param host the name of the host
+     * @param out where to append the variables of the host, or an empty object if the host is unknown
+     * @throws IOException if appending fails
+     */
+    public static void writeHost(final AnsibleInventory inventory, final String host, final Appendable out)
+            throws IOException {
+        final AnsibleHost ansibleHost = inventory.getHost(host);
+        if (ansibleHost == null) {
+            out.append("{}");
+        } else {
+            variables(out, ansibleHost.getVariables());
+        }
+    }
+
+    private static boolean separate(final Appendable out, final boolean first) throws IOException {
+        if (!first) {
+            out.append(',');
+        }
+        return false;
+    }
+
+    private static boolean hosts(final Appendable out, final Collection<AnsibleHost> hosts, final boolean first)
+            throws IOException {
+        if (hosts.isEmpty()) {
+            return first;
+        }
+        separate(out, first);
+        out.append("\"hosts\":[");
+        boolean firstHost = true;
+        for (AnsibleHost host : hosts) {
+            firstHost = separate(out, firstHost);
+            string(out, host.getName());
+        }
+        out.append(']');
+        return false;
+    }
+
+    private static boolean groups(final Appendable out, final Collection<AnsibleGroup> groups, final boolean first)
+            throws IOException {
+        if (groups.isEmpty()) {
+            return first;
+        }
+        final List<String> names = new ArrayList<>(groups.size());
+        for (AnsibleGroup group : groups) {
+            names.add(group.getName());
+        }
+        return names(out, "children", names, first);
+    }
+
+    private static boolean names(final Appendable out, final String field, final Collection<String> names,
+                                 final boolean first) throws IOException {
+        if (names.isEmpty()) {
+            return first;
+        }
+        separate(out, first);
+        out.append('"').append(field).append("\":[");
+        boolean firstName = true;
+        for (String name : names) {
+            firstName = separate(out, firstName);
+            string(out, name);
+        }
+        out.append(']');
+        return false;
+    }
+
+    private static void groupVariables(final Appendable out, final AnsibleGroup group, final boolean first)
+            throws IOException {
+        if (!group.getVariables().isEmpty()) {
+            separate(out, first);
+            out.append("\"vars\":");
+            variables(out, group.getVariables());
+        }
+    }
+
+    private static void variables(final Appendable out, final Collection<AnsibleVariable> variables)
+            throws IOException {
+        out.append('{');
+        boolean first = true;
+        for (AnsibleVariable variable : variables) {
+            first = separate(out, first);
+            string(out, variable.getName());
+            out.append(':');
+            value(out, variable.getValue());
+        }
+        out.append('}');
+    }
+
+    private static void value(final Appendable out, final Object value) throws IOException {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof Boolean || value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            out.append(value.toString());
+        } else if (value instanceof Number && isFinite(((Number) value).doubleValue())) {
+            out.append(value.toString());
+        } else if (value instanceof Map) {
+            out.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                first = separate(out, first);
+                string(out, String.valueOf(entry.getKey()));
+                out.append(':');
+                value(out, entry.getValue());
+            }
+            out.append('}');
+        } else if (value instanceof Collection) {
+            out.append('[');
+            boolean first = true;
+            for (Object element : (Collection<?>) value) {
+                first = separate(out, first);
+                value(out, element);
+            }
+            out.append(']');
+        } else if (value.getClass().isArray()) {
+            out.append('[');
+            for (int i = 0; i < Array.getLength(value); i++) {
+                separate(out, i == 0);
+                value(out, Array.get(value, i));
+            }
+            out.append(']');
+        } else {
+            string(out, value.toString());
+        }
+    }
+
+    private static boolean isFinite(final double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+
+    /**
+     * Appends a JSON string, escaping it in the same pass: runs of characters which need no escaping are appended
+     * at once.
+     */
+    private static void string(final Appendable out, final String text) throws IOException {
+        out.append('"');
+        int start = 0;
+        final int length = text.length();
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            out.append(text, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\b':
+                    out.append("\\b");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                default:
+                    out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    break;
+            }
+        }
+        out.append(text, start, length).append('"');
+    }
+}
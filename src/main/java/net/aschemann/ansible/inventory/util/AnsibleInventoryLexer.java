@@ -0,0 +1,285 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.util;
+
+/**
+ * Character level scanner for the lines of an INI inventory.
+ * <p>
+ * All methods work on {@link CharSequence} slices and only create {@link String}s for the parts which are kept, so
+ * no regular expressions or intermediate token lists are involved while parsing.
+ */
+final class AnsibleInventoryLexer {
+
+    enum LineType {
+        /** Empty lines and comments */
+        SKIP,
+        /** <code>[group]</code> */
+        GROUP,
+        /** <code>[group:vars]</code> */
+        GROUP_VARS,
+        /** <code>[group:children]</code> */
+        GROUP_CHILDREN,
+        /** Hosts, variables or children, depending on the current section */
+        ENTRY
+    }
+
+    /**
+     * Receives the variables found by {@link #splitVariables(CharSequence, int, int, VariableHandler)}.
+     */
+    interface VariableHandler {
+        /**
+         * @param text the scanned text
+         * @param start the start of the variable (inclusive)
+         * @param separator the position of the first <code>=</code>, or <code>-1</code> if there is none
+         * @param end the end of the variable (exclusive)
+         */
+        void variable(CharSequence text, int start, int separator, int end);
+    }
+
+    private AnsibleInventoryLexer() {
+    }
+
+    private static boolean isWhitespace(final char c) {
+        // Same as the regex class \s
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isDelimiter(final char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\f';
+    }
+
+    private static boolean isWordCharacter(final char c) {
+        // Same as the regex class \w
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    private static int skipWhitespace(final CharSequence text, int pos, final int end) {
+        while (pos < end && isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    static int indexOf(final CharSequence text, final char c, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Converts <code>foo = bar</code> to <code>foo=bar</code>, as Ansible allows to use that format.
+     *
+     * @param line a single line
+     * @return the line itself if nothing needs to be changed, a new String otherwise
+     */
+    static CharSequence normalize(final CharSequence line) {
+        final int length = line.length();
+        int firstWhitespace = 0;
+        while (firstWhitespace < length && !isWhitespace(line.charAt(firstWhitespace))) {
+            firstWhitespace++;
+        }
+        if (firstWhitespace == length) {
+            return line;
+        }
+        final int afterWhitespace = skipWhitespace(line, firstWhitespace, length);
+        if (afterWhitespace < length && line.charAt(afterWhitespace) == '=') {
+            // "key = value": drop the whitespace around the separator
+            final int valueStart = skipWhitespace(line, afterWhitespace + 1, length);
+            return new StringBuilder(firstWhitespace + 1 + length - valueStart)
+                    .append(line, 0, firstWhitespace)
+                    .append('=')
+                    .append(line, valueStart, length)
+                    .toString();
+        }
+        if (firstWhitespace > 0 && line.charAt(firstWhitespace - 1) == '=') {
+            // "key= value": drop the whitespace after the separator
+            return new StringBuilder(firstWhitespace + length - afterWhitespace)
+                    .append(line, 0, firstWhitespace)
+                    .append(line, afterWhitespace, length)
+                    .toString();
+        }
+        return line;
+    }
+
+    static LineType classify(final CharSequence line) {
+        if (line.length() == 0) {
+            return LineType.SKIP;
+        }
+        final char first = line.charAt(0);
+        if (first == ';' || first == '#') {
+            return LineType.SKIP;
+        }
+        if (first != '[') {
+            return LineType.ENTRY;
+        }
+        if (isSectionHeader(line, ":vars]")) {
+            return LineType.GROUP_VARS;
+        }
+        if (isSectionHeader(line, ":children]")) {
+            return LineType.GROUP_CHILDREN;
+        }
+        return LineType.GROUP;
+    }
+
+    private static boolean isSectionHeader(final CharSequence line, final String suffix) {
+        final int nameEnd = line.length() - suffix.length();
+        if (nameEnd <= 1) {
+            return false;
+        }
+        for (int i = 1; i < nameEnd; i++) {
+            if (!isWordCharacter(line.charAt(i))) {
+                return false;
+            }
+        }
+        for (int i = 0; i < suffix.length(); i++) {
+            if (line.charAt(nameEnd + i) != suffix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param line a line classified as {@link LineType#GROUP}, {@link LineType#GROUP_VARS} or
+     * {@link LineType#GROUP_CHILDREN}
+     * @param type the type of the line
+     * @return the name of the group the header refers to
+     */
+    static String groupName(final CharSequence line, final LineType type) {
+        final char terminator = type == LineType.GROUP ? ']' : ':';
+        return line.subSequence(1, indexOf(line, terminator, 0, line.length())).toString();
+    }
+
+    /**
+     * @param line a host line
+     * @return the end of the host name, i.e. the position of the first blank or tab or the length of the line
+     */
+    static int hostNameEnd(final CharSequence line) {
+        final int length = line.length();
+        for (int i = 0; i < length; i++) {
+            final char c = line.charAt(i);
+            if (c == ' ' || c == '\t') {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Splits the variables of a host line. Values may contain whitespace if they are enclosed by single or double
+     * quotes; the quotes are kept.
+     *
+     * @param text the text to scan
+     * @param start the start of the variables (inclusive)
+     * @param end the end of the variables (exclusive)
+     * @param handler receives every variable found
+     */
+    static void splitVariables(final CharSequence text, final int start, final int end,
+                               final VariableHandler handler) {
+        int variableStart = -1;
+        char quote = 0;
+        int pos = start;
+        while (pos < end) {
+            final int tokenStart = pos;
+            final boolean isSeparator = isDelimiter(text.charAt(pos));
+            if (isSeparator) {
+                pos++;
+            } else {
+                while (pos < end && !isDelimiter(text.charAt(pos))) {
+                    pos++;
+                }
+            }
+            final char last = text.charAt(pos - 1);
+
+            if (variableStart < 0) {
+                if (!isSeparator) {
+                    final char openingQuote = openingQuote(text, tokenStart, pos);
+                    if (openingQuote != 0 && last != openingQuote) {
+                        // A quoted value containing whitespace: continue until the closing quote
+                        variableStart = tokenStart;
+                        quote = openingQuote;
+                    } else {
+                        emit(text, tokenStart, pos, handler);
+                    }
+                }
+            } else if (last == quote || pos >= end) {
+                if (!isSeparator) {
+                    emit(text, variableStart, pos, handler);
+                }
+                variableStart = -1;
+            }
+        }
+    }
+
+    private static void emit(final CharSequence text, final int start, final int end,
+                             final VariableHandler handler) {
+        handler.variable(text, start, indexOf(text, '=', start, end), end);
+    }
+
+    private static char openingQuote(final CharSequence text, final int start, final int end) {
+        if (hasQuoteAfterSeparator(text, start, end, '"')) {
+            return '"';
+        }
+        if (hasQuoteAfterSeparator(text, start, end, '\'')) {
+            return '\'';
+        }
+        return 0;
+    }
+
+    private static boolean hasQuoteAfterSeparator(final CharSequence text, final int start, final int end,
+                                                  final char quote) {
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == '=') {
+                final int next = skipWhitespace(text, i + 1, end);
+                if (next < end && text.charAt(next) == quote) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the YAML backslash escapes <code>\\</code> of a value by single backslashes.
+     *
+     * @param text the text containing the value
+     * @param start the start of the value (inclusive)
+     * @param end the end of the value (exclusive)
+     * @return the unescaped value
+     */
+    static String unescapeValue(final CharSequence text, final int start, final int end) {
+        int backslash = indexOf(text, '\\', start, end);
+        if (backslash < 0 || backslash + 1 >= end) {
+            return text.subSequence(start, end).toString();
+        }
+        final StringBuilder builder = new StringBuilder(end - start);
+        int pos = start;
+        while (pos < end) {
+            final char c = text.charAt(pos);
+            builder.append(c);
+            if (c == '\\' && pos + 1 < end && text.charAt(pos + 1) == '\\') {
+                pos++;
+            }
+            pos++;
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A UTF-8 encoded inventory file mapped into memory.
+ * <p>
+ * Lines are found by scanning the bytes for line terminators. Lines consisting of ASCII characters only (which is
+ * the usual case) are scanned through a view on the mapped bytes, so a {@link String} is only created for the host
+ * names, group names and variables which are kept. Only lines containing other characters are decoded as a whole.
+ * <p>
+ * Like {@link java.nio.file.Files#newBufferedReader(Path)}, malformed UTF-8 is not replaced but reported: since
+ * {@link #parse(int, int, AnsibleInventoryParser)} cannot throw checked exceptions, it throws the
+ * {@link java.nio.charset.MalformedInputException} wrapped into an {@link UncheckedIOException}.
+ */
+final class AnsibleInventoryMappedFile implements AnsibleInventorySource {
+
+    private final ByteBuffer buffer;
+
+    private AnsibleInventoryMappedFile(final ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * @param path the file to map
+     * @return the mapped file
+     * @throws IOException if the file cannot be mapped, e.g. because it is larger than 2 GiB
+     */
+    static AnsibleInventoryMappedFile map(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Inventory file '" + path + "' is too large to be mapped: " + size + " bytes");
+            }
+            // The mapping stays valid after the channel is closed
+            return new AnsibleInventoryMappedFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    @Override
+    public int length() {
+        return buffer.limit();
+    }
+
+    @Override
+    public boolean isSectionStart(final int position) {
+        if (position <= 0 || buffer.get(position) != '[') {
+            return false;
+        }
+        final byte previous = buffer.get(position - 1);
+        return previous == '\n' || previous == '\r';
+    }
+
+    @Override
+    public void parse(final int start, final int end, final AnsibleInventoryParser parser) {
+        // Every instance uses its own view, as the position of a ByteBuffer is not thread safe
+        final AsciiSlice line = new AsciiSlice(buffer.duplicate());
+        int pos = start;
+        while (pos < end) {
+            int lineEnd = pos;
+            byte b = 0;
+            boolean isAscii = true;
+            while (lineEnd < end && (b = buffer.get(lineEnd)) != '\n' && b != '\r') {
+                isAscii &= b >= 0;
+                lineEnd++;
+            }
+            if (isAscii) {
+                parser.accept(line.reset(pos, lineEnd));
+            } else {
+                parser.accept(line.decode(pos, lineEnd));
+            }
+            if (b == '\r' && lineEnd + 1 < end && buffer.get(lineEnd + 1) == '\n') {
+                lineEnd++;
+            }
+            pos = lineEnd + 1;
+        }
+    }
+
+    /**
+     * A reusable view on a line of ASCII characters within the mapped bytes.
+     */
+    private static final class AsciiSlice implements CharSequence {
+        private final ByteBuffer buffer;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        private byte[] scratch = new byte[256];
+        private int start;
+        private int end;
+
+        AsciiSlice(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        AsciiSlice reset(final int start, final int end) {
+            this.start = start;
+            this.end = end;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(final int index) {
+            return (char) buffer.get(start + index);
+        }
+
+        @Override
+        public String subSequence(final int from, final int to) {
+            if (from < 0 || to > length() || from > to) {
+                throw new StringIndexOutOfBoundsException("begin " + from + ", end " + to + ", length " + length());
+            }
+            return string(start + from, start + to, true);
+        }
+
+        @Override
+        public String toString() {
+            return string(start, end, true);
+        }
+
+        String decode(final int from, final int to) {
+            return string(from, to, false);
+        }
+
+        private String string(final int from, final int to, final boolean isAscii) {
+            final int length = to - from;
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            // Cast for Java 8 compatibility, where ByteBuffer does not override position(int) yet
+            ((Buffer) buffer).position(from);
+            buffer.get(scratch, 0, length);
+            if (isAscii) {
+                // ISO-8859-1 maps ASCII bytes one to one and is the cheapest way to create the String
+                return new String(scratch, 0, length, StandardCharsets.ISO_8859_1);
+            }
+            // Unlike new String(..., UTF_8), the decoder reports malformed input instead of replacing it
+            try {
+                return decoder.decode(ByteBuffer.wrap(scratch, 0, length)).toString();
+            } catch (CharacterCodingException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parses an INI inventory on a {@link ForkJoinPool}. The source is cut into chunks at section headers (lines
+ * starting with <code>[</code>), each chunk is parsed into an {@link AnsibleInventoryChunk} and the chunks are returned in
+ * file order, so replaying them gives the same result as parsing the text sequentially.
+ */
+final class AnsibleInventoryParallelParser {
+
+    /** Chunks smaller than this are not worth a task of their own */
+    static final int MIN_CHUNK_SIZE = 64 * 1024;
+
+    /** Chunks per worker thread, to even out sections of different size */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private AnsibleInventoryParallelParser() {
+    }
+
+    static List<AnsibleInventoryChunk> parse(final AnsibleInventorySource source, final ForkJoinPool pool,
+                                             final AnsibleStringPool strings) {
+        return parse(source, pool, strings, MIN_CHUNK_SIZE);
+    }
+
+    static List<AnsibleInventoryChunk> parse(final AnsibleInventorySource source, final ForkJoinPool pool,
+                                             final AnsibleStringPool strings, final int minChunkSize) {
+        final int[] boundaries = boundaries(source, pool.getParallelism() * CHUNKS_PER_THREAD, minChunkSize);
+        return pool.invoke(new ParseTask(source, strings, boundaries, 0, boundaries.length - 1));
+    }
+
+    /**
+     * @return the start offsets of the chunks, followed by the length of the source
+     */
+    private static int[] boundaries(final AnsibleInventorySource source, final int maxChunks,
+                                    final int minChunkSize) {
+        final int length = source.length();
+        final int chunkSize = Math.max(minChunkSize, length / Math.max(1, maxChunks));
+        final List<Integer> boundaries = new ArrayList<>();
+        boundaries.add(0);
+        int pos = chunkSize;
+        while (pos < length) {
+            final int sectionStart = nextSectionStart(source, pos);
+            if (sectionStart >= length) {
+                break;
+            }
+            boundaries.add(sectionStart);
+            pos = sectionStart + chunkSize;
+        }
+        boundaries.add(length);
+        final int[] result = new int[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+        }
+        return result;
+    }
+
+    private static int nextSectionStart(final AnsibleInventorySource source, final int from) {
+        final int length = source.length();
+        for (int i = from; i < length; i++) {
+            if (source.isSectionStart(i)) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    private static final class ParseTask extends RecursiveTask<List<AnsibleInventoryChunk>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient AnsibleInventorySource source;
+        private final transient AnsibleStringPool strings;
+        private final int[] boundaries;
+        private final int from;
+        private final int to;
+
+        ParseTask(final AnsibleInventorySource source, final AnsibleStringPool strings, final int[] boundaries,
+                  final int from, final int to) {
+            this.source = source;
+            this.strings = strings;
+            this.boundaries = boundaries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<AnsibleInventoryChunk> compute() {
+            if (to - from <= 1) {
+                final List<AnsibleInventoryChunk> result = new ArrayList<>(1);
+                if (to > from) {
+                    final AnsibleInventoryChunk chunk = new AnsibleInventoryChunk();
+                    source.parse(boundaries[from], boundaries[to], new AnsibleInventoryParser(chunk, strings));
+                    result.add(chunk);
+                }
+                return result;
+            }
+            final int middle = (from + to) >>> 1;
+            final ParseTask left = new ParseTask(source, strings, boundaries, from, middle);
+            left.fork();
+            final List<AnsibleInventoryChunk> right = new ParseTask(source, strings, boundaries, middle, to).compute();
+            final List<AnsibleInventoryChunk> result = left.join();
+            result.addAll(right);
+            return result;
+        }
+    }
+}
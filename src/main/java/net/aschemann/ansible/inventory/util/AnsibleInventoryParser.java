@@ -0,0 +1,163 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.util;
+
+import net.aschemann.ansible.inventory.type.AnsibleVariable;
+import net.aschemann.ansible.inventory.util.AnsibleInventoryLexer.LineType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Turns the lines of an INI inventory into calls of an {@link AnsibleInventoryHandler}.
+ */
+final class AnsibleInventoryParser {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AnsibleInventoryParser.class);
+
+    private final AnsibleInventoryHandler handler;
+    private final AnsibleStringPool pool;
+    // Unless a first group is explicitely created in the hosts file the lines belong to the "ungrouped" group
+    private LineType currentSection = LineType.GROUP;
+    private String currentGroupName = "ungrouped";
+
+    AnsibleInventoryParser(final AnsibleInventoryHandler handler, final AnsibleStringPool pool) {
+        this.handler = handler;
+        this.pool = pool;
+    }
+
+    /**
+     * Processes the next line of an inventory file.
+     *
+     * @param line the line without its line terminator
+     */
+    void accept(final CharSequence line) {
+        final CharSequence normalizedLine = AnsibleInventoryLexer.normalize(line);
+        final LineType type = AnsibleInventoryLexer.classify(normalizedLine);
+        if (type == LineType.ENTRY) {
+            if (currentSection == LineType.GROUP) {
+                acceptHost(normalizedLine);
+            } else if (currentSection == LineType.GROUP_CHILDREN) {
+                handler.child(pool.intern(normalizedLine, 0, normalizedLine.length()));
+            } else {
+                final AnsibleVariable variable = toVariable(normalizedLine, 0,
+                        AnsibleInventoryLexer.indexOf(normalizedLine, '=', 0, normalizedLine.length()),
+                        normalizedLine.length());
+                if (variable != null) {
+                    handler.groupVariable(variable);
+                }
+            }
+        } else if (type != LineType.SKIP) {
+            currentSection = type;
+            currentGroupName = pool.intern(AnsibleInventoryLexer.groupName(normalizedLine, type));
+            handler.section(type, currentGroupName);
+        }
+    }
+
+    /**
+     * Processes all lines of <code>text</code> between <code>start</code> and <code>end</code>. Lines are
+     * terminated by <code>\n</code>, <code>\r</code> or <code>\r\n</code>, like for
+     * {@link java.io.BufferedReader#readLine()}.
+     *
+     * @param text the inventory text
+     * @param start the start of the first line (inclusive)
+     * @param end the end of the last line (exclusive)
+     */
+    void accept(final CharSequence text, final int start, final int end) {
+        final TextSlice line = new TextSlice(text);
+        int pos = start;
+        while (pos < end) {
+            int lineEnd = pos;
+            char c = 0;
+            while (lineEnd < end && (c = text.charAt(lineEnd)) != '\n' && c != '\r') {
+                lineEnd++;
+            }
+            accept(line.reset(pos, lineEnd));
+            if (c == '\r' && lineEnd + 1 < end && text.charAt(lineEnd + 1) == '\n') {
+                lineEnd++;
+            }
+            pos = lineEnd + 1;
+        }
+    }
+
+    private void acceptHost(final CharSequence line) {
+        final int hostNameEnd = AnsibleInventoryLexer.hostNameEnd(line);
+        handler.host(pool.intern(line, 0, hostNameEnd));
+        if (hostNameEnd < line.length()) {
+            AnsibleInventoryLexer.splitVariables(line, hostNameEnd + 1, line.length(),
+                    (text, start, separator, end) -> {
+                        final AnsibleVariable variable = toVariable(text, start, separator, end);
+                        if (variable != null) {
+                            handler.hostVariable(variable);
+                        }
+                    });
+        }
+    }
+
+    private AnsibleVariable toVariable(final CharSequence text, final int start, final int separator,
+                                       final int end) {
+        if (separator < 0) {
+            LOGGER.warn("Ignoring '{}' in group '{}' as it is not a variable assignment",
+                    text.subSequence(start, end), currentGroupName);
+            return null;
+        }
+        // Replace YAML backslashes escapes
+        final String value = AnsibleInventoryLexer.indexOf(text, '\\', separator + 1, end) < 0
+                ? pool.internValue(text, separator + 1, end)
+                : pool.internValue(AnsibleInventoryLexer.unescapeValue(text, separator + 1, end));
+        return new AnsibleVariable(pool.intern(text, start, separator), value);
+    }
+
+    /**
+     * A reusable view on a part of a larger text, so lines do not need to be copied before they are scanned.
+     */
+    private static final class TextSlice implements CharSequence {
+        private final CharSequence text;
+        private int start;
+        private int end;
+
+        TextSlice(final CharSequence text) {
+            this.text = text;
+        }
+
+        TextSlice reset(final int start, final int end) {
+            this.start = start;
+            this.end = end;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(final int index) {
+            return text.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(final int from, final int to) {
+            return text.subSequence(start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            return text.subSequence(start, end).toString();
+        }
+    }
+}
@@ -21,28 +21,27 @@ import net.aschemann.ansible.inventory.type.AnsibleGroup;
 import net.aschemann.ansible.inventory.type.AnsibleHost;
 import net.aschemann.ansible.inventory.type.AnsibleInventory;
 import net.aschemann.ansible.inventory.type.AnsibleVariable;
+import net.aschemann.ansible.inventory.util.AnsibleInventoryLexer.LineType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.yaml.snakeyaml.Yaml;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * @author Andrea Scarpino
@@ -55,201 +54,442 @@ public class AnsibleInventoryReader {
     }
 
     public static AnsibleInventory read(final String text) {
-        List<String> textAsList = Arrays.asList(text.split("\\n"));
-        return read(textAsList);
-    }
-
-    private static void addVariable (final AnsibleVariable variable, AnsibleGroup ansibleGroup) {
-        ansibleGroup.addVariable(variable);
-        ansibleGroup.getHosts().forEach(host -> host.addVariable(variable));
-        ansibleGroup.getSubgroups().forEach(subGroup -> addVariable(variable, subGroup));
-    }
-
-    private static void mergeInGroupVars(AnsibleInventory inventory, final Path groupVarsPath) {
-        for (AnsibleGroup ansibleGroup : inventory.getGroups()) {
-            Path groupVarsFilePath = Paths.get(groupVarsPath.toString(), ansibleGroup.getName());
-            File groupVarsFile = groupVarsFilePath.toFile();
-            if (groupVarsFile.exists()) {
-                Yaml yaml = new Yaml();
-                try {
-                    InputStream inputStream = new FileInputStream(groupVarsFile);
-                    Map<String, Object> obj = yaml.load(inputStream);
-                    obj.forEach((key, value) -> {
-                        if (!(value instanceof String)) {
-                            LOGGER.warn("Cannot add complex value with key '{}' to group '{}'",
-                                    key, ansibleGroup.getName());
-                        } else {
-                            AnsibleVariable variable = new AnsibleVariable(key, value);
-                            addVariable(variable, ansibleGroup);
-                        }
-                    });
-                } catch (FileNotFoundException e) {
-                    LOGGER.error("For some reason the group_vars file '{}' cannot be read",
-                            groupVarsFilePath.toAbsolutePath(), e);
-                }
-            }
-        }
+        final AnsibleInventoryFactory factory = new AnsibleInventoryFactory();
+        factory.acceptAll(text);
+        return factory.finish();
     }
 
-    private static void mergeInHostVars(AnsibleInventory inventory, final Path hostVarsPath) {
-        for (AnsibleHost ansibleHost : inventory.getHosts()) {
-            Path hostVarsFilePath = Paths.get(hostVarsPath.toString(), ansibleHost.getName());
-            File hostVarsFile = hostVarsFilePath.toFile();
-            if (hostVarsFile.exists()) {
-                Yaml yaml = new Yaml();
-                try {
-                    InputStream inputStream = new FileInputStream(hostVarsFile);
-                    Map<String, Object> obj = yaml.load(inputStream);
-                    obj.forEach((key, value) -> {
-                        if (!(value instanceof String)) {
-                            LOGGER.warn("Cannot add complex value with key '{}' to host '{}'",
-                                    key, ansibleHost.getName());
-                        } else {
-                            AnsibleVariable variable = new AnsibleVariable(key, value);
-                            ansibleHost.addVariable(variable);
-                        }
-                    });
-                } catch (FileNotFoundException e) {
-                    LOGGER.error("For some reason the host_vars file '{}' cannot be read",
-                            hostVarsFilePath.toAbsolutePath(), e);
-                }
-            }
-        }
+    /**
+     * Reads an inventory line by line, without keeping the whole text in memory. The reader is not closed.
+     *
+     * @param reader the source of the inventory text
+     * @return the parsed inventory
+     * @throws IOException if reading fails
+     */
+    public static AnsibleInventory read(final Reader reader) throws IOException {
+        return read(reader, new AnsibleStringPool());
     }
 
-    public static AnsibleInventory read(final Path inventoryPath) throws IOException {
-        if (Files.isDirectory(inventoryPath)) {
-            AnsibleInventory result = getAnsibleInventoryFromFile(Paths.get(inventoryPath.toString(), "hosts"));
-            mergeInGroupVars(result, Paths.get(inventoryPath.toString(), "group_vars"));
-            mergeInHostVars(result, Paths.get(inventoryPath.toString(), "host_vars"));
-            return result;
+    /**
+     * Like {@link #read(Reader)}, but deduplicates names and values with the given pool, which may be shared
+     * between several inventories. The bytes saved by the read are added to
+     * {@link AnsibleStringPool#getBytesSaved()}, like for all readers which take a pool.
+     *
+     * @param reader the source of the inventory text
+     * @param strings the pool to deduplicate names and values with
+     * @return the parsed inventory
+     * @throws IOException if reading fails
+     */
+    public static AnsibleInventory read(final Reader reader, final AnsibleStringPool strings) throws IOException {
+        final BufferedReader bufferedReader = reader instanceof BufferedReader
+                ? (BufferedReader) reader : new BufferedReader(reader);
+        final AnsibleInventoryFactory factory = new AnsibleInventoryFactory(strings);
+        String line;
+        while ((line = bufferedReader.readLine()) != null) {
+            factory.accept(line);
         }
-        return getAnsibleInventoryFromFile(inventoryPath);
+        return factory.finish();
     }
 
-    private static AnsibleInventory getAnsibleInventoryFromFile(final Path inventoryPath) throws IOException {
-        List<String> inventoryAsList = Files.readAllLines(inventoryPath, StandardCharsets.UTF_8);
-        return read(inventoryAsList);
+    /**
+     * Reads an inventory line by line, without keeping the whole text in memory. The stream is not closed.
+     *
+     * @param stream the source of the inventory text
+     * @param charset the encoding of the stream
+     * @return the parsed inventory
+     * @throws IOException if reading fails
+     */
+    public static AnsibleInventory read(final InputStream stream, final Charset charset) throws IOException {
+        return read(new InputStreamReader(stream, charset));
     }
 
-    public static AnsibleInventory read(final List<String> lines) {
-        return new AnsibleInventoryFactory().of(lines);
+    /**
+     * Reads the JSON output of a dynamic inventory script or of <code>ansible-inventory --list</code>, including
+     * the host variables in <code>_meta.hostvars</code>. The text is parsed while it is read, without building a
+     * document tree first. The reader is not closed.
+     *
+     * @param reader the source of the JSON text
+     * @return the parsed inventory
+     * @throws IOException if reading fails or the text is not valid JSON
+     */
+    public static AnsibleInventory readJson(final Reader reader) throws IOException {
+        return readJson(reader, new AnsibleStringPool());
     }
 
-    protected static class AnsibleVariableSplitter {
-        private static final String DELIMITERS = " \t\r\f";
-
-        StringBuilder tokenBuilder = null; // we need this "temp token" for whitespace values
-        boolean isValueWithWhitespace = false;
-        String quoteSign = "";
+    /**
+     * Like {@link #readJson(Reader)}, but deduplicates names and values with the given pool, which may be shared
+     * between several inventories.
+     *
+     * @param reader the source of the JSON text
+     * @param strings the pool to deduplicate names and values with
+     * @return the parsed inventory
+     * @throws IOException if reading fails or the text is not valid JSON
+     */
+    public static AnsibleInventory readJson(final Reader reader, final AnsibleStringPool strings)
+            throws IOException {
+        final AnsibleInventoryFactory factory = new AnsibleInventoryFactory(strings);
+        new AnsibleInventoryJsonParser(reader, factory, strings).parse();
+        return factory.finish();
+    }
 
-        private static boolean isSeparatorToken(final String token) {
-            return token.matches("[" + DELIMITERS + "]");
+    /**
+     * @param file a JSON file encoded as UTF-8
+     * @return the parsed inventory
+     * @throws IOException if reading fails or the file is not valid JSON
+     * @see #readJson(Reader)
+     */
+    public static AnsibleInventory readJson(final Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return readJson(reader);
         }
+    }
 
-        List<String> split(final String vars, final boolean isVarsBlock) {
-            final StringTokenizer tokenizer = new StringTokenizer(vars, DELIMITERS, true);
-            List<String> variables = new LinkedList<>();
-            while (tokenizer.hasMoreTokens()) {
-                final String token = tokenizer.nextToken();
+    /**
+     * Reads an inventory in the YAML format, e.g. the output of <code>ansible-inventory --list --yaml</code>. The
+     * event stream of the YAML parser is processed as it is read, without building a document tree first. Plain
+     * scalars are typed like in <code>yaml.load</code>, except for timestamps, and anchors, aliases and merge keys
+     * are supported for variables. The reader is not closed.
+     *
+     * @param reader the source of the YAML text
+     * @return the parsed inventory
+     * @throws IOException if reading fails or the text is not a valid YAML inventory
+     */
+    public static AnsibleInventory readYaml(final Reader reader) throws IOException {
+        return readYaml(reader, new AnsibleStringPool());
+    }
 
-                resetTokenBuilderUnlessWithinWhitespace();
+    /**
+     * Like {@link #readYaml(Reader)}, but deduplicates names and values with the given pool, which may be shared
+     * between several inventories.
+     *
+     * @param reader the source of the YAML text
+     * @param strings the pool to deduplicate names and values with
+     * @return the parsed inventory
+     * @throws IOException if reading fails or the text is not a valid YAML inventory
+     */
+    public static AnsibleInventory readYaml(final Reader reader, final AnsibleStringPool strings)
+            throws IOException {
+        final AnsibleInventoryFactory factory = new AnsibleInventoryFactory(strings);
+        new AnsibleInventoryYamlParser(reader, factory, strings).parse();
+        return factory.finish();
+    }
 
-                if (isNewTokenWithOpenQuote(isVarsBlock, token)) {
-                    continue;
-                }
-                handlePossibleEndOfQuote(tokenizer, token);
-                if (isValueWithWhiteSpaceOrNewToken(token)) {
-                    continue;
-                }
-                // Ignore separators
-                if (isSeparatorToken(token)) {
-                    continue;
+    /**
+     * @param file a YAML file encoded as UTF-8
+     * @return the parsed inventory
+     * @throws IOException if reading fails or the file is not a valid YAML inventory
+     * @see #readYaml(Reader)
+     */
+    public static AnsibleInventory readYaml(final Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return readYaml(reader);
+        }
+    }
+
+    /**
+     * Reads an inventory from a file written by
+     * {@link AnsibleInventoryWriter#writeBinary(AnsibleInventory, Path, AnsibleWriteOptions)} or by
+     * {@link #readCached(Path, Path)}. The file is memory-mapped and its checksum is verified first.
+     *
+     * @param file the binary file
+     * @return the inventory
+     * @throws IOException if reading fails or the file is corrupt or has an unsupported version
+     */
+    public static AnsibleInventory readBinary(final Path file) throws IOException {
+        return AnsibleInventoryBinaryFormat.read(file, null);
+    }
+
+    /**
+     * Like {@link #read(Path)}, but keeps the result in a binary file, which is loaded instead as long as the hosts
+     * file and the files in <code>group_vars/</code> and <code>host_vars/</code> do not change. Changes are
+     * detected by the names, sizes and modification times of these files. A stale, corrupt or outdated binary file
+     * is rebuilt; failing to write it is logged, but does not fail reading.
+     *
+     * @param inventoryPath an inventory file or directory
+     * @param binaryFile the binary file, which need not exist
+     * @return the inventory
+     * @throws IOException if the inventory can not be read
+     */
+    public static AnsibleInventory readCached(final Path inventoryPath, final Path binaryFile) throws IOException {
+        final byte[] fingerprint = AnsibleInventoryBinaryFormat.fingerprint(inventoryPath);
+        if (Files.exists(binaryFile)) {
+            try {
+                final AnsibleInventory cached = AnsibleInventoryBinaryFormat.read(binaryFile, fingerprint);
+                if (cached != null) {
+                    return cached;
                 }
-                variables.add(tokenBuilder.toString());
+                LOGGER.debug("Rebuilding the stale binary inventory {}", binaryFile);
+            } catch (IOException e) {
+                LOGGER.warn("Rebuilding the binary inventory: {}", e.getMessage());
             }
-            return variables;
         }
+        final AnsibleInventory inventory = read(inventoryPath);
+        try {
+            AnsibleInventoryBinaryFormat.write(inventory, fingerprint, binaryFile, AnsibleWriteOptions.defaults());
+        } catch (IOException e) {
+            LOGGER.warn("Could not write the binary inventory {}", binaryFile, e);
+        }
+        return inventory;
+    }
 
-        private boolean isValueWithWhiteSpaceOrNewToken(String token) {
-            if (isValueWithWhitespace) {
-                // Append the token to tokenBuilder
-                tokenBuilder.append(token);
-                return true;
+    private static void mergeInVars(final AnsibleInventory inventory, final Path inventoryPath,
+                                    final AnsibleStringPool strings) throws IOException {
+        final Map<String, Path> groupVarsFiles = AnsibleInventoryVarsLoader.list(
+                Paths.get(inventoryPath.toString(), "group_vars"), name -> inventory.getGroup(name) != null);
+        final Map<String, Path> hostVarsFiles = AnsibleInventoryVarsLoader.list(
+                Paths.get(inventoryPath.toString(), "host_vars"), name -> inventory.getHost(name) != null);
+
+        final List<Path> files = new ArrayList<>(groupVarsFiles.size() + hostVarsFiles.size());
+        files.addAll(groupVarsFiles.values());
+        files.addAll(hostVarsFiles.values());
+        final Iterator<Map<String, Object>> contents = AnsibleInventoryVarsLoader.load(files).iterator();
+
+        // Merge in the same order as the files were listed, i.e. sorted by name, so the result is deterministic
+        for (String groupName : groupVarsFiles.keySet()) {
+            mergeInGroupVars(inventory.getGroup(groupName), contents.next(), strings);
+        }
+        for (String hostName : hostVarsFiles.keySet()) {
+            mergeInHostVars(inventory.getHost(hostName), contents.next(), strings);
+        }
+    }
+
+    private static void mergeInGroupVars(final AnsibleGroup ansibleGroup, final Map<String, Object> obj,
+                                         final AnsibleStringPool strings) {
+        if (obj == null) {
+            return;
+        }
+        obj.forEach((key, value) -> {
+            if (!(value instanceof String)) {
+                LOGGER.warn("Cannot add complex value with key '{}' to group '{}'",
+                        key, ansibleGroup.getName());
             } else {
-                // Otherwise, assign token to tokenBuilder
-                if (tokenBuilder == null) {
-                    tokenBuilder = new StringBuilder(token);
-                }
+                AnsibleVariable variable = new AnsibleVariable(strings.intern(key),
+                        strings.internValue((String) value));
+                ansibleGroup.addVariable(variable);
             }
-            return false;
+        });
+    }
+
+    private static void mergeInHostVars(final AnsibleHost ansibleHost, final Map<String, Object> obj,
+                                        final AnsibleStringPool strings) {
+        if (obj == null) {
+            return;
         }
+        obj.forEach((key, value) -> {
+            if (!(value instanceof String)) {
+                LOGGER.warn("Cannot add complex value with key '{}' to host '{}'",
+                        key, ansibleHost.getName());
+            } else {
+                AnsibleVariable variable = new AnsibleVariable(strings.intern(key),
+                        strings.internValue((String) value));
+                ansibleHost.addVariable(variable);
+            }
+        });
+    }
 
-        private boolean isNewTokenWithOpenQuote(final boolean isVarsBlock, final String token) {
-            if (tokenBuilder == null) {
-                // check for whitespace values enclosed by double quotes
-                if (token.matches(".*?=\\s*\".*")) {
-                    tokenBuilder = new StringBuilder(token);
-                    quoteSign = "\"";
-                }
-                // check for whitespace values enclosed by single quotes
-                else if (token.matches(".*?=\\s*'.*")) {
-                    tokenBuilder = new StringBuilder(token);
-                    quoteSign = "'";
+    public static AnsibleInventory read(final Path inventoryPath) throws IOException {
+        return read(inventoryPath, new AnsibleStringPool());
+    }
 
-                }
-                // in a vars block no quotes are required
-                else if (token.matches("\\S*=\\s*.*") && isVarsBlock) {
-                    tokenBuilder = new StringBuilder(token);
-                    quoteSign = "\n";
-                }
+    /**
+     * Like {@link #read(Path)}, but deduplicates names and values with the given pool, which may be shared between
+     * several inventories.
+     *
+     * @param inventoryPath an inventory file or directory
+     * @param strings the pool to deduplicate names and values with
+     * @return the parsed inventory
+     * @throws IOException if reading fails
+     */
+    public static AnsibleInventory read(final Path inventoryPath, final AnsibleStringPool strings)
+            throws IOException {
+        return read(inventoryPath, strings, AnsibleInventoryReader::getAnsibleInventoryFromFile);
+    }
 
-                if (tokenBuilder != null && !token.endsWith(quoteSign)) {
-                    isValueWithWhitespace = true;
-                    return true;
-                }
+    /**
+     * Like {@link #read(Path)}, but maps the hosts file into memory instead of decoding it. The file is scanned as
+     * UTF-8 bytes and Strings are only created for the names and values which are kept, which reduces both the
+     * parse time and the peak heap for very large files. Files larger than 2 GiB are read like in
+     * {@link #read(Path)}. Like there, malformed UTF-8 is reported by a
+     * {@link java.nio.charset.MalformedInputException}.
+     * <p>
+     * Note that on some platforms, e.g. Windows, a mapped file cannot be replaced until the mapping has been
+     * garbage collected.
+     *
+     * @param inventoryPath an inventory file or directory
+     * @return the parsed inventory
+     * @throws IOException if reading fails
+     */
+    public static AnsibleInventory readMapped(final Path inventoryPath) throws IOException {
+        return readMapped(inventoryPath, new AnsibleStringPool());
+    }
+
+    /**
+     * Like {@link #readMapped(Path)}, but deduplicates names and values with the given pool, which may be shared
+     * between several inventories.
+     *
+     * @param inventoryPath an inventory file or directory
+     * @param strings the pool to deduplicate names and values with
+     * @return the parsed inventory
+     * @throws IOException if reading fails
+     */
+    public static AnsibleInventory readMapped(final Path inventoryPath, final AnsibleStringPool strings)
+            throws IOException {
+        return read(inventoryPath, strings, AnsibleInventoryReader::getAnsibleInventoryFromMappedFile);
+    }
+
+    /**
+     * Like {@link #read(Path)}, but parses the hosts file on the common {@link ForkJoinPool}.
+     *
+     * @param inventoryPath an inventory file or directory
+     * @return the parsed inventory
+     * @throws IOException if reading fails
+     * @see #readParallel(Path, ForkJoinPool)
+     */
+    public static AnsibleInventory readParallel(final Path inventoryPath) throws IOException {
+        return readParallel(inventoryPath, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Like {@link #read(Path)}, but parses the hosts file on the given pool. The file is mapped into memory like in
+     * {@link #readMapped(Path)} and cut into chunks at section headers, which are parsed concurrently and merged in
+     * file order, so the result is the same as for {@link #read(Path)}. This pays off for files with many sections
+     * and several hundred thousand lines.
+     *
+     * @param inventoryPath an inventory file or directory
+     * @param pool the pool to parse on
+     * @return the parsed inventory
+     * @throws IOException if reading fails
+     */
+    public static AnsibleInventory readParallel(final Path inventoryPath, final ForkJoinPool pool)
+            throws IOException {
+        return readParallel(inventoryPath, pool, new AnsibleStringPool());
+    }
+
+    /**
+     * Like {@link #readParallel(Path, ForkJoinPool)}, but deduplicates names and values with the given pool, which
+     * may be shared between several inventories.
+     *
+     * @param inventoryPath an inventory file or directory
+     * @param pool the pool to parse on
+     * @param strings the pool to deduplicate names and values with
+     * @return the parsed inventory
+     * @throws IOException if reading fails
+     */
+    public static AnsibleInventory readParallel(final Path inventoryPath, final ForkJoinPool pool,
+                                                final AnsibleStringPool strings) throws IOException {
+        return read(inventoryPath, strings, (path, pooled) -> {
+            if (Files.size(path) > Integer.MAX_VALUE) {
+                return getAnsibleInventoryFromFile(path, pooled);
             }
-            return false;
+            try {
+                return readParallel(AnsibleInventoryMappedFile.map(path), pool, pooled);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    /**
+     * Like {@link #read(String)}, but parses the text on the given pool.
+     *
+     * @param text the inventory text
+     * @param pool the pool to parse on
+     * @return the parsed inventory
+     * @see #readParallel(Path, ForkJoinPool)
+     */
+    public static AnsibleInventory readParallel(final String text, final ForkJoinPool pool) {
+        return readParallel(text, pool, new AnsibleStringPool());
+    }
+
+    /**
+     * Like {@link #readParallel(String, ForkJoinPool)}, but deduplicates names and values with the given pool, which
+     * may be shared between several inventories.
+     *
+     * @param text the inventory text
+     * @param pool the pool to parse on
+     * @param strings the pool to deduplicate names and values with
+     * @return the parsed inventory
+     */
+    public static AnsibleInventory readParallel(final String text, final ForkJoinPool pool,
+                                                final AnsibleStringPool strings) {
+        return readParallel(AnsibleInventorySource.of(text), pool, strings);
+    }
+
+    private static AnsibleInventory readParallel(final AnsibleInventorySource source, final ForkJoinPool pool,
+                                                 final AnsibleStringPool strings) {
+        final AnsibleInventoryFactory factory = new AnsibleInventoryFactory(strings);
+        AnsibleInventoryParallelParser.parse(source, pool, strings).forEach(chunk -> chunk.replay(factory));
+        return factory.finish();
+    }
+
+    private interface HostsFileReader {
+        AnsibleInventory read(Path hostsFile, AnsibleStringPool strings) throws IOException;
+    }
+
+    private static AnsibleInventory read(final Path inventoryPath, final AnsibleStringPool strings,
+                                         final HostsFileReader hostsFileReader) throws IOException {
+        if (Files.isDirectory(inventoryPath)) {
+            AnsibleInventory result = hostsFileReader.read(Paths.get(inventoryPath.toString(), "hosts"), strings);
+            mergeInVars(result, inventoryPath, strings);
+            return result;
         }
+        return hostsFileReader.read(inventoryPath, strings);
+    }
 
-        private void handlePossibleEndOfQuote(final StringTokenizer tokenizer, final String token) {
-            // Have we reached the end of a value containing whitespace? (Or, are we at the end of the String?)
-            if (isValueWithWhitespace && (token.endsWith(quoteSign) || !tokenizer.hasMoreTokens())) {
-                tokenBuilder.append(token);
-                isValueWithWhitespace = false;
-            }
+    private static AnsibleInventory getAnsibleInventoryFromFile(final Path inventoryPath,
+                                                                final AnsibleStringPool strings) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(inventoryPath, StandardCharsets.UTF_8)) {
+            return read(reader, strings);
         }
+    }
 
-        private void resetTokenBuilderUnlessWithinWhitespace() {
-            if (!isValueWithWhitespace) {
-                tokenBuilder = null;
-            }
+    private static AnsibleInventory getAnsibleInventoryFromMappedFile(final Path inventoryPath,
+                                                                      final AnsibleStringPool strings)
+            throws IOException {
+        if (Files.size(inventoryPath) > Integer.MAX_VALUE) {
+            return getAnsibleInventoryFromFile(inventoryPath, strings);
         }
+        final AnsibleInventoryMappedFile mappedFile = AnsibleInventoryMappedFile.map(inventoryPath);
+        final AnsibleInventoryFactory factory = new AnsibleInventoryFactory(strings);
+        try {
+            mappedFile.parse(0, mappedFile.length(), factory.parser);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return factory.finish();
     }
 
-	protected static class AnsibleInventoryFactory {
-		private static final String UNGROUPED = "ungrouped";
+    public static AnsibleInventory read(final List<String> lines) {
+        return new AnsibleInventoryFactory().of(lines);
+    }
 
+	protected static class AnsibleInventoryFactory implements AnsibleInventoryHandler {
 		final AnsibleInventory inventory = new AnsibleInventory();
-		// "all" is the default group which is always present and contains all hosts,
-		// cf. https://docs.ansible.com/ansible/latest/user_guide/intro_inventory.html#default-groups
-		private final AnsibleGroup all = new AnsibleGroup("all");
-
-		final Map<String, List<String>> groupBlocks = new HashMap<>();
-		final Map<String, List<String>> varBlocks = new HashMap<>();
-		final Map<String, List<String>> childrenBlocks = new HashMap<>();
-		List<String> currentLines = new ArrayList<>();
+		final AnsibleStringPool strings;
+		private final AnsibleInventoryParser parser;
+		private final long bytesSavedBefore;
+
+		// ":children" sections may refer to groups defined further down in the file, so only their (usually few)
+		// entries are kept until finish() resolves them; hosts and variables are applied immediately.
+		final Map<AnsibleGroup, List<String>> childrenBlocks = new LinkedHashMap<>();
 		// Unless a first group is explicitely created in the hosts file use the UNGROUPED group
-		String currentName = UNGROUPED;
-		boolean isGroupBlock = true;
-		boolean isVarsBlock = false;
-		boolean isChildrenBlock = false;
+		AnsibleGroup currentGroup;
+		AnsibleHost currentHost = null;
+		List<String> currentChildren = null;
 
         protected AnsibleInventoryFactory() {
-            inventory.addGroup(all);
-            // "ungrouped" is the default group which is always present and contains hosts which do not belong to any
-            // other group, cf. https://docs.ansible.com/ansible/latest/user_guide/intro_inventory.html#default-groups
-            inventory.addGroup(new AnsibleGroup(UNGROUPED));
+            this(new AnsibleStringPool());
+        }
+
+        protected AnsibleInventoryFactory(final AnsibleStringPool strings) {
+            this.strings = strings;
+            this.parser = new AnsibleInventoryParser(this, strings);
+            this.bytesSavedBefore = strings.getBytesSaved();
+            // "all" and "ungrouped" are the default groups which are always present, cf.
+            // https://docs.ansible.com/ansible/latest/user_guide/intro_inventory.html#default-groups
+            // Both are computed from the hosts of the inventory, so hosts are not added to them explicitly
+            inventory.getAllGroup();
+            currentGroup = inventory.getUngroupedGroup();
         }
 
         private static AnsibleGroup getOrAddGroup(final AnsibleInventory inventory, final String groupName) {
@@ -261,124 +501,78 @@ public class AnsibleInventoryReader {
             return group;
         }
 
-        private void finishCurrentLines(final String line) {
-            if (isVarsBlock) {
-                varBlocks.put(currentName, currentLines);
-            } else if (isChildrenBlock) {
-                childrenBlocks.put(currentName, currentLines);
-            } else if (isGroupBlock) {
-                groupBlocks.put(currentName, currentLines);
-            } else {
-                throw new IllegalStateException("Unclear State: this should never happen!");
+        @Override
+        public void section(final LineType type, final String groupName) {
+            currentGroup = getOrAddGroup(inventory, groupName);
+            if (type == LineType.GROUP_CHILDREN) {
+                currentChildren = childrenBlocks.computeIfAbsent(currentGroup, g -> new ArrayList<>());
             }
-            currentName = line;
-            currentLines = new LinkedList<>();
-            isVarsBlock = false;
-            isChildrenBlock = false;
-            isGroupBlock = false;
-        }
-
-        private void startNewGroupVars(final String line) {
-            finishCurrentLines(line);
-            isVarsBlock = true;
         }
 
-        private void startNewGroupChildren(final String line) {
-            finishCurrentLines(line);
-            isChildrenBlock = true;
+        @Override
+        public void host(final String hostName) {
+            currentHost = getOrAddHost(inventory, hostName);
+            currentGroup.addHost(currentHost);
         }
 
-        private void startNewGroup(final String line) {
-            int closingParenPos = line.indexOf(']');
-            String groupName = line.substring(1, closingParenPos);
-            finishCurrentLines(groupName);
-            isGroupBlock = true;
+        @Override
+        public void hostVariable(final AnsibleVariable variable) {
+            currentHost.addVariable(variable);
         }
 
-        protected AnsibleInventory of(final List<String> lines) {
-            lines.forEach(line -> {
-                String normalizedLine = getNormalizedText(line);
-                if (isGroupVarsStartToken(normalizedLine)) {
-                    startNewGroupVars(normalizedLine);
-                } else if (isGroupChildrenStartToken(normalizedLine)) {
-                    startNewGroupChildren(normalizedLine);
-                } else if (isGroupStartToken(normalizedLine)) {
-                    startNewGroup(normalizedLine);
-                } else if (!isCommentToken(normalizedLine) && !normalizedLine.isEmpty()) {
-                    currentLines.add(normalizedLine);
-                }
-            });
-            finishCurrentLines(null);
-
-            groupBlocks.forEach((name, listOfHostnamesWithVars) -> {
-                AnsibleGroup currentGroup = getOrAddGroup(inventory, name);
-                listOfHostnamesWithVars.forEach(line -> {
-                    final String[] hostNameAndVars = line.split("[ \t]", 2);
-                    AnsibleHost currentHost = getOrAddHost(inventory, hostNameAndVars[0]);
-                    currentGroup.addHost(currentHost);
-                    if (hostNameAndVars.length > 1) {
-                        addVariables(currentHost, hostNameAndVars[1]);
-                    }
-                });
-            });
-
-            childrenBlocks.forEach((name, listOfChildrenNames) -> {
-                AnsibleGroup currentGroup = getGroup(name);
-                listOfChildrenNames.forEach(childGroupName -> {
-                    final AnsibleGroup childGroup = inventory.getGroup(childGroupName);
-                    if (null != childGroup) {
-                        currentGroup.addSubgroup(childGroup);
-                    }
-                });
-            });
-
-            varBlocks.forEach(this::mergeGroupVariables);
-
-            return inventory;
+        @Override
+        public void child(final String groupName) {
+            currentChildren.add(groupName);
         }
 
-        public void mergeGroupVariables(final String name, final List<String> listOfVariables) {
-            AnsibleGroup currentGroup = getGroup(name);
-            listOfVariables.forEach(line -> addVariable(line, null, currentGroup));
+        @Override
+        public void groupVariable(final AnsibleVariable variable) {
+            currentGroup.addVariable(variable);
         }
 
-        private AnsibleGroup getGroup(final String name) {
-            int colonPosition = name.indexOf(':');
-            String groupName = name.substring(1, colonPosition);
-            return getOrAddGroup(inventory, groupName);
+        /**
+         * Processes the next line of an inventory file.
+         *
+         * @param line the line without its line terminator
+         */
+        protected void accept(final CharSequence line) {
+            parser.accept(line);
         }
 
-        private void addVariables(final AnsibleHost host, final String vars) {
-            List<String> variables = splitVariables(vars, isVarsBlock);
-
-            variables.forEach(token -> addVariable(token, host, null));
+        /**
+         * Processes all lines of a text.
+         *
+         * @param text the inventory text
+         */
+        protected void acceptAll(final CharSequence text) {
+            parser.accept(text, 0, text.length());
         }
 
-        protected List<String> splitVariables(final String vars, final boolean isVarsBlock) {
-            return new AnsibleVariableSplitter().split(vars, isVarsBlock);
-        }
-
-        private String getNormalizedText(final String text) {
-            // Convert "foo = bar" to "foo=bar" (as Ansible allows to use that format but it would cause problems here)
-            Pattern p = Pattern.compile("^(\\S*)\\s*=\\s*(.*)$", Pattern.MULTILINE);
-            Matcher m = p.matcher(text);
-            return m.replaceAll("$1=$2");
-        }
-
-        private boolean isCommentToken(final String token) {
-            return token.startsWith(";") || token.startsWith("#");
-        }
-
-        private boolean isGroupStartToken(final String token) {
-            return token.startsWith("[");
-        }
+        /**
+         * Resolves the collected ":children" sections once all lines have been processed.
+         *
+         * @return the completed inventory
+         */
+        protected AnsibleInventory finish() {
+            childrenBlocks.forEach((currentGroup, listOfChildrenNames) ->
+                    listOfChildrenNames.forEach(childGroupName -> {
+                        final AnsibleGroup childGroup = inventory.getGroup(childGroupName);
+                        if (null != childGroup) {
+                            currentGroup.addSubgroup(childGroup);
+                        }
+                    }));
 
-        private boolean isGroupVarsStartToken(final String token) {
-            return token.matches("^\\[\\w+:vars]$");
+            for (List<String> cycle : inventory.findGroupCycles()) {
+                LOGGER.warn("The groups {} are children of each other", cycle);
+            }
+            LOGGER.debug("Deduplicating names and values saved about {} bytes",
+                    strings.getBytesSaved() - bytesSavedBefore);
+            return inventory;
         }
 
-        private boolean isGroupChildrenStartToken(final String token) {
-            return token.matches("^\\[\\w+:children]$");
+        protected AnsibleInventory of(final List<String> lines) {
+            lines.forEach(this::accept);
+            return finish();
         }
 
         private AnsibleHost getOrAddHost(final AnsibleInventory inventory, final String hostName) {
@@ -386,35 +580,8 @@ public class AnsibleInventoryReader {
             if (currentHost == null) {
                 currentHost = new AnsibleHost(hostName);
                 inventory.addHost(currentHost);
-                all.addHost(currentHost);
             }
             return currentHost;
         }
-
-        private void addVariable(final String token, final AnsibleHost host, final AnsibleGroup group) {
-            final String[] v = token.split("=", 2);
-            // Replace YAML backslashes escapes
-            final AnsibleVariable variable = new AnsibleVariable(v[0], v[1].replace("\\\\", "\\"));
-
-            if (host != null) {
-                host.addVariable(variable);
-            }
-
-            if (group != null) {
-                group.addVariable(variable);
-                for (AnsibleGroup s : group.getSubgroups()) {
-                    for (AnsibleHost h : s.getHosts()) {
-                        h.addVariable(variable);
-                    }
-
-                    if (s.getVariable(variable.getName()) == null) {
-                        s.addVariable(variable);
-                    }
-                }
-                for (AnsibleHost h : group.getHosts()) {
-                    h.addVariable(variable);
-                }
-            }
-        }
     }
 }
@@ -0,0 +1,67 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.util;
+
+/**
+ * An inventory text which can be parsed in parts, e.g. by the {@link AnsibleInventoryParallelParser}.
+ */
+interface AnsibleInventorySource {
+
+    /**
+     * @return the length of the text, in the unit of the positions used by this source
+     */
+    int length();
+
+    /**
+     * @param position a position within the text
+     * @return whether a section header (a line starting with <code>[</code>) starts at <code>position</code>
+     */
+    boolean isSectionStart(int position);
+
+    /**
+     * Passes the lines between <code>start</code> and <code>end</code> to <code>parser</code>.
+     *
+     * @param start the start of the first line (inclusive)
+     * @param end the end of the last line (exclusive)
+     * @param parser the parser for the lines
+     */
+    void parse(int start, int end, AnsibleInventoryParser parser);
+
+    static AnsibleInventorySource of(final CharSequence text) {
+        return new AnsibleInventorySource() {
+            @Override
+            public int length() {
+                return text.length();
+            }
+
+            @Override
+            public boolean isSectionStart(final int position) {
+                if (position <= 0 || text.charAt(position) != '[') {
+                    return false;
+                }
+                final char previous = text.charAt(position - 1);
+                return previous == '\n' || previous == '\r';
+            }
+
+            @Override
+            public void parse(final int start, final int end, final AnsibleInventoryParser parser) {
+                parser.accept(text, start, end);
+            }
+        };
+    }
+}
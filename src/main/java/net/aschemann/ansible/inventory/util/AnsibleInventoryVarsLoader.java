@@ -0,0 +1,173 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Predicate;
+
+/**
+ * Loads the YAML files of the <code>group_vars/</code> and <code>host_vars/</code> directories of an inventory.
+ * <p>
+ * Each directory is listed once instead of probing a file per group or host. The files are parsed in parallel on a
+ * bounded number of threads (virtual threads if the runtime supports them), each of which reuses a single
+ * {@link Yaml} instance.
+ */
+final class AnsibleInventoryVarsLoader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AnsibleInventoryVarsLoader.class);
+
+    /** Fewer files than this are parsed by the calling thread */
+    private static final int MIN_FILES_PER_TASK = 16;
+
+    static final ThreadFactory THREAD_FACTORY = createThreadFactory();
+
+    private AnsibleInventoryVarsLoader() {
+    }
+
+    private static ThreadFactory createThreadFactory() {
+        try {
+            // Thread.ofVirtual().factory(), only available on Java 21 and later (or earlier with preview features)
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.debug("Virtual threads are not available, using platform threads to load vars files");
+            final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+            return runnable -> {
+                final Thread thread = defaultFactory.newThread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    /**
+     * Lists the regular files of a directory.
+     *
+     * @param directory the directory to list, which need not exist
+     * @param isWanted selects the file names to return
+     * @return the selected files by name, sorted by name
+     * @throws IOException if the directory cannot be listed
+     */
+    static SortedMap<String, Path> list(final Path directory, final Predicate<String> isWanted) throws IOException {
+        final SortedMap<String, Path> result = new TreeMap<>();
+        if (!Files.isDirectory(directory)) {
+            return result;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                final String name = file.getFileName().toString();
+                if (isWanted.test(name)
+                        && Files.readAttributes(file, BasicFileAttributes.class).isRegularFile()) {
+                    result.put(name, file);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parses YAML files which contain a map at the top level.
+     *
+     * @param files the files to parse
+     * @return the contents of the files in the same order, <code>null</code> for files which are empty or cannot
+     * be read
+     * @throws IOException if parsing is interrupted
+     */
+    static List<Map<String, Object>> load(final List<Path> files) throws IOException {
+        final int tasks = Math.min(Runtime.getRuntime().availableProcessors(), files.size() / MIN_FILES_PER_TASK);
+        // Each task sets its own elements, the futures make them visible to the calling thread
+        final List<Map<String, Object>> result = new ArrayList<>(Collections.nCopies(files.size(), null));
+        if (tasks <= 1) {
+            load(files, result, 0, 1);
+            return result;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(tasks, THREAD_FACTORY);
+        try {
+            final List<Future<?>> futures = new ArrayList<>(tasks);
+            for (int task = 0; task < tasks; task++) {
+                final int first = task;
+                futures.add(executor.submit(() -> load(files, result, first, tasks)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading vars files", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Cannot load vars files", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    /**
+     * Parses every <code>step</code>-th file starting at <code>first</code>, with a single {@link Yaml} instance
+     * (which is not thread safe).
+     */
+    private static void load(final List<Path> files, final List<Map<String, Object>> result, final int first,
+                             final int step) {
+        final Yaml yaml = new Yaml();
+        for (int i = first; i < result.size(); i += step) {
+            result.set(i, load(yaml, files.get(i)));
+        }
+    }
+
+    private static Map<String, Object> load(final Yaml yaml, final Path file) {
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            final Object content = yaml.load(inputStream);
+            if (content == null) {
+                return null;
+            }
+            if (!(content instanceof Map)) {
+                LOGGER.warn("Ignoring vars file '{}' as it does not contain a map", file.toAbsolutePath());
+                return null;
+            }
+            @SuppressWarnings("unchecked") final Map<String, Object> variables = (Map<String, Object>) content;
+            return variables;
+        } catch (IOException e) {
+            LOGGER.error("For some reason the vars file '{}' cannot be read", file.toAbsolutePath(), e);
+            return null;
+        }
+    }
+}
@@ -17,6 +17,7 @@
  */
 package net.aschemann.ansible.inventory.util;
 
+import net.aschemann.ansible.inventory.type.AnsibleConstants;
 import net.aschemann.ansible.inventory.type.AnsibleGroup;
 import net.aschemann.ansible.inventory.type.AnsibleHost;
 import net.aschemann.ansible.inventory.type.AnsibleInventory;
@@ -24,9 +25,19 @@ import net.aschemann.ansible.inventory.type.AnsibleVariable;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /**
+ * Writes inventories in the INI format. All variants render the same text through a single {@link Appendable} path;
+ * streams receive it encoded as UTF-8. The <code>writeYaml</code> methods write the YAML format instead.
+ *
  * @author Andrea Scarpino
  */
 public class AnsibleInventoryWriter {
@@ -34,159 +45,228 @@ public class AnsibleInventoryWriter {
 	private AnsibleInventoryWriter() {
 	}
 
-	private static String groupHeader(String group) {
-		return "[" + group + "]\n";
+	private static void groupHeader(Appendable out, String group, String suffix) throws IOException {
+		out.append('[').append(group).append(suffix).append("]\n");
 	}
 
-	private static String variableBlock(AnsibleVariable variable) {
+	private static void variableBlock(Appendable out, AnsibleVariable variable) throws IOException {
 		final String val = variable.getValue().toString();
 
+		out.append(variable.getName()).append('=');
 		// Escape backslashes for YAML
-		return variable.getName() + "=" + val.replace("\\", "\\\\");
-	}
-
-	private static String groupVarsHeader(String group) {
-		return "[" + group + ":vars]\n";
-	}
-
-	private static String groupOfGroupHeader(String group) {
-		return "[" + group + ":children]\n";
-	}
-
-	private static String printHost(AnsibleHost host) {
-		final StringBuilder builder = new StringBuilder();
-		builder.append(host.getName());
-
-		for (AnsibleVariable variable : host.getVariables()) {
-			builder.append(" ").append(variableBlock(variable));
+		int start = 0;
+		for (int i = 0; i < val.length(); i++) {
+			if (val.charAt(i) == '\\') {
+				out.append(val, start, i + 1).append('\\');
+				start = i + 1;
+			}
 		}
-
-		builder.append("\n");
-
-		return builder.toString();
+		out.append(val, start, val.length());
 	}
 
-	private static void printHost(AnsibleHost host, OutputStream stream) throws IOException {
-		stream.write(host.getName().getBytes());
+	private static void printHost(Appendable out, AnsibleHost host, boolean variables) throws IOException {
+		out.append(host.getName());
 
-		for (AnsibleVariable variable : host.getVariables()) {
-			stream.write((" " + variableBlock(variable)).getBytes());
+		if (variables) {
+			for (AnsibleVariable variable : host.getVariables()) {
+				out.append(' ');
+				variableBlock(out, variable);
+			}
 		}
 
-		stream.write("\n".getBytes());
+		out.append('\n');
 	}
 
 	public static String write(AnsibleInventory inventory) {
 		final StringBuilder builder = new StringBuilder();
-
-		appendHosts(builder, inventory.getHosts());
-
-		appendGroups(builder, inventory);
-
+		try {
+			append(inventory, builder);
+		} catch (IOException e) {
+			// A StringBuilder does not throw
+			throw new UncheckedIOException(e);
+		}
 		return builder.toString();
 	}
 
-	private static void appendGroups(StringBuilder builder, final AnsibleInventory inventory) {
-		for (AnsibleGroup group : inventory.getGroups()) {
-			appendGroup(builder, group);
-
-			if (!group.getHosts().isEmpty()) {
-				builder.append(groupHeader(group.getName()));
-
-				appendHosts(builder, group.getHosts());
-			}
+	/**
+	 * Writes an inventory to a stream, encoded as UTF-8. The bytes are collected in a buffer and written in large
+	 * chunks, so the stream does not need to be buffered. The stream is flushed, but not closed.
+	 *
+	 * @param inventory the inventory
+	 * @param stream the stream
+	 * @throws IOException if writing to the stream fails
+	 */
+	public static void write(AnsibleInventory inventory, OutputStream stream) throws IOException {
+		final AnsibleUtf8Sink sink = new AnsibleUtf8Sink(stream);
+		append(inventory, sink);
+		sink.flush();
+	}
 
-			appendVariables(builder, group);
-		}
+	/**
+	 * Writes an inventory to a file, encoded as UTF-8. The file is replaced atomically, so concurrent readers never
+	 * see a partially written inventory.
+	 *
+	 * @param inventory the inventory
+	 * @param file the file
+	 * @param options whether to force the file to the storage device and whether to skip unchanged files
+	 * @return <code>false</code> if the file was left untouched because its content did not change
+	 * @throws IOException if the file can not be written
+	 */
+	public static boolean write(AnsibleInventory inventory, Path file, AnsibleWriteOptions options)
+			throws IOException {
+		return AnsibleAtomicFile.write(file, out -> append(inventory, out), options);
 	}
 
-	private static void appendVariables(StringBuilder builder, final AnsibleGroup group) {
-		if (!group.getVariables().isEmpty()) {
-			builder.append(groupVarsHeader(group.getName()));
+	/**
+	 * Appends an inventory to an {@link Appendable}, e.g. a {@link java.io.Writer} or a {@link StringBuilder}. Unlike
+	 * {@link #write(AnsibleInventory, OutputStream)}, nothing is buffered.
+	 *
+	 * @param inventory the inventory
+	 * @param out where to append the text
+	 * @throws IOException if appending fails
+	 */
+	public static void append(AnsibleInventory inventory, Appendable out) throws IOException {
+		write(inventory, out, true);
+	}
 
-			if (!group.getVariables().isEmpty()) {
-				for (AnsibleVariable variable : group.getVariables()) {
-					builder.append(variableBlock(variable)).append("\n");
-				}
-			} else {
-				builder.append("\n");
-			}
-		}
+	/**
+	 * Writes an inventory to a file in a compact binary format, which {@link AnsibleInventoryReader#readBinary(Path)}
+	 * loads much faster than any of the text formats. The file is replaced atomically like in
+	 * {@link #write(AnsibleInventory, Path, AnsibleWriteOptions)}.
+	 *
+	 * @param inventory the inventory
+	 * @param file the file
+	 * @param options whether to force the file to the storage device and whether to skip unchanged files
+	 * @return <code>false</code> if the file was left untouched because its content did not change
+	 * @throws IOException if the file can not be written
+	 */
+	public static boolean writeBinary(AnsibleInventory inventory, Path file, AnsibleWriteOptions options)
+			throws IOException {
+		return AnsibleInventoryBinaryFormat.write(inventory, null, file, options);
 	}
 
-	private static void appendGroup(StringBuilder builder, final AnsibleGroup group) {
-		if (!group.getSubgroups().isEmpty()) {
-			builder.append(groupOfGroupHeader(group.getName()));
+	/**
+	 * Writes an inventory in the YAML format, encoded as UTF-8. The stream is flushed, but not closed.
+	 *
+	 * @param inventory the inventory
+	 * @param stream the stream
+	 * @throws IOException if writing to the stream fails
+	 * @see #writeYaml(AnsibleInventory, Writer)
+	 */
+	public static void writeYaml(AnsibleInventory inventory, OutputStream stream) throws IOException {
+		final Writer writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+		writeYaml(inventory, writer);
+		writer.flush();
+	}
 
-			if (!group.getSubgroups().isEmpty()) {
-				for (AnsibleGroup g : group.getSubgroups()) {
-					builder.append(g.getName()).append("\n");
-				}
-			} else {
-				builder.append("\n");
-			}
-		}
+	/**
+	 * Writes an inventory in the YAML format which {@link AnsibleInventoryReader#readYaml(java.io.Reader)} and Ansible
+	 * understand. The events are passed straight from the model to the YAML emitter, without building a document
+	 * tree first. Groups are nested under their parents; a group or the variables of a host which occur more than
+	 * once are only written at the first occurrence. The writer is flushed, but not closed.
+	 *
+	 * @param inventory the inventory
+	 * @param writer the writer
+	 * @throws IOException if writing fails
+	 */
+	public static void writeYaml(AnsibleInventory inventory, Writer writer) throws IOException {
+		new AnsibleInventoryYamlEmitter(writer).emit(inventory);
+		writer.flush();
 	}
 
-	private static void appendHosts(StringBuilder builder, final Collection<AnsibleHost> hosts) {
-		for (AnsibleHost host : hosts) {
-			builder.append(printHost(host));
-		}
+	/**
+	 * Writes an inventory to a directory in the layout {@link AnsibleInventoryReader#read(Path)} understands: the
+	 * hosts and groups go to <code>hosts</code>, the variables of every host and group which has any to a YAML file
+	 * in <code>host_vars/</code> respectively <code>group_vars/</code>. The files are written in parallel on a
+	 * bounded number of threads, each of them atomically as described for
+	 * {@link #write(AnsibleInventory, Path, AnsibleWriteOptions)}. Vars files written by an earlier call for hosts
+	 * and groups which no longer have variables or are no longer part of the inventory are deleted; other files in
+	 * the vars directories, like <code>group_vars/web.yml</code> or a README, are kept.
+	 *
+	 * @param inventory the inventory
+	 * @param directory the directory, which is created if necessary
+	 * @param options whether to force the files to the storage device and whether to skip unchanged files
+	 * @return the number of files which were written or deleted
+	 * @throws IOException if a file can not be written or deleted
+	 */
+	public static int writeDirectory(AnsibleInventory inventory, Path directory, AnsibleWriteOptions options)
+			throws IOException {
+		return AnsibleInventoryDirectoryWriter.write(inventory, directory, options);
 	}
 
-	public static void write(AnsibleInventory inventory, OutputStream stream) throws IOException {
-		appendHosts(stream, inventory.getHosts());
+	/**
+	 * @param variables whether to include the variables of hosts and groups
+	 */
+	static void write(AnsibleInventory inventory, Appendable out, boolean variables) throws IOException {
+		appendHosts(out, inventory.getHosts(), variables);
 
-		appendGroups(stream, inventory);
+		appendGroups(out, inventory, variables);
 	}
 
-	private static void appendGroups(OutputStream stream, final AnsibleInventory inventory) throws IOException {
+	private static void appendGroups(Appendable out, final AnsibleInventory inventory, boolean variables)
+			throws IOException {
 		for (AnsibleGroup group : inventory.getGroups()) {
-			appendSubgroups(stream, group);
+			appendSubgroups(out, group);
 
 			if (!group.getHosts().isEmpty()) {
-				stream.write(groupHeader(group.getName()).getBytes());
+				groupHeader(out, group.getName(), "");
 
-				appendHosts(stream, group.getHosts());
+				appendHosts(out, group.getHosts(), variables);
 			}
 
-			appendVariables(stream, group);
+			if (variables) {
+				appendVariables(out, group);
+			}
 		}
 	}
 
-	private static void appendVariables(OutputStream stream, final AnsibleGroup group) throws IOException {
+	private static void appendVariables(Appendable out, final AnsibleGroup group) throws IOException {
 		if (!group.getVariables().isEmpty()) {
-			stream.write("\n".getBytes());
-			stream.write(groupVarsHeader(group.getName()).getBytes());
+			groupHeader(out, group.getName(), ":vars");
 
-			if (!group.getVariables().isEmpty()) {
-				for (AnsibleVariable variable : group.getVariables()) {
-					stream.write((variableBlock(variable) + "\n").getBytes());
-				}
-			} else {
-				stream.write("\n".getBytes());
+			for (AnsibleVariable variable : group.getVariables()) {
+				variableBlock(out, variable);
+				out.append('\n');
 			}
 		}
 	}
 
-	private static void appendSubgroups(OutputStream stream, final AnsibleGroup group) throws IOException {
+	private static void appendSubgroups(Appendable out, final AnsibleGroup group) throws IOException {
 		if (!group.getSubgroups().isEmpty()) {
-			stream.write(groupOfGroupHeader(group.getName()).getBytes());
+			groupHeader(out, group.getName(), ":children");
 
-			if (!group.getSubgroups().isEmpty()) {
-				for (AnsibleGroup g : group.getSubgroups()) {
-					stream.write((g.getName() + "\n").getBytes());
-				}
-			} else {
-				stream.write("\n".getBytes());
+			for (AnsibleGroup g : group.getSubgroups()) {
+				out.append(g.getName()).append('\n');
 			}
 		}
 	}
 
-	private static void appendHosts(OutputStream stream, Collection<AnsibleHost> hosts) throws IOException {
+	private static void appendHosts(Appendable out, final Collection<AnsibleHost> hosts, boolean variables)
+			throws IOException {
 		for (AnsibleHost host : hosts) {
-			printHost(host, stream);
+			printHost(out, host, variables);
+		}
+	}
+
+	/**
+	 * @return the hosts which are not a direct member of any group except for the implicit ones
+	 */
+	static List<AnsibleHost> getUngroupedHosts(AnsibleInventory inventory) {
+		final List<AnsibleHost> result = new ArrayList<>();
+		for (AnsibleHost host : inventory.getHosts()) {
+			boolean grouped = false;
+			for (AnsibleGroup group : inventory.getGroupsOf(host)) {
+				if (!AnsibleConstants.ALL_GROUP.equals(group.getName())
+						&& !AnsibleConstants.UNGROUPED_GROUP.equals(group.getName())) {
+					grouped = true;
+					break;
+				}
+			}
+			if (!grouped) {
+				result.add(host);
+			}
 		}
+		return result;
 	}
 
 }
@@ -0,0 +1,291 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.util;
+
+import net.aschemann.ansible.inventory.type.AnsibleConstants;
+import net.aschemann.ansible.inventory.type.AnsibleGroup;
+import net.aschemann.ansible.inventory.type.AnsibleHost;
+import net.aschemann.ansible.inventory.type.AnsibleInventory;
+import net.aschemann.ansible.inventory.type.AnsibleVariable;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.emitter.Emitter;
+import org.yaml.snakeyaml.events.DocumentEndEvent;
+import org.yaml.snakeyaml.events.DocumentStartEvent;
+import org.yaml.snakeyaml.events.ImplicitTuple;
+import org.yaml.snakeyaml.events.MappingEndEvent;
+import org.yaml.snakeyaml.events.MappingStartEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.events.SequenceEndEvent;
+import org.yaml.snakeyaml.events.SequenceStartEvent;
+import org.yaml.snakeyaml.events.StreamEndEvent;
+import org.yaml.snakeyaml.events.StreamStartEvent;
+import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.resolver.Resolver;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes inventories in the YAML format by passing events straight to the emitter of SnakeYAML, without building
+ * a node tree first.
+ * <p>
+ * Like in the output of <code>ansible-inventory --list --yaml</code>, all top-level groups are children of
+ * <code>all</code> and the hosts without any other group are the hosts of <code>ungrouped</code>. Every group is
+ * defined once, where it first appears; further occurrences are empty. Likewise, the variables of a host are only
+ * written where the host first appears. Strings which would be read as another type are quoted, numbers and
+ * booleans are written as such, maps as mappings and collections and arrays as sequences.
+ */
+final class AnsibleInventoryYamlEmitter {
+
+    private static final ImplicitTuple PLAIN = new ImplicitTuple(true, false);
+
+    private static final ImplicitTuple STRING = new ImplicitTuple(true, true);
+
+    private static final ImplicitTuple QUOTED_STRING = new ImplicitTuple(false, true);
+
+    private final Emitter emitter;
+
+    private final Resolver resolver = new Resolver();
+
+    private final Set<String> definedGroups = new HashSet<>();
+
+    private final Set<String> writtenHosts = new HashSet<>();
+
+    AnsibleInventoryYamlEmitter(final Writer writer) {
+        final DumperOptions options = new DumperOptions();
+        options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+        this.emitter = new Emitter(writer, options);
+    }
+
+    /**
+     * Emits a whole inventory as a single document.
+     *
+     * @param inventory the inventory
+     * @throws IOException if writing fails
+     */
+    void emit(final AnsibleInventory inventory) throws IOException {
+        this.emitter.emit(new StreamStartEvent(null, null));
+        this.emitter.emit(new DocumentStartEvent(null, null, false, null, null));
+        startMapping();
+        scalar(AnsibleConstants.ALL_GROUP);
+
+        final Set<String> subgroups = new HashSet<>();
+        AnsibleGroup all = null;
+        AnsibleGroup ungrouped = null;
+        for (AnsibleGroup group : inventory.getGroups()) {
+            if (AnsibleConstants.ALL_GROUP.equals(group.getName())) {
+                all = group;
+            } else if (AnsibleConstants.UNGROUPED_GROUP.equals(group.getName())) {
+                ungrouped = group;
+            } else {
+                for (AnsibleGroup subgroup : group.getSubgroups()) {
+                    subgroups.add(subgroup.getName());
+                }
+            }
+        }
+        this.definedGroups.add(AnsibleConstants.ALL_GROUP);
+
+        startMapping();
+        if (all != null && !all.getVariables().isEmpty()) {
+            scalar("vars");
+            variables(all.getVariables());
+        }
+        final List<AnsibleHost> ungroupedHosts = AnsibleInventoryWriter.getUngroupedHosts(inventory);
+        final boolean hasUngrouped = !ungroupedHosts.isEmpty()
+                || ungrouped != null && !(ungrouped.getVariables().isEmpty() && ungrouped.getSubgroups().isEmpty());
+        final List<AnsibleGroup> others = new ArrayList<>();
+        boolean hasChildren = hasUngrouped;
+        for (AnsibleGroup group : inventory.getGroups()) {
+            if (group != all && group != ungrouped) {
+                others.add(group);
+                hasChildren = true;
+            }
+        }
+        if (hasChildren) {
+            scalar("children");
+            startMapping();
+            if (hasUngrouped) {
+                scalar(AnsibleConstants.UNGROUPED_GROUP);
+                group(AnsibleConstants.UNGROUPED_GROUP, ungroupedHosts,
+                        ungrouped == null ? null : ungrouped.getSubgroups(),
+                        ungrouped == null ? null : ungrouped.getVariables());
+            }
+            for (AnsibleGroup group : others) {
+                if (!subgroups.contains(group.getName())) {
+                    scalar(group.getName());
+                    group(group);
+                }
+            }
+            // Groups which are only children of each other
+            for (AnsibleGroup group : others) {
+                if (!this.definedGroups.contains(group.getName())) {
+                    scalar(group.getName());
+                    group(group);
+                }
+            }
+            endMapping();
+        }
+        endMapping();
+
+        endMapping();
+        this.emitter.emit(new DocumentEndEvent(null, null, false));
+        this.emitter.emit(new StreamEndEvent(null, null));
+    }
+
+    private void group(final AnsibleGroup group) throws IOException {
+        group(group.getName(), group.getHosts(), group.getSubgroups(), group.getVariables());
+    }
+
+    private void group(final String name, final Collection<AnsibleHost> hosts,
+                       final Collection<AnsibleGroup> subgroups, final Collection<AnsibleVariable> variables)
+            throws IOException {
+        final boolean noSubgroups = subgroups == null || subgroups.isEmpty();
+        final boolean noVariables = variables == null || variables.isEmpty();
+        if (!this.definedGroups.add(name) || hosts.isEmpty() && noSubgroups && noVariables) {
+            empty();
+            return;
+        }
+        startMapping();
+        if (!hosts.isEmpty()) {
+            scalar("hosts");
+            startMapping();
+            for (AnsibleHost host : hosts) {
+                scalar(host.getName());
+                if (this.writtenHosts.add(host.getName()) && !host.getVariables().isEmpty()) {
+                    variables(host.getVariables());
+                } else {
+                    empty();
+                }
+            }
+            endMapping();
+        }
+        if (!noVariables) {
+            scalar("vars");
+            variables(variables);
+        }
+        if (!noSubgroups) {
+            scalar("children");
+            startMapping();
+            for (AnsibleGroup subgroup : subgroups) {
+                scalar(subgroup.getName());
+                group(subgroup);
+            }
+            endMapping();
+        }
+        endMapping();
+    }
+
+    private void variables(final Collection<AnsibleVariable> variables) throws IOException {
+        startMapping();
+        for (AnsibleVariable variable : variables) {
+            scalar(variable.getName());
+            value(variable.getValue());
+        }
+        endMapping();
+    }
+
+    private void value(final Object value) throws IOException {
+        if (value == null) {
+            empty();
+        } else if (value instanceof String) {
+            scalar((String) value);
+        } else if (value instanceof Boolean) {
+            typed(value.toString(), Tag.BOOL);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte || value instanceof BigInteger) {
+            typed(value.toString(), Tag.INT);
+        } else if (value instanceof Double || value instanceof Float || value instanceof BigDecimal) {
+            typed(value.toString(), Tag.FLOAT);
+        } else if (value instanceof Map) {
+            startMapping();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                value(entry.getKey());
+                value(entry.getValue());
+            }
+            endMapping();
+        } else if (value instanceof Collection) {
+            startSequence();
+            for (Object element : (Collection<?>) value) {
+                value(element);
+            }
+            endSequence();
+        } else if (value.getClass().isArray()) {
+            startSequence();
+            final int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                value(Array.get(value, i));
+            }
+            endSequence();
+        } else {
+            scalar(value.toString());
+        }
+    }
+
+    /**
+     * Emits a number or boolean as a plain scalar if it is read back as the same type, as a string otherwise.
+     */
+    private void typed(final String value, final Tag tag) throws IOException {
+        if (tag.equals(this.resolver.resolve(NodeId.scalar, value, true))) {
+            this.emitter.emit(new ScalarEvent(null, null, PLAIN, value, null, null, DumperOptions.ScalarStyle.PLAIN));
+        } else {
+            scalar(value);
+        }
+    }
+
+    /**
+     * Emits a string. The emitter quotes it if it would be read as another type as a plain scalar.
+     */
+    private void scalar(final String value) throws IOException {
+        final boolean plain = Tag.STR.equals(this.resolver.resolve(NodeId.scalar, value, true));
+        this.emitter.emit(new ScalarEvent(null, null, plain ? STRING : QUOTED_STRING, value, null, null,
+                DumperOptions.ScalarStyle.PLAIN));
+    }
+
+    /**
+     * Emits an empty plain scalar, which is read as <code>null</code>.
+     */
+    private void empty() throws IOException {
+        this.emitter.emit(new ScalarEvent(null, null, PLAIN, "", null, null, DumperOptions.ScalarStyle.PLAIN));
+    }
+
+    private void startMapping() throws IOException {
+        this.emitter.emit(new MappingStartEvent(null, null, true, null, null, DumperOptions.FlowStyle.BLOCK));
+    }
+
+    private void endMapping() throws IOException {
+        this.emitter.emit(new MappingEndEvent(null, null));
+    }
+
+    private void startSequence() throws IOException {
+        this.emitter.emit(new SequenceStartEvent(null, null, true, null, null, DumperOptions.FlowStyle.BLOCK));
+    }
+
+    private void endSequence() throws IOException {
+        this.emitter.emit(new SequenceEndEvent(null, null));
+    }
+}
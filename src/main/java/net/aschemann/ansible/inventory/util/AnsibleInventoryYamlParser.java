@@ -0,0 +1,355 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.util;
+
+import net.aschemann.ansible.inventory.type.AnsibleConstants;
+import net.aschemann.ansible.inventory.type.AnsibleVariable;
+import net.aschemann.ansible.inventory.util.AnsibleInventoryLexer.LineType;
+import org.yaml.snakeyaml.constructor.Construct;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.error.Mark;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.AliasEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.NodeEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.ScalarNode;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.parser.Parser;
+import org.yaml.snakeyaml.parser.ParserImpl;
+import org.yaml.snakeyaml.reader.StreamReader;
+import org.yaml.snakeyaml.resolver.Resolver;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming parser for YAML inventories:
+ * <pre>
+ * all:
+ *   hosts:
+ *     host:
+ *       var: value
+ *   vars:
+ *     var: value
+ *   children:
+ *     group:
+ *       hosts:
+ *         other:
+ * </pre>
+ * The low level event stream of SnakeYAML is passed to an {@link AnsibleInventoryHandler} as it is read, like an
+ * INI inventory, so no document tree is built. Only the values of variables are turned into objects, i.e.
+ * strings, integers, floats, booleans, <code>null</code>, maps and lists. Plain scalars are typed like
+ * <code>yaml.load</code> does, except for timestamps, which are kept as strings; quoted scalars and scalars with
+ * unknown tags like <code>!vault</code> are strings. Anchors, aliases and merge keys (<code>&lt;&lt;</code>) are
+ * supported for values. The children of <code>all</code> are ignored, as <code>all</code> contains every group
+ * anyway.
+ */
+final class AnsibleInventoryYamlParser {
+
+    private static final String HOSTS = "hosts";
+
+    private static final String VARS = "vars";
+
+    private static final String CHILDREN = "children";
+
+    private static final String MERGE_KEY = "<<";
+
+    private final Parser events;
+
+    private final AnsibleInventoryHandler handler;
+
+    private final AnsibleStringPool strings;
+
+    private final Resolver resolver = new Resolver();
+
+    private final ScalarConstructor constructor = new ScalarConstructor();
+
+    /** The values of the anchors of the current document */
+    private final Map<String, Object> anchors = new HashMap<>();
+
+    AnsibleInventoryYamlParser(final Reader reader, final AnsibleInventoryHandler handler,
+                               final AnsibleStringPool strings) {
+        this.events = new ParserImpl(new StreamReader(reader));
+        this.handler = handler;
+        this.strings = strings;
+    }
+
+    /**
+     * Parses all documents of the stream.
+     *
+     * @throws IOException if reading fails or the text is not a valid YAML inventory
+     */
+    void parse() throws IOException {
+        try {
+            expect(Event.ID.StreamStart);
+            while (!this.events.checkEvent(Event.ID.StreamEnd)) {
+                expect(Event.ID.DocumentStart);
+                if (this.events.checkEvent(Event.ID.MappingStart)) {
+                    this.events.getEvent();
+                    while (!this.events.checkEvent(Event.ID.MappingEnd)) {
+                        group(readName());
+                    }
+                    this.events.getEvent();
+                } else {
+                    // An empty document or anything else which does not define groups
+                    readValue();
+                }
+                expect(Event.ID.DocumentEnd);
+                this.anchors.clear();
+            }
+        } catch (YAMLException e) {
+            throw new IOException(e.getMessage() + " in the YAML inventory", e);
+        }
+    }
+
+    private void group(final String group) throws IOException {
+        this.handler.section(LineType.GROUP, group);
+        if (!this.events.checkEvent(Event.ID.MappingStart)) {
+            // "group:" without hosts, variables or children
+            readValue();
+            return;
+        }
+        this.events.getEvent();
+        while (!this.events.checkEvent(Event.ID.MappingEnd)) {
+            final String key = readName();
+            if (HOSTS.equals(key) && this.events.checkEvent(Event.ID.MappingStart)) {
+                hosts(group);
+            } else if (CHILDREN.equals(key) && this.events.checkEvent(Event.ID.MappingStart)) {
+                children(group);
+            } else if (VARS.equals(key)) {
+                this.handler.section(LineType.GROUP_VARS, group);
+                variables(false);
+            } else {
+                readValue();
+            }
+        }
+        this.events.getEvent();
+    }
+
+    private void hosts(final String group) throws IOException {
+        this.events.getEvent();
+        this.handler.section(LineType.GROUP, group);
+        while (!this.events.checkEvent(Event.ID.MappingEnd)) {
+            this.handler.host(readName());
+            variables(true);
+        }
+        this.events.getEvent();
+    }
+
+    private void children(final String group) throws IOException {
+        this.events.getEvent();
+        while (!this.events.checkEvent(Event.ID.MappingEnd)) {
+            final String child = readName();
+            if (!AnsibleConstants.ALL_GROUP.equals(group)) {
+                this.handler.section(LineType.GROUP_CHILDREN, group);
+                this.handler.child(child);
+            }
+            // The child is defined in place
+            group(child);
+        }
+        this.events.getEvent();
+    }
+
+    /**
+     * Reads a mapping of variables, which may also be an alias, and passes its entries to the handler.
+     *
+     * @param host whether the variables belong to the current host or to the current group
+     */
+    private void variables(final boolean host) throws IOException {
+        final Event start = this.events.peekEvent();
+        final Object value = readValue();
+        if (value == null) {
+            return;
+        }
+        if (!(value instanceof Map)) {
+            throw error(start, "Expected a mapping of variables");
+        }
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+            final AnsibleVariable variable =
+                    new AnsibleVariable(this.strings.intern(String.valueOf(entry.getKey())), entry.getValue());
+            if (host) {
+                this.handler.hostVariable(variable);
+            } else {
+                this.handler.groupVariable(variable);
+            }
+        }
+    }
+
+    /**
+     * Reads the name of a group or host, or a key of the inventory structure.
+     */
+    private String readName() throws IOException {
+        final Event event = this.events.getEvent();
+        if (!event.is(Event.ID.Scalar)) {
+            throw error(event, "Expected a name");
+        }
+        return this.strings.intern(((ScalarEvent) event).getValue());
+    }
+
+    /**
+     * Reads the value of a variable.
+     */
+    private Object readValue() throws IOException {
+        final Event event = this.events.getEvent();
+        final Object value;
+        switch (event.getEventId()) {
+            case Alias: {
+                final String anchor = ((AliasEvent) event).getAnchor();
+                if (!this.anchors.containsKey(anchor)) {
+                    throw error(event, "Unknown anchor " + anchor);
+                }
+                return this.anchors.get(anchor);
+            }
+            case Scalar:
+                value = scalar((ScalarEvent) event);
+                break;
+            case SequenceStart: {
+                final List<Object> list = new ArrayList<>();
+                while (!this.events.checkEvent(Event.ID.SequenceEnd)) {
+                    list.add(readValue());
+                }
+                this.events.getEvent();
+                value = list;
+                break;
+            }
+            case MappingStart:
+                value = readMapping();
+                break;
+            default:
+                throw error(event, "Unexpected " + event.getEventId());
+        }
+        final String anchor = ((NodeEvent) event).getAnchor();
+        if (anchor != null) {
+            this.anchors.put(anchor, value);
+        }
+        return value;
+    }
+
+    /**
+     * Reads the rest of a mapping. Keys from merge keys come first and are overridden by the explicit ones.
+     */
+    private Map<Object, Object> readMapping() throws IOException {
+        final Map<Object, Object> map = new LinkedHashMap<>();
+        Map<Object, Object> merged = null;
+        while (!this.events.checkEvent(Event.ID.MappingEnd)) {
+            final Event keyEvent = this.events.peekEvent();
+            final Object key = readValue();
+            if (!isMergeKey(keyEvent)) {
+                map.put(key, readValue());
+                continue;
+            }
+            if (merged == null) {
+                merged = new LinkedHashMap<>();
+            }
+            final Event valueEvent = this.events.peekEvent();
+            final Object value = readValue();
+            if (value instanceof Map) {
+                merge(merged, value, valueEvent);
+            } else if (value instanceof List) {
+                // Earlier mappings take precedence
+                for (Object element : (List<?>) value) {
+                    merge(merged, element, valueEvent);
+                }
+            } else {
+                throw error(valueEvent, "Expected a mapping or a list of mappings to merge");
+            }
+        }
+        this.events.getEvent();
+        if (merged == null) {
+            return map;
+        }
+        merged.putAll(map);
+        return merged;
+    }
+
+    private void merge(final Map<Object, Object> merged, final Object value, final Event event)
+            throws IOException {
+        if (!(value instanceof Map)) {
+            throw error(event, "Expected a mapping to merge");
+        }
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+            merged.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static boolean isMergeKey(final Event event) {
+        if (!event.is(Event.ID.Scalar)) {
+            return false;
+        }
+        final ScalarEvent scalar = (ScalarEvent) event;
+        return scalar.isPlain() && scalar.getTag() == null && MERGE_KEY.equals(scalar.getValue());
+    }
+
+    private Object scalar(final ScalarEvent event) throws IOException {
+        final String value = event.getValue();
+        final String tag = event.getTag();
+        final Tag resolved;
+        if (tag == null) {
+            resolved = event.isPlain() ? this.resolver.resolve(NodeId.scalar, value, true) : Tag.STR;
+        } else {
+            resolved = new Tag(tag);
+        }
+        final Construct construct = this.constructor.get(resolved);
+        if (construct == null) {
+            return this.strings.internValue(value);
+        }
+        try {
+            return construct.construct(new ScalarNode(resolved, value, event.getStartMark(), event.getEndMark(),
+                    event.getScalarStyle()));
+        } catch (RuntimeException e) {
+            // E.g. a NumberFormatException for "!!int abc"
+            final IOException error = error(event, "Invalid " + resolved + " value " + value);
+            error.initCause(e);
+            throw error;
+        }
+    }
+
+    private void expect(final Event.ID id) throws IOException {
+        final Event event = this.events.getEvent();
+        if (!event.is(id)) {
+            throw error(event, "Expected " + id + " instead of " + event.getEventId());
+        }
+    }
+
+    private static IOException error(final Event event, final String message) {
+        final Mark mark = event.getStartMark();
+        return new IOException(message + " at line " + (mark.getLine() + 1) + ", column " + (mark.getColumn() + 1)
+                + " of the YAML inventory");
+    }
+
+    /**
+     * Gives access to the constructors of SnakeYAML for the scalar types of YAML 1.1, so plain scalars are typed
+     * exactly like by <code>yaml.load</code>.
+     */
+    private static final class ScalarConstructor extends SafeConstructor {
+
+        Construct get(final Tag tag) {
+            if (Tag.INT.equals(tag) || Tag.FLOAT.equals(tag) || Tag.BOOL.equals(tag) || Tag.NULL.equals(tag)) {
+                return this.yamlConstructors.get(tag);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.util;
+
+import net.aschemann.ansible.inventory.type.AnsibleConstants;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Deduplicates the names and values which repeat across the hosts and groups of an inventory, like
+ * <code>ansible_user</code> or <code>/usr/bin/python3</code>.
+ * <p>
+ * Strings are looked up by their characters in the text being parsed, so repeated occurrences do not allocate
+ * anything. Names are always pooled; values only if they are at most {@link #MAX_VALUE_LENGTH} characters long, as
+ * long values are usually unique. The pool is seeded with the names of {@link AnsibleConstants}.
+ * <p>
+ * Every read creates its own pool unless one is passed to the reader. A pool may be shared between reads and
+ * threads, e.g. by a service which keeps many inventories; it then keeps all pooled strings reachable for as long
+ * as it is used.
+ */
+public final class AnsibleStringPool {
+
+    /** Longer values are not pooled */
+    public static final int MAX_VALUE_LENGTH = 64;
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final LongAdder bytesSaved = new LongAdder();
+
+    public AnsibleStringPool() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+        for (Field field : AnsibleConstants.class.getFields()) {
+            if (field.getType() == String.class && Modifier.isStatic(field.getModifiers())) {
+                try {
+                    intern((String) field.get(null));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        bytesSaved.reset();
+    }
+
+    /**
+     * @param text a name
+     * @return the pooled instance of <code>text</code>
+     */
+    public String intern(final String text) {
+        return intern(text, 0, text.length(), text);
+    }
+
+    /**
+     * @param text the text containing a name
+     * @param start the start of the name (inclusive)
+     * @param end the end of the name (exclusive)
+     * @return the pooled String with the characters of the name
+     */
+    public String intern(final CharSequence text, final int start, final int end) {
+        return intern(text, start, end, null);
+    }
+
+    /**
+     * Like {@link #intern(CharSequence, int, int)}, but only pools short values.
+     *
+     * @param text the text containing a value
+     * @param start the start of the value (inclusive)
+     * @param end the end of the value (exclusive)
+     * @return the pooled or a new String with the characters of the value
+     */
+    public String internValue(final CharSequence text, final int start, final int end) {
+        if (end - start > MAX_VALUE_LENGTH) {
+            return text.subSequence(start, end).toString();
+        }
+        return intern(text, start, end);
+    }
+
+    /**
+     * Like {@link #intern(String)}, but only pools short values.
+     *
+     * @param value a value
+     * @return the pooled instance of <code>value</code> or <code>value</code> itself
+     */
+    public String internValue(final String value) {
+        return value.length() > MAX_VALUE_LENGTH ? value : intern(value);
+    }
+
+    /**
+     * Returns the savings of all reads which used this pool so far. To measure a single read, pass a new pool to the
+     * reader or compare the values before and after the read.
+     *
+     * @return the estimated number of heap bytes which were not allocated or retained because an equal String was
+     * already pooled
+     */
+    public long getBytesSaved() {
+        return bytesSaved.sum();
+    }
+
+    /**
+     * @return the number of pooled Strings
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    private String intern(final CharSequence text, final int start, final int end, final String instance) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        final int spread = hash ^ (hash >>> 16);
+        final Segment segment = segments[spread & (SEGMENTS - 1)];
+        synchronized (segment) {
+            final String pooled = segment.find(text, start, end, spread);
+            if (pooled != null) {
+                bytesSaved.add(estimateSize(pooled));
+                return pooled;
+            }
+            final String added = instance != null ? instance : text.subSequence(start, end).toString();
+            segment.add(added, spread);
+            return added;
+        }
+    }
+
+    /**
+     * @return the size of a String with compact strings, i.e. the object plus its byte array, on a 64 bit JVM with
+     * compressed references
+     */
+    static long estimateSize(final String text) {
+        int bytesPerChar = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0xFF) {
+                bytesPerChar = 2;
+                break;
+            }
+        }
+        return 24 + align(16 + (long) text.length() * bytesPerChar);
+    }
+
+    private static long align(final long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * An open addressing table with linear probing, guarded by its own monitor.
+     */
+    private static final class Segment {
+        private String[] strings = new String[64];
+        private int[] hashes = new int[64];
+        private int size;
+
+        String find(final CharSequence text, final int start, final int end, final int hash) {
+            final int mask = strings.length - 1;
+            for (int slot = (hash >>> 4) & mask; strings[slot] != null; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && contentEquals(strings[slot], text, start, end)) {
+                    return strings[slot];
+                }
+            }
+            return null;
+        }
+
+        void add(final String text, final int hash) {
+            if (2 * (size + 1) > strings.length) {
+                final String[] oldStrings = strings;
+                final int[] oldHashes = hashes;
+                strings = new String[oldStrings.length * 2];
+                hashes = new int[oldStrings.length * 2];
+                for (int i = 0; i < oldStrings.length; i++) {
+                    if (oldStrings[i] != null) {
+                        insert(oldStrings[i], oldHashes[i]);
+                    }
+                }
+            }
+            insert(text, hash);
+            size++;
+        }
+
+        private void insert(final String text, final int hash) {
+            final int mask = strings.length - 1;
+            int slot = (hash >>> 4) & mask;
+            while (strings[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            strings[slot] = text;
+            hashes[slot] = hash;
+        }
+
+        private static boolean contentEquals(final String pooled, final CharSequence text, final int start,
+                                             final int end) {
+            if (pooled.length() != end - start) {
+                return false;
+            }
+            for (int i = 0; i < pooled.length(); i++) {
+                if (pooled.charAt(i) != text.charAt(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
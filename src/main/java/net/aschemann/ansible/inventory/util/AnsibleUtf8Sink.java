@@ -0,0 +1,121 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes characters as UTF-8 into a reusable buffer which is written to a stream in large chunks, so writing many
+ * small pieces of text neither allocates nor results in a system call per piece.
+ */
+final class AnsibleUtf8Sink implements Appendable {
+
+    static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final OutputStream stream;
+
+    private final byte[] buffer;
+
+    private int position;
+
+    /** A high surrogate whose low surrogate was not appended yet, or 0 */
+    private char highSurrogate;
+
+    AnsibleUtf8Sink(final OutputStream stream) {
+        this(stream, DEFAULT_BUFFER_SIZE);
+    }
+
+    AnsibleUtf8Sink(final OutputStream stream, final int bufferSize) {
+        this.stream = stream;
+        this.buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public AnsibleUtf8Sink append(final CharSequence text) throws IOException {
+        return append(text, 0, text.length());
+    }
+
+    @Override
+    public AnsibleUtf8Sink append(final CharSequence text, final int start, final int end) throws IOException {
+        for (int i = start; i < end; i++) {
+            append(text.charAt(i));
+        }
+        return this;
+    }
+
+    @Override
+    public AnsibleUtf8Sink append(final char c) throws IOException {
+        if (this.position + 4 > this.buffer.length) {
+            flushBuffer();
+        }
+        if (this.highSurrogate != 0) {
+            final char high = this.highSurrogate;
+            this.highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                final int codePoint = Character.toCodePoint(high, c);
+                this.buffer[this.position++] = (byte) (0xF0 | (codePoint >> 18));
+                this.buffer[this.position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                this.buffer[this.position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                this.buffer[this.position++] = (byte) (0x80 | (codePoint & 0x3F));
+                return this;
+            }
+            malformed();
+            return append(c);
+        }
+        if (c < 0x80) {
+            this.buffer[this.position++] = (byte) c;
+        } else if (c < 0x800) {
+            this.buffer[this.position++] = (byte) (0xC0 | (c >> 6));
+            this.buffer[this.position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            this.highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            malformed();
+        } else {
+            this.buffer[this.position++] = (byte) (0xE0 | (c >> 12));
+            this.buffer[this.position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            this.buffer[this.position++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return this;
+    }
+
+    /**
+     * Writes a lone surrogate as <code>?</code>, like {@link String#getBytes(java.nio.charset.Charset)} does.
+     */
+    private void malformed() {
+        this.buffer[this.position++] = '?';
+    }
+
+    private void flushBuffer() throws IOException {
+        this.stream.write(this.buffer, 0, this.position);
+        this.position = 0;
+    }
+
+    /**
+     * Writes all buffered bytes to the stream and flushes it. The stream is not closed.
+     */
+    void flush() throws IOException {
+        if (this.highSurrogate != 0) {
+            this.highSurrogate = 0;
+            malformed();
+        }
+        flushBuffer();
+        this.stream.flush();
+    }
+}
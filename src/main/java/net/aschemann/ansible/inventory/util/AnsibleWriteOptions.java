@@ -0,0 +1,69 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory.util;
+
+/**
+ * Options for writing an inventory to a file with
+ * {@link AnsibleInventoryWriter#write(net.aschemann.ansible.inventory.type.AnsibleInventory, java.nio.file.Path,
+ * AnsibleWriteOptions)}. Instances are immutable, the <code>with</code> methods return modified copies.
+ */
+public final class AnsibleWriteOptions {
+
+    private static final AnsibleWriteOptions DEFAULTS = new AnsibleWriteOptions(false, true);
+
+    private final boolean fsync;
+
+    private final boolean skipUnchanged;
+
+    private AnsibleWriteOptions(final boolean fsync, final boolean skipUnchanged) {
+        this.fsync = fsync;
+        this.skipUnchanged = skipUnchanged;
+    }
+
+    /**
+     * @return options which skip unchanged files, but do not force the content to the storage device
+     */
+    public static AnsibleWriteOptions defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * @param fsync whether the file and its directory are forced to the storage device before and after the file
+     * is moved into place, so the new content survives a crash of the system
+     * @return the modified options
+     */
+    public AnsibleWriteOptions withFsync(final boolean fsync) {
+        return new AnsibleWriteOptions(fsync, this.skipUnchanged);
+    }
+
+    /**
+     * @param skipUnchanged whether an existing file is left untouched if its content hash matches the new content
+     * @return the modified options
+     */
+    public AnsibleWriteOptions withSkipUnchanged(final boolean skipUnchanged) {
+        return new AnsibleWriteOptions(this.fsync, skipUnchanged);
+    }
+
+    public boolean isFsync() {
+        return this.fsync;
+    }
+
+    public boolean isSkipUnchanged() {
+        return this.skipUnchanged;
+    }
+}
@@ -1,15 +1,43 @@
 package net.aschemann.ansible.inventory;
 
+import net.aschemann.ansible.inventory.type.AnsibleGroup;
+import net.aschemann.ansible.inventory.type.AnsibleHost;
 import net.aschemann.ansible.inventory.type.AnsibleInventory;
+import net.aschemann.ansible.inventory.type.AnsibleInventorySnapshot;
+import net.aschemann.ansible.inventory.type.AnsibleVariable;
+import net.aschemann.ansible.inventory.util.AnsibleInventoryCache;
 import net.aschemann.ansible.inventory.util.AnsibleInventoryReader;
+import net.aschemann.ansible.inventory.util.AnsibleInventoryWriter;
+import net.aschemann.ansible.inventory.util.AnsibleStringPool;
+import net.aschemann.ansible.inventory.util.AnsibleWriteOptions;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.MalformedInputException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 public class AnsibleInventoryReaderIT {
 
@@ -19,6 +47,9 @@ public class AnsibleInventoryReaderIT {
     public static final String VAGRANT_INVENTORY_DIRECTORY_PATH
             = "src/test/resources/inventories/directories/vagrant-inventory";
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     public void readVagrantInventoryDirectory() throws IOException {
         AnsibleInventory ansibleInventory =
@@ -26,6 +57,112 @@ public class AnsibleInventoryReaderIT {
         testVagrantInventory(ansibleInventory);
     }
 
+    @Test
+    public void readVagrantInventoryDirectoryParallel() throws IOException {
+        AnsibleInventory ansibleInventory =
+                AnsibleInventoryReader.readParallel(Paths.get(VAGRANT_INVENTORY_DIRECTORY_PATH).toAbsolutePath());
+        testVagrantInventory(ansibleInventory);
+    }
+
+    @Test
+    public void readVagrantInventoryDirectoryMapped() throws IOException {
+        AnsibleInventory ansibleInventory =
+                AnsibleInventoryReader.readMapped(Paths.get(VAGRANT_INVENTORY_DIRECTORY_PATH).toAbsolutePath());
+        testVagrantInventory(ansibleInventory);
+    }
+
+    @Test
+    public void readVagrantInventoryFileMapped() throws IOException {
+        AnsibleInventory ansibleInventory =
+                AnsibleInventoryReader.readMapped(Paths.get(VAGRANT_INVENTORY_FILE_PATH).toAbsolutePath());
+        testVagrantInventory(ansibleInventory);
+    }
+
+    @Test
+    public void readMappedFileWithNonAsciiCharactersAndCrLf() throws IOException {
+        final Path file = temporaryFolder.newFile("hosts").toPath();
+        // Like the regex class \w, the names in :vars and :children headers are ASCII only
+        Files.write(file, ("[k\u00fcche]\r\nherd1 owner=\"J\u00fcrgen M\u00fcller\"\r\n"
+                + "herd2 port=22\r\n[kitchen]\r\nherd1\r\n[kitchen:vars]\r\nwarning = h\u00e9\u00e9\r\n")
+                .getBytes(StandardCharsets.UTF_8));
+
+        AnsibleInventory ansibleInventory = AnsibleInventoryReader.readMapped(file);
+
+        Assert.assertEquals(2, ansibleInventory.getGroup("k\u00fcche").getHosts().size());
+        Assert.assertEquals("\"J\u00fcrgen M\u00fcller\"",
+                ansibleInventory.getHost("herd1").getVariable("owner").getValue());
+        Assert.assertEquals("22", ansibleInventory.getHost("herd2").getVariable("port").getValue());
+        Assert.assertEquals("h\u00e9\u00e9", ansibleInventory.getGroup("kitchen").getVariable("warning").getValue());
+        Assert.assertEquals(AnsibleInventoryWriter.write(AnsibleInventoryReader.read(file)),
+                AnsibleInventoryWriter.write(ansibleInventory));
+    }
+
+    @Test
+    public void readersReportMalformedUtf8() throws IOException {
+        final Path file = temporaryFolder.newFile("hosts").toPath();
+        final byte[] malformed = {'[', 'w', 'e', 'b', ']', '\n', 'w', 'e', 'b', '1', ' ', 'o', 'w', 'n', 'e', 'r', '=',
+                (byte) 0xC3, '(', '\n'};
+        Files.write(file, malformed);
+
+        assertMalformed(() -> AnsibleInventoryReader.read(file));
+        assertMalformed(() -> AnsibleInventoryReader.readMapped(file));
+        assertMalformed(() -> AnsibleInventoryReader.readParallel(file));
+    }
+
+    private static void assertMalformed(final Callable<AnsibleInventory> reader) throws IOException {
+        try {
+            reader.call();
+            Assert.fail("Malformed UTF-8 was not reported");
+        } catch (MalformedInputException e) {
+            Assert.assertEquals(1, e.getInputLength());
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void readersReportBytesSavedToThePool() throws IOException {
+        final Path directory = Paths.get(VAGRANT_INVENTORY_DIRECTORY_PATH).toAbsolutePath();
+        final AnsibleStringPool strings = new AnsibleStringPool();
+        AnsibleInventoryReader.read(directory, strings);
+        final AnsibleStringPool mappedStrings = new AnsibleStringPool();
+        AnsibleInventoryReader.readMapped(directory, mappedStrings);
+        final AnsibleStringPool parallelStrings = new AnsibleStringPool();
+        AnsibleInventoryReader.readParallel(directory, ForkJoinPool.commonPool(), parallelStrings);
+
+        Assert.assertTrue(strings.getBytesSaved() > 0);
+        Assert.assertEquals(strings.getBytesSaved(), mappedStrings.getBytesSaved());
+        Assert.assertEquals(strings.getBytesSaved(), parallelStrings.getBytesSaved());
+    }
+
+    @Test
+    public void readDirectoryWithManyVarsFiles() throws IOException {
+        final Path directory = temporaryFolder.newFolder("many-vars").toPath();
+        final Path hostVars = Files.createDirectory(directory.resolve("host_vars"));
+        final Path groupVars = Files.createDirectory(directory.resolve("group_vars"));
+        final StringBuilder hosts = new StringBuilder("[web]\n");
+        for (int i = 0; i < 200; i++) {
+            hosts.append("web").append(i).append('\n');
+            Files.write(hostVars.resolve("web" + i), ("index: '" + i + "'\n").getBytes(StandardCharsets.UTF_8));
+        }
+        Files.write(directory.resolve("hosts"), hosts.toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(groupVars.resolve("web"), "http_port: '8080'\n".getBytes(StandardCharsets.UTF_8));
+        // Neither an empty file nor files for unknown hosts or groups must get in the way
+        Files.createFile(hostVars.resolve("web0.orig"));
+        Files.createFile(groupVars.resolve("db"));
+        Files.write(hostVars.resolve("web1"), new byte[0]);
+
+        AnsibleInventory ansibleInventory = AnsibleInventoryReader.read(directory);
+
+        Assert.assertEquals(200, ansibleInventory.getHosts().size());
+        Assert.assertNull(ansibleInventory.getGroup("db"));
+        Assert.assertEquals("8080", ansibleInventory.getGroup("web").getVariable("http_port").getValue());
+        Assert.assertEquals("199", ansibleInventory.getHost("web199").getVariable("index").getValue());
+        Assert.assertNull(ansibleInventory.getHost("web1").getVariable("index"));
+    }
+
     @Test
     public void readVagrantInventoryLines() throws IOException {
         final List<String> lines
@@ -56,10 +193,8 @@ public class AnsibleInventoryReaderIT {
                         .getVariable("mysql_replication_role").getValue());
 
         Assert.assertEquals("vagrant",
-                ansibleInventory
-                        .getGroup("lamp_db")
-                        .getHost("192.168.2.6")
-                        .getVariable("ansible_user").getValue());
+                ansibleInventory.getEffectiveVariable(
+                        ansibleInventory.getGroup("lamp_db").getHost("192.168.2.6"), "ansible_user").getValue());
         Assert.assertEquals("vagrant",
                 ansibleInventory
                         .getGroup("lamp_db")
@@ -90,4 +225,340 @@ public class AnsibleInventoryReaderIT {
                         .getGroup("k8s")
                         .getVariable("ansible_user").getValue());
     }
-}
+
+    @Test
+    public void writeFileAtomicallyAndSkipUnchanged() throws IOException {
+        final Path directory = temporaryFolder.newFolder("out").toPath();
+        final Path file = directory.resolve("hosts");
+        final AnsibleInventory inventory =
+                AnsibleInventoryReader.read(Paths.get(VAGRANT_INVENTORY_FILE_PATH).toAbsolutePath());
+        final AnsibleWriteOptions options = AnsibleWriteOptions.defaults().withFsync(true);
+
+        Assert.assertTrue(AnsibleInventoryWriter.write(inventory, file, options));
+        Assert.assertEquals(AnsibleInventoryWriter.write(inventory),
+                new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+
+        final FileTime written = FileTime.fromMillis(1000000000000L);
+        Files.setLastModifiedTime(file, written);
+        final boolean posix = Files.getFileStore(file).supportsFileAttributeView("posix");
+        if (posix) {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-r-----"));
+        }
+        Assert.assertFalse(AnsibleInventoryWriter.write(inventory, file, options));
+        Assert.assertEquals(written, Files.getLastModifiedTime(file));
+        Assert.assertTrue(AnsibleInventoryWriter.write(inventory, file, options.withSkipUnchanged(false)));
+        Assert.assertNotEquals(written, Files.getLastModifiedTime(file));
+
+        inventory.getHost("192.168.2.1").addVariable(new AnsibleVariable("ansible_port", "2222"));
+        Assert.assertTrue(AnsibleInventoryWriter.write(inventory, file, AnsibleWriteOptions.defaults()));
+        Assert.assertEquals("2222", AnsibleInventoryReader.read(file).getHost("192.168.2.1")
+                .getVariable("ansible_port").getValue());
+        if (posix) {
+            Assert.assertEquals("rw-r-----", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+        }
+        // No temporary files are left behind
+        try (Stream<Path> files = Files.list(directory)) {
+            Assert.assertEquals(1, files.count());
+        }
+
+        // Writing through a symbolic link replaces the file it points to
+        if (posix) {
+            final Path link = Files.createSymbolicLink(directory.resolve("link"), file.getFileName());
+            inventory.getHost("192.168.2.1").addVariable(new AnsibleVariable("ansible_host", "example.com"));
+            Assert.assertTrue(AnsibleInventoryWriter.write(inventory, link, AnsibleWriteOptions.defaults()));
+            Assert.assertTrue(Files.isSymbolicLink(link));
+            Assert.assertEquals(AnsibleInventoryWriter.write(inventory),
+                    new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            try (Stream<Path> files = Files.list(directory)) {
+                Assert.assertEquals(2, files.count());
+            }
+        }
+    }
+
+    @Test
+    public void writeDirectoryAndReadItBack() throws IOException {
+        final Path directory = temporaryFolder.newFolder("layout").toPath();
+        final AnsibleInventory inventory =
+                AnsibleInventoryReader.read(Paths.get(VAGRANT_INVENTORY_DIRECTORY_PATH).toAbsolutePath());
+        for (int i = 0; i < 100; i++) {
+            final AnsibleHost host = new AnsibleHost("web" + i);
+            host.addVariable(new AnsibleVariable("http_port", String.valueOf(8000 + i)));
+            host.addVariable(new AnsibleVariable("motd", "\"Gr\u00fc\u00dfe: from web" + i + "\""));
+            inventory.getGroup("lamp_www").addHost(host);
+            inventory.addHost(host);
+        }
+        final AnsibleWriteOptions options = AnsibleWriteOptions.defaults();
+
+        // hosts, group_vars/lamp_db, two original and 100 new host_vars files
+        Assert.assertEquals(104, AnsibleInventoryWriter.writeDirectory(inventory, directory, options));
+        Assert.assertEquals("ansible_user: vagrant\n",
+                new String(Files.readAllBytes(directory.resolve("group_vars/lamp_db")), StandardCharsets.UTF_8));
+
+        final AnsibleInventory copy = AnsibleInventoryReader.read(directory);
+        Assert.assertEquals(inventory.getHosts().size(), copy.getHosts().size());
+        Assert.assertEquals(AnsibleInventoryWriter.write(inventory), AnsibleInventoryWriter.write(copy));
+        Assert.assertEquals("\"Gr\u00fc\u00dfe: from web42\"",
+                copy.getHost("web42").getVariable("motd").getValue());
+
+        Assert.assertEquals(0, AnsibleInventoryWriter.writeDirectory(inventory, directory, options));
+
+        inventory.removeHost("web0");
+        inventory.getHost("web1").removeVariable(new AnsibleVariable("motd"));
+        inventory.getGroup("lamp_db").removeVariable("ansible_user");
+        // hosts and host_vars/web1 are written, host_vars/web0 and group_vars/lamp_db are deleted
+        Assert.assertEquals(4, AnsibleInventoryWriter.writeDirectory(inventory, directory, options));
+        Assert.assertFalse(Files.exists(directory.resolve("host_vars/web0")));
+        Assert.assertFalse(Files.exists(directory.resolve("group_vars/lamp_db")));
+        Assert.assertEquals(AnsibleInventoryWriter.write(inventory),
+                AnsibleInventoryWriter.write(AnsibleInventoryReader.read(directory)));
+
+        // Names which would escape the vars directories are rejected before anything is written
+        for (String name : new String[]{"../escape", "..", ".", "sub/name", "sub\\name"}) {
+            final AnsibleHost host = new AnsibleHost(name);
+            host.addVariable(new AnsibleVariable("x", "1"));
+            inventory.addHost(host);
+            try {
+                AnsibleInventoryWriter.writeDirectory(inventory, directory, options);
+                Assert.fail(name);
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains(name));
+            }
+            inventory.removeHost(name);
+        }
+        Assert.assertFalse(Files.exists(directory.resolve("escape")));
+        Assert.assertEquals(AnsibleInventoryWriter.write(inventory),
+                AnsibleInventoryWriter.write(AnsibleInventoryReader.read(directory)));
+    }
+
+    @Test
+    public void writeDirectoryKeepsForeignFiles() throws IOException {
+        final Path directory = temporaryFolder.newFolder("foreign").toPath();
+        final AnsibleInventory inventory = new AnsibleInventory();
+        final AnsibleGroup web = new AnsibleGroup("web");
+        web.addVariable(new AnsibleVariable("http_port", "80"));
+        final AnsibleHost host = new AnsibleHost("web1");
+        host.addVariable(new AnsibleVariable("motd", "hello"));
+        web.addHost(host);
+        inventory.addGroup(web);
+        inventory.addHost(host);
+        final AnsibleWriteOptions options = AnsibleWriteOptions.defaults();
+        AnsibleInventoryWriter.writeDirectory(inventory, directory, options);
+
+        // Files the writer did not create survive, even if no host or group of that name has variables
+        final String[] foreign = {"group_vars/web.yml", "group_vars/all.yaml", "group_vars/README", "host_vars/db1",
+                "host_vars/web1.json"};
+        for (String name : foreign) {
+            Files.write(directory.resolve(name), "x: 1\n".getBytes(StandardCharsets.UTF_8));
+        }
+        web.removeVariable("http_port");
+        inventory.removeHost("web1");
+        // hosts is written, group_vars/web and host_vars/web1 are deleted
+        Assert.assertEquals(3, AnsibleInventoryWriter.writeDirectory(inventory, directory, options));
+        Assert.assertFalse(Files.exists(directory.resolve("group_vars/web")));
+        Assert.assertFalse(Files.exists(directory.resolve("host_vars/web1")));
+        for (String name : foreign) {
+            Assert.assertTrue(name, Files.exists(directory.resolve(name)));
+        }
+
+        // The manifest is not a valid name for a host or group
+        final AnsibleHost manifest = new AnsibleHost(".written");
+        manifest.addVariable(new AnsibleVariable("x", "1"));
+        inventory.addHost(manifest);
+        try {
+            AnsibleInventoryWriter.writeDirectory(inventory, directory, options);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(".written"));
+        }
+    }
+
+    @Test
+    public void writeBinaryAndReadCached() throws IOException {
+        final Path directory = temporaryFolder.newFolder("cached").toPath();
+        final Path binary = temporaryFolder.getRoot().toPath().resolve("inventory.bin");
+        AnsibleInventoryWriter.writeDirectory(
+                AnsibleInventoryReader.read(Paths.get(VAGRANT_INVENTORY_DIRECTORY_PATH).toAbsolutePath()),
+                directory, AnsibleWriteOptions.defaults());
+        final String expected = AnsibleInventoryWriter.write(AnsibleInventoryReader.read(directory));
+
+        // The first call builds the binary file, the second one loads it
+        Assert.assertEquals(expected,
+                AnsibleInventoryWriter.write(AnsibleInventoryReader.readCached(directory, binary)));
+        Assert.assertTrue(Files.exists(binary));
+        Assert.assertEquals(expected, AnsibleInventoryWriter.write(AnsibleInventoryReader.readBinary(binary)));
+        testVagrantInventory(AnsibleInventoryReader.readCached(directory, binary));
+
+        // A changed vars file makes the binary file stale
+        Files.write(directory.resolve("group_vars/lamp_db"), "ansible_user: root\n".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals("root", AnsibleInventoryReader.readCached(directory, binary).getGroup("lamp_db")
+                .getVariable("ansible_user").getValue());
+        Assert.assertEquals("root", AnsibleInventoryReader.readBinary(binary).getGroup("lamp_db")
+                .getVariable("ansible_user").getValue());
+
+        // A corrupt binary file is rejected and rebuilt
+        final byte[] bytes = Files.readAllBytes(binary);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(binary, bytes);
+        try {
+            AnsibleInventoryReader.readBinary(binary);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("not a valid binary inventory"));
+        }
+        Assert.assertEquals("root", AnsibleInventoryReader.readCached(directory, binary).getGroup("lamp_db")
+                .getVariable("ansible_user").getValue());
+        AnsibleInventoryReader.readBinary(binary);
+
+        // Typed values keep their type
+        final AnsibleInventory typed = AnsibleInventoryReader.readYaml(new StringReader(
+                "all:\n  hosts:\n    db1:\n      port: 5432\n      big: 12345678901\n      ratio: 0.5\n"
+                        + "      tls: true\n      none:\n      list: [1, [two]]\n      map: {k: v}\n"
+                        + "  children:\n    db:\n      hosts:\n        db1:\n      children:\n        replica:\n"));
+        final Path typedBinary = temporaryFolder.getRoot().toPath().resolve("typed.bin");
+        Assert.assertTrue(AnsibleInventoryWriter.writeBinary(typed, typedBinary, AnsibleWriteOptions.defaults()));
+        Assert.assertFalse(AnsibleInventoryWriter.writeBinary(typed, typedBinary, AnsibleWriteOptions.defaults()));
+        final AnsibleInventory copy = AnsibleInventoryReader.readBinary(typedBinary);
+        Assert.assertEquals(typed.getHost("db1").getVariables(), copy.getHost("db1").getVariables());
+        Assert.assertEquals(12345678901L, copy.getHost("db1").getVariable("big").getValue());
+        Assert.assertEquals("replica", copy.getGroup("db").getSubgroups().iterator().next().getName());
+        final StringWriter expectedYaml = new StringWriter();
+        AnsibleInventoryWriter.writeYaml(typed, expectedYaml);
+        final StringWriter yaml = new StringWriter();
+        AnsibleInventoryWriter.writeYaml(copy, yaml);
+        Assert.assertEquals(expectedYaml.toString(), yaml.toString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void cacheInventoriesByFingerprint() throws Exception {
+        final Path first = temporaryFolder.newFile("first").toPath();
+        final Path second = temporaryFolder.newFile("second").toPath();
+        Files.write(first, "[web]\nweb1\nweb2\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(second, "[db]\ndb1\ndb2\n".getBytes(StandardCharsets.UTF_8));
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final AnsibleInventoryCache cache = new AnsibleInventoryCache(Long.MAX_VALUE, path -> {
+            loads.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            return AnsibleInventoryReader.read(path);
+        });
+
+        // Concurrent misses are served by a single load
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<AnsibleInventorySnapshot>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> cache.get(first)));
+            }
+            while (cache.getStats().getMissCount() < 8) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            final AnsibleInventorySnapshot inventory = futures.get(0).get();
+            for (Future<AnsibleInventorySnapshot> future : futures) {
+                Assert.assertSame(inventory, future.get());
+            }
+            Assert.assertEquals(1, loads.get());
+            Assert.assertEquals(2, inventory.getGroup("web").getHostNames().size());
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertSame(cache.get(first), cache.get(first.getParent().resolve("./first")));
+        AnsibleInventoryCache.Stats stats = cache.getStats();
+        Assert.assertEquals(2, stats.getHitCount());
+        Assert.assertEquals(1, stats.getLoadCount());
+        Assert.assertEquals(1, stats.getSize());
+        Assert.assertTrue(stats.getWeight() > 0);
+        Assert.assertTrue(stats.getTotalLoadTime() > 0);
+
+        // A changed file is loaded again
+        Files.write(first, "[web]\nweb1\nweb2\nweb3\n".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(3, cache.get(first).getGroup("web").getHostNames().size());
+        Assert.assertEquals(2, loads.get());
+
+        // The least recently used inventory is evicted once the weight exceeds the maximum
+        final AnsibleInventoryCache small = new AnsibleInventoryCache(stats.getWeight() * 3 / 2);
+        final AnsibleInventorySnapshot cached = small.get(second);
+        small.get(first);
+        Assert.assertEquals(1, small.getStats().getEvictionCount());
+        Assert.assertEquals(1, small.getStats().getSize());
+        Assert.assertNotSame(cached, small.get(second));
+        Assert.assertEquals(3, small.getStats().getLoadCount());
+
+        // Changing a copy of a cached inventory does not change the cache
+        final Path json = temporaryFolder.newFile("inventory.json").toPath();
+        Files.write(json, "{\"_meta\": {\"hostvars\": {\"h\": {\"m\": {\"k\": 1}, \"l\": [1]}}}}"
+                .getBytes(StandardCharsets.UTF_8));
+        final AnsibleInventoryCache shared = new AnsibleInventoryCache(Long.MAX_VALUE,
+                AnsibleInventoryReader::readJson);
+        final AnsibleInventory copy = shared.get(json).toInventory();
+        ((Map<String, Object>) copy.getHost("h").getVariable("m").getValue()).put("k", 99);
+        ((List<Object>) copy.getHost("h").getVariable("l").getValue()).add(2);
+        copy.getHost("h").removeVariable(new AnsibleVariable("l"));
+        final AnsibleInventorySnapshot reread = shared.get(json);
+        Assert.assertEquals(Collections.singletonMap("k", 1), reread.getHost("h").getVariable("m").getValue());
+        Assert.assertEquals(Collections.singletonList(1), reread.getHost("h").getVariable("l").getValue());
+        Assert.assertEquals(Collections.singletonMap("k", 1),
+                reread.toInventory().getHost("h").getVariable("m").getValue());
+        Assert.assertEquals(1, shared.getStats().getLoadCount());
+
+        final AnsibleInventoryCache failing = new AnsibleInventoryCache(Long.MAX_VALUE, path -> {
+            throw new IOException("broken");
+        });
+        try {
+            failing.get(first);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals("broken", e.getMessage());
+        }
+        Assert.assertEquals(1, failing.getStats().getLoadFailureCount());
+        Assert.assertEquals(0, failing.getStats().getSize());
+    }
+
+    @Test
+    public void cacheKeepsNewerLoad() throws Exception {
+        final Path file = temporaryFolder.newFile("slow").toPath();
+        Files.write(file, "[web]\nweb1\n".getBytes(StandardCharsets.UTF_8));
+
+        final CountDownLatch read = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final AnsibleInventoryCache cache = new AnsibleInventoryCache(Long.MAX_VALUE, path -> {
+            final AnsibleInventory inventory = AnsibleInventoryReader.read(path);
+            if (loads.incrementAndGet() == 1) {
+                read.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            return inventory;
+        });
+
+        // The first load reads the old file and is slow, the second one reads the changed file and finishes first
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<AnsibleInventorySnapshot> slow = executor.submit(() -> cache.get(file));
+            read.await();
+            Files.write(file, "[web]\nweb1\nweb2\n".getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals(2, cache.get(file).getGroup("web").getHostNames().size());
+            release.countDown();
+            Assert.assertEquals(1, slow.get().getGroup("web").getHostNames().size());
+        } finally {
+            executor.shutdown();
+        }
+
+        // The older result did not replace the newer one
+        Assert.assertEquals(2, cache.get(file).getGroup("web").getHostNames().size());
+        Assert.assertEquals(2, cache.getStats().getLoadCount());
+        Assert.assertEquals(1, cache.getStats().getHitCount());
+        Assert.assertEquals(1, cache.getStats().getSize());
+    }
+}
\ No newline at end of file
@@ -17,16 +17,32 @@
  */
 package net.aschemann.ansible.inventory;
 
+import net.aschemann.ansible.inventory.type.AnsibleConstants;
 import net.aschemann.ansible.inventory.type.AnsibleGroup;
 import net.aschemann.ansible.inventory.type.AnsibleHost;
 import net.aschemann.ansible.inventory.type.AnsibleInventory;
 import net.aschemann.ansible.inventory.type.AnsibleVariable;
+import net.aschemann.ansible.inventory.util.AnsibleInventoryJsonWriter;
 import net.aschemann.ansible.inventory.util.AnsibleInventoryReader;
+import net.aschemann.ansible.inventory.util.AnsibleInventoryWriter;
+import net.aschemann.ansible.inventory.util.AnsibleStringPool;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * @author Andrea Scarpino
@@ -168,10 +184,12 @@ public class AnsibleInventoryReaderTest {
 
 		for (AnsibleGroup group : inventory.getGroups()) {
 			if (group.getName().equals("group1")) {
-				Assert.assertEquals("var1", group.getSubgroups().iterator().next().getHosts().iterator().next()
-						.getVariables().iterator().next().getName());
-				Assert.assertEquals("value1", group.getSubgroups().iterator().next().getHosts().iterator().next()
-						.getVariables().iterator().next().getValue());
+				final AnsibleHost host = group.getSubgroups().iterator().next().getHosts().iterator().next();
+				Assert.assertEquals(0, host.getVariables().size());
+				Assert.assertEquals("var1",
+						inventory.getEffectiveVariables(host).values().iterator().next().getName());
+				Assert.assertEquals("value1",
+						inventory.getEffectiveVariables(host).values().iterator().next().getValue());
 			}
 		}
 	}
@@ -212,8 +230,8 @@ public class AnsibleInventoryReaderTest {
 
 		for (AnsibleGroup group : inventory.getGroups()) {
 			if (group.getName().equals("southeast")) {
-				Assert.assertEquals(4,
-						group.getSubgroups().iterator().next().getHosts().iterator().next().getVariables().size());
+				Assert.assertEquals(4, inventory.getEffectiveVariables(
+						group.getSubgroups().iterator().next().getHosts().iterator().next()).size());
 			}
 		}
 	}
@@ -298,11 +316,12 @@ public class AnsibleInventoryReaderTest {
 
 		for (AnsibleGroup group : inventory.getGroups()) {
 			if (group.getName().equals("group1")) {
-				Assert.assertEquals("var1", group.getSubgroups().iterator().next().getHosts().iterator().next()
-						.getVariables().iterator().next().getName());
+				final AnsibleHost host = group.getSubgroups().iterator().next().getHosts().iterator().next();
+				Assert.assertEquals(0, host.getVariables().size());
+				Assert.assertEquals("var1",
+						inventory.getEffectiveVariables(host).values().iterator().next().getName());
 				Assert.assertEquals("value1",
-						group.getSubgroups().iterator().next().getHosts().iterator().next()
-								.getVariables().iterator().next().getValue());
+						inventory.getEffectiveVariables(host).values().iterator().next().getValue());
 			}
 		}
 
@@ -331,4 +350,327 @@ public class AnsibleInventoryReaderTest {
 		Assert.assertEquals("val4", inventory.getGroup("test").getVariable("var4").getValue());
 
 	}
+
+	@Test
+	public void testReadStreamWithForwardReferences() throws IOException {
+		final String text = "[group1:vars]\n"
+				+ "var1=value1\n"
+				+ "[group1:children]\n"
+				+ "subgroup1\n"
+				+ "[subgroup1]\n"
+				+ "host1\n"
+				+ "[subgroup1]\n"
+				+ "host2 var2=value2\n";
+
+		AnsibleInventory inventory = AnsibleInventoryReader.read(
+				new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+
+		Assert.assertEquals(4, inventory.getGroups().size());
+		Assert.assertEquals(1, inventory.getGroup("group1").getSubgroups().size());
+		Assert.assertEquals(2, inventory.getGroup("subgroup1").getHosts().size());
+		Assert.assertEquals("value1", inventory.getGroup("group1").getVariable("var1").getValue());
+		Assert.assertEquals("value2", inventory.getHost("host2").getVariable("var2").getValue());
+	}
+
+	@Test
+	public void testReadParallelIsIdenticalToSequential() {
+		final StringBuilder text = new StringBuilder("ungrouped1 var=\"a b\"\r\n");
+		for (int g = 0; g < 2000; g++) {
+			text.append("[group").append(g).append("]\n");
+			for (int h = 0; h < 20; h++) {
+				text.append("host").append((g * 7 + h) % 5000).append(" index=").append(h)
+						.append(" path='C:\\\\tmp\\\\").append(g).append("'\n");
+			}
+			text.append("[parent").append(g % 10).append(":children]\ngroup").append(g).append("\n");
+			text.append("[group").append(g).append(":vars]\nnumber = ").append(g).append("\n");
+		}
+
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			AnsibleInventory sequential = AnsibleInventoryReader.read(text.toString());
+			AnsibleInventory parallel = AnsibleInventoryReader.readParallel(text.toString(), pool);
+
+			Assert.assertEquals(5001, parallel.getHosts().size());
+			Assert.assertEquals(200, parallel.getGroup("parent3").getSubgroups().size());
+			Assert.assertEquals("C:\\tmp\\41", parallel.getHost("host300").getVariable("path").getValue()
+					.toString().replace("'", ""));
+			Assert.assertEquals(AnsibleInventoryWriter.write(sequential), AnsibleInventoryWriter.write(parallel));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static List<String> names(List<AnsibleHost> hosts) {
+		final List<String> names = new ArrayList<>();
+		for (AnsibleHost host : hosts) {
+			names.add(host.getName());
+		}
+		return names;
+	}
+
+	@Test
+	public void testSharedStringPool() throws IOException {
+		final String text = "[web]\nweb1 ansible_user=deploy\nweb2 ansible_user=deploy\n";
+		final AnsibleStringPool strings = new AnsibleStringPool();
+
+		AnsibleInventory first = AnsibleInventoryReader.read(new StringReader(text), strings);
+		AnsibleInventory second = AnsibleInventoryReader.read(new StringReader(text), strings);
+
+		final AnsibleVariable user1 = first.getHost("web1").getVariable("ansible_user");
+		final AnsibleVariable user2 = second.getHost("web2").getVariable("ansible_user");
+		Assert.assertSame(AnsibleConstants.ANSIBLE_USER, user1.getName());
+		Assert.assertSame(user1.getValue(), user2.getValue());
+		Assert.assertSame(first.getGroup("web").getName(), second.getGroup("web").getName());
+		Assert.assertTrue(strings.getBytesSaved() > 0);
+	}
+
+	@Test
+	public void testBytesSavedPerRead() throws IOException {
+		final String text = "[web]\nweb1 ansible_user=deploy\nweb2 ansible_user=deploy\n[db]\ndb1 ansible_user=deploy\n";
+		final AnsibleStringPool strings = new AnsibleStringPool();
+		Assert.assertEquals(0, strings.getBytesSaved());
+
+		AnsibleInventoryReader.read(new StringReader(text), strings);
+		final long firstRead = strings.getBytesSaved();
+		Assert.assertTrue(firstRead > 0);
+
+		// The second read finds all names and values pooled already
+		AnsibleInventoryReader.read(new StringReader(text), strings);
+		Assert.assertTrue(strings.getBytesSaved() - firstRead > firstRead);
+
+		final AnsibleStringPool parallelStrings = new AnsibleStringPool();
+		AnsibleInventoryReader.readParallel(text, ForkJoinPool.commonPool(), parallelStrings);
+		Assert.assertEquals(firstRead, parallelStrings.getBytesSaved());
+
+		final AnsibleStringPool jsonStrings = new AnsibleStringPool();
+		AnsibleInventoryReader.readJson(new StringReader("{\"web\": {\"hosts\": [\"web1\", \"web2\"], "
+				+ "\"vars\": {\"ansible_user\": \"deploy\"}}, \"_meta\": {\"hostvars\": "
+				+ "{\"web1\": {\"ansible_user\": \"deploy\"}}}}"), jsonStrings);
+		Assert.assertTrue(jsonStrings.getBytesSaved() > 0);
+	}
+
+	/**
+	 * @return the hosts, subgroups and variables of every group and the variables of every host, in a form which
+	 * does not depend on the order of the hosts and groups
+	 */
+	private static Map<String, Object> describe(AnsibleInventory inventory) {
+		Map<String, Object> result = new TreeMap<>();
+		for (AnsibleGroup group : inventory.getGroups()) {
+			TreeSet<String> hosts = new TreeSet<>();
+			group.getHosts().forEach(host -> hosts.add(host.getName()));
+			TreeSet<String> subgroups = new TreeSet<>();
+			group.getSubgroups().forEach(subgroup -> subgroups.add(subgroup.getName()));
+			Map<String, Object> variables = new TreeMap<>();
+			group.getVariables().forEach(variable -> variables.put(variable.getName(), variable.getValue()));
+			result.put("group " + group.getName(), Arrays.asList(hosts, subgroups, variables));
+		}
+		for (AnsibleHost host : inventory.getHosts()) {
+			Map<String, Object> variables = new TreeMap<>();
+			host.getVariables().forEach(variable -> variables.put(variable.getName(), variable.getValue()));
+			result.put("host " + host.getName(), variables);
+		}
+		return result;
+	}
+
+	/**
+	 * Generates a large INI inventory: 20 groups of 500 hosts, each sharing half of its hosts with the next group,
+	 * which are children of 4 regions.
+	 *
+	 * @param withCycle whether to add two groups which are children of each other
+	 */
+	private static String largeIni(boolean withCycle) {
+		StringBuilder ini = new StringBuilder("bastion ansible_port=2222\n");
+		for (int g = 0; g < 20; g++) {
+			ini.append("[group").append(g).append("]\n");
+			for (int h = 0; h < 500; h++) {
+				ini.append("host").append(g * 250 + h).append(" index=").append(h)
+						.append(" motd=\"Gr\u00fc\u00dfe \\\\ ").append(g).append("\"\n");
+			}
+			ini.append("[group").append(g).append(":vars]\nlevel=").append(g).append('\n');
+			ini.append("[region").append(g % 4).append(":children]\ngroup").append(g).append('\n');
+		}
+		if (withCycle) {
+			ini.append("[cycle1:children]\ncycle2\n[cycle2:children]\ncycle1\n");
+		}
+		ini.append("[all:vars]\nntp=ntp.example.com\n");
+		return ini.toString();
+	}
+
+	@Test
+	public void testReadJsonIsIdenticalToIni() throws IOException {
+		AnsibleInventory fromIni = AnsibleInventoryReader.read(largeIni(false));
+
+		StringBuilder json = new StringBuilder();
+		AnsibleInventoryJsonWriter.writeList(fromIni, json);
+		AnsibleInventory fromJson = AnsibleInventoryReader.readJson(new StringReader(json.toString()));
+
+		Assert.assertEquals(describe(fromIni), describe(fromJson));
+		Assert.assertEquals(fromIni.selectHosts("region1:!group5").size(),
+				fromJson.selectHosts("region1:!group5").size());
+		Assert.assertEquals(Collections.singletonList("bastion"), names(fromJson.selectHosts("ungrouped")));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testReadJson() throws IOException {
+		StringBuilder longValue = new StringBuilder();
+		for (int i = 0; i < 70000; i++) {
+			longValue.append((char) ('a' + i % 26));
+		}
+		String json = "{\n"
+				+ "  \"web\": {\"hosts\": [\"web1\", \"web2\"], \"vars\": {\"port\": 8080, \"ratio\": -1.5e2,"
+				+ " \"big\": 12345678901, \"tls\": true, \"none\": null}, \"unknown\": {\"a\": [1, {}]}},\n"
+				+ "  \"db\": [\"db1\"],\n"
+				+ "  \"prod\": {\"children\": [\"web\", \"db\", \"missing\"]},\n"
+				+ "  \"all\": {\"children\": [\"prod\", \"ungrouped\"], \"vars\": {\"ntp\": \"ntp\\/1\"}},\n"
+				+ "  \"_meta\": {\"hostvars\": {\n"
+				+ "    \"web1\": {\"motd\": \"line1\\nline2 \\\"quoted\\\" \\u00e9\\ud83d\\ude80\","
+				+ " \"list\": [1, \"two\", [3]], \"map\": {\"k\": \"v\"}},\n"
+				+ "    \"lonely\": {\"long\": \"" + longValue + "\"}\n"
+				+ "  }, \"other\": 1}\n"
+				+ "}\n";
+
+		AnsibleInventory inventory = AnsibleInventoryReader.readJson(new StringReader(json));
+
+		Assert.assertEquals(new HashSet<>(Arrays.asList("web1", "web2", "db1", "lonely")),
+				new HashSet<>(names(new ArrayList<>(inventory.getHosts()))));
+		Assert.assertEquals(Arrays.asList("lonely"), names(inventory.selectHosts("ungrouped")));
+		Assert.assertEquals(3, inventory.selectHosts("prod").size());
+		Assert.assertTrue(inventory.getGroup("all").getSubgroups().isEmpty());
+		AnsibleGroup web = inventory.getGroup("web");
+		Assert.assertEquals(8080, web.getVariable("port").getValue());
+		Assert.assertEquals(-150.0, web.getVariable("ratio").getValue());
+		Assert.assertEquals(12345678901L, web.getVariable("big").getValue());
+		Assert.assertEquals(Boolean.TRUE, web.getVariable("tls").getValue());
+		Assert.assertNull(web.getVariable("none").getValue());
+		Assert.assertEquals("ntp/1", inventory.getGroup("all").getVariable("ntp").getValue());
+		AnsibleHost web1 = inventory.getHost("web1");
+		Assert.assertEquals("line1\nline2 \"quoted\" \u00e9\ud83d\ude80", web1.getVariable("motd").getValue());
+		Assert.assertEquals(Arrays.asList(1, "two", Collections.singletonList(3)), web1.getVariable("list").getValue());
+		Assert.assertEquals(Collections.singletonMap("k", "v"), web1.getVariable("map").getValue());
+		Assert.assertEquals(longValue.toString(), inventory.getHost("lonely").getVariable("long").getValue());
+		Assert.assertEquals("ntp/1", inventory.getEffectiveVariable(web1, "ntp").getValue());
+
+		for (String invalid : new String[]{"", "[]", "{\"a\": [\"x\",]}", "{\"a\": {\"vars\": {\"b\": tru}}}",
+				"{\"a\": [\"unterminated]}", "{} {}", "{\"a\": {\"vars\": {\"b\": 1.2.3}}}",
+				"{\"a\": {\"vars\": {\"b\": 1-2}}}", "{\"a\": {\"vars\": {\"b\": 1e}}}",
+				"{\"a\": {\"vars\": {\"b\": 012}}}", "{\"a\": {\"vars\": {\"b\": -}}}",
+				"{\"a\": {\"vars\": {\"b\": 1.}}}", "{\"a\": {\"unknown\": 1e+}}"}) {
+			try {
+				AnsibleInventoryReader.readJson(new StringReader(invalid));
+				Assert.fail(invalid);
+			} catch (IOException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().contains("JSON inventory"));
+			}
+		}
+		AnsibleGroup numbers = AnsibleInventoryReader.readJson(new StringReader(
+				"{\"a\": {\"vars\": {\"zero\": 0, \"fraction\": -0.5e+3, \"exponent\": 1E-2}}}")).getGroup("a");
+		Assert.assertEquals(0, numbers.getVariable("zero").getValue());
+		Assert.assertEquals(-500.0, numbers.getVariable("fraction").getValue());
+		Assert.assertEquals(0.01, numbers.getVariable("exponent").getValue());
+	}
+
+	@Test
+	public void testReadYamlIsIdenticalToIni() throws IOException {
+		AnsibleInventory fromIni = AnsibleInventoryReader.read(largeIni(true));
+
+		StringWriter yaml = new StringWriter();
+		AnsibleInventoryWriter.writeYaml(fromIni, yaml);
+		AnsibleInventory fromYaml = AnsibleInventoryReader.readYaml(new StringReader(yaml.toString()));
+
+		Assert.assertEquals(describe(fromIni), describe(fromYaml));
+		Assert.assertEquals(fromIni.selectHosts("region1:!group5").size(),
+				fromYaml.selectHosts("region1:!group5").size());
+		Assert.assertEquals(Collections.singletonList("bastion"), names(fromYaml.selectHosts("ungrouped")));
+		// Values read from INI are strings and must stay strings
+		Assert.assertEquals("2222", fromYaml.getHost("bastion").getVariable("ansible_port").getValue());
+	}
+
+	@Test
+	public void testReadYaml() throws IOException {
+		String yaml = "# Example from the Ansible documentation\n"
+				+ "all:\n"
+				+ "  hosts:\n"
+				+ "    mail.example.com:\n"
+				+ "  vars:\n"
+				+ "    ntp: ntp.example.com\n"
+				+ "  children:\n"
+				+ "    webservers:\n"
+				+ "      hosts:\n"
+				+ "        foo.example.com: &defaults\n"
+				+ "          port: 8080\n"
+				+ "          ratio: -1.5e+2\n"
+				+ "          big: 12345678901\n"
+				+ "          tls: yes\n"
+				+ "          none: ~\n"
+				+ "          quoted: '80'\n"
+				+ "          secret: !vault 123\n"
+				+ "          date: 2001-12-14\n"
+				+ "        bar.example.com:\n"
+				+ "          <<: *defaults\n"
+				+ "          port: 8081\n"
+				+ "          list: [1, two, [3]]\n"
+				+ "          map: {k: v}\n"
+				+ "          motd: |\n"
+				+ "            line1\n"
+				+ "            line2\n"
+				+ "    dbservers:\n"
+				+ "      hosts:\n"
+				+ "        one.example.com:\n"
+				+ "        foo.example.com:\n"
+				+ "    prod:\n"
+				+ "      vars: {env: production}\n"
+				+ "      unknown: [1, {a: b}]\n"
+				+ "      children:\n"
+				+ "        webservers:\n"
+				+ "        dbservers:\n"
+				+ "        missing:\n";
+
+		AnsibleInventory inventory = AnsibleInventoryReader.readYaml(new StringReader(yaml));
+
+		Assert.assertEquals(new HashSet<>(Arrays.asList("mail.example.com", "foo.example.com", "bar.example.com",
+				"one.example.com")), new HashSet<>(names(new ArrayList<>(inventory.getHosts()))));
+		Assert.assertEquals(Arrays.asList("mail.example.com"), names(inventory.selectHosts("ungrouped")));
+		Assert.assertEquals(3, inventory.selectHosts("prod").size());
+		Assert.assertTrue(inventory.getGroup("all").getSubgroups().isEmpty());
+		Assert.assertEquals(2, inventory.getGroup("webservers").getHosts().size());
+		Assert.assertEquals("production", inventory.getGroup("prod").getVariable("env").getValue());
+		Assert.assertEquals("ntp.example.com", inventory.getGroup("all").getVariable("ntp").getValue());
+
+		AnsibleHost foo = inventory.getHost("foo.example.com");
+		Assert.assertEquals(8080, foo.getVariable("port").getValue());
+		Assert.assertEquals(-150.0, foo.getVariable("ratio").getValue());
+		Assert.assertEquals(12345678901L, foo.getVariable("big").getValue());
+		Assert.assertEquals(Boolean.TRUE, foo.getVariable("tls").getValue());
+		Assert.assertNull(foo.getVariable("none").getValue());
+		Assert.assertEquals("80", foo.getVariable("quoted").getValue());
+		Assert.assertEquals("123", foo.getVariable("secret").getValue());
+		Assert.assertEquals("2001-12-14", foo.getVariable("date").getValue());
+
+		AnsibleHost bar = inventory.getHost("bar.example.com");
+		Assert.assertEquals(8081, bar.getVariable("port").getValue());
+		Assert.assertEquals(Boolean.TRUE, bar.getVariable("tls").getValue());
+		Assert.assertEquals(Arrays.asList(1, "two", Collections.singletonList(3)), bar.getVariable("list").getValue());
+		Assert.assertEquals(Collections.singletonMap("k", "v"), bar.getVariable("map").getValue());
+		Assert.assertEquals("line1\nline2\n", bar.getVariable("motd").getValue());
+		Assert.assertEquals("ntp.example.com", inventory.getEffectiveVariable(bar, "ntp").getValue());
+
+		Assert.assertTrue(AnsibleInventoryReader.readYaml(new StringReader("")).getHosts().isEmpty());
+		for (String invalid : new String[]{"all: [", "all:\n  vars: [1]", "all:\n  vars: *missing",
+				"all:\n  hosts:\n    [a]: 1", "all:\n  vars:\n    x: !!int abc", "all:\n  vars:\n    x: !!float abc"}) {
+			try {
+				AnsibleInventoryReader.readYaml(new StringReader(invalid));
+				Assert.fail(invalid);
+			} catch (IOException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().contains("YAML inventory"));
+			}
+		}
+		try {
+			AnsibleInventoryReader.readYaml(new StringReader("all:\n  vars:\n    x: !!int abc"));
+			Assert.fail();
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains("at line 3, column 8"));
+			Assert.assertTrue(e.getCause() instanceof NumberFormatException);
+		}
+	}
 }
@@ -0,0 +1,287 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory;
+
+import net.aschemann.ansible.inventory.type.AnsibleGroup;
+import net.aschemann.ansible.inventory.type.AnsibleHost;
+import net.aschemann.ansible.inventory.type.AnsibleInventory;
+import net.aschemann.ansible.inventory.type.AnsibleInventorySnapshot;
+import net.aschemann.ansible.inventory.type.AnsibleVariable;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * @author Andrea Scarpino
+ */
+public class AnsibleInventorySnapshotTest {
+
+	@Test
+	public void testFreeze() {
+		AnsibleInventory inventory = new AnsibleInventory();
+		inventory.getAllGroup();
+		inventory.getUngroupedGroup();
+		AnsibleHost host1 = new AnsibleHost("host1");
+		host1.addVariable(new AnsibleVariable("ansible_port", "2222"));
+		inventory.addHost(host1);
+		AnsibleGroup web = AnsibleInventoryTest.addHosts(inventory, "web", "host2", "host3");
+		web.addVariable(new AnsibleVariable("http_port", "80"));
+		AnsibleInventoryTest.addHosts(inventory, "prod").addSubgroup(web);
+		for (int i = 0; i < 2000; i++) {
+			inventory.getGroup("web").addHost(new AnsibleHost("bulk" + i));
+			inventory.addHost(inventory.getGroup("web").getHost("bulk" + i));
+		}
+
+		AnsibleInventorySnapshot first = inventory.freeze();
+		Assert.assertSame(first, inventory.freeze());
+		Assert.assertEquals(2003, first.getHosts().size());
+		Assert.assertEquals(2003, first.getGroup("all").getHostNames().size());
+		Assert.assertEquals(Collections.singleton("host1"), first.getGroup("ungrouped").getHostNames());
+		Assert.assertEquals(2002, first.getGroup("web").getHostNames().size());
+		Assert.assertEquals(Collections.singleton("web"), first.getGroup("prod").getSubgroupNames());
+		Assert.assertEquals("80", first.getGroup("web").getVariable("http_port").getValue());
+		Assert.assertEquals(Collections.singleton("web"), first.getHost("host2").getGroupNames());
+		try {
+			first.getHost("host1").getVariable("ansible_port").setValue("22");
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+
+		inventory.getHost("host1").addVariable(new AnsibleVariable("ansible_user", "admin"));
+		inventory.getGroup("web").removeHost("host2");
+		inventory.getGroup("web").addVariable(new AnsibleVariable("http_port", "8080"));
+		for (int i = 0; i < 1000; i++) {
+			inventory.removeHost("bulk" + i);
+		}
+		inventory.removeGroup("prod");
+
+		AnsibleInventorySnapshot second = inventory.freeze();
+		Assert.assertEquals(1003, second.getHosts().size());
+		Assert.assertEquals(1001, second.getGroup("web").getHostNames().size());
+		Assert.assertEquals(new HashSet<>(Arrays.asList("host1", "host2")),
+				second.getGroup("ungrouped").getHostNames());
+		Assert.assertTrue(second.getHost("host2").getGroupNames().isEmpty());
+		Assert.assertEquals("admin", second.getHost("host1").getVariable("ansible_user").getValue());
+		Assert.assertEquals("8080", second.getGroup("web").getVariable("http_port").getValue());
+		Assert.assertNull(second.getGroup("prod"));
+		Assert.assertNull(second.getHost("bulk999"));
+		// Unchanged hosts are shared, the first snapshot is not affected
+		Assert.assertSame(first.getHost("bulk1999"), second.getHost("bulk1999"));
+		Assert.assertEquals(2003, first.getHosts().size());
+		Assert.assertEquals("80", first.getGroup("web").getVariable("http_port").getValue());
+		Assert.assertNull(first.getHost("host1").getVariable("ansible_user"));
+
+		AnsibleInventorySnapshot third = second.toBuilder()
+				.addHost("db", "host4")
+				.setHostVariable("host4", new AnsibleVariable("ansible_host", "10.0.0.4"))
+				.addSubgroup("web", "db")
+				.removeGroup("web")
+				.build();
+		Assert.assertNull(third.getGroup("web"));
+		Assert.assertEquals(Collections.singleton("db"), third.getHost("host4").getGroupNames());
+		Assert.assertEquals(1004, third.getGroup("all").getHostNames().size());
+		Assert.assertEquals(1003, third.getGroup("ungrouped").getHostNames().size());
+		Assert.assertNotNull(second.getGroup("web"));
+		Assert.assertNull(second.getHost("host4"));
+
+		AnsibleInventory copy = third.toInventory();
+		Assert.assertEquals(1004, copy.getHosts().size());
+		Assert.assertEquals(Arrays.asList("host4"), AnsibleInventoryTest.names(copy.selectHosts("db")));
+		Assert.assertEquals("10.0.0.4", copy.getHost("host4").getVariable("ansible_host").getValue());
+		Assert.assertEquals(1003, copy.selectHosts("ungrouped").size());
+	}
+
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testFreezeCopiesCompoundValues() {
+		AnsibleInventory inventory = new AnsibleInventory();
+		AnsibleGroup web = AnsibleInventoryTest.addHosts(inventory, "web", "h");
+		Map<String, Object> value = new HashMap<>();
+		value.put("k", 1);
+		value.put("l", new ArrayList<>(Arrays.asList(1, 2)));
+		inventory.getHost("h").addVariable(new AnsibleVariable("m", value));
+		web.addVariable(new AnsibleVariable("ports", new ArrayList<>(Arrays.asList(80, 443))));
+		AnsibleInventorySnapshot snapshot = inventory.freeze();
+		Map<String, Object> expected = new HashMap<>();
+		expected.put("k", 1);
+		expected.put("l", Arrays.asList(1, 2));
+
+		// Changing the copy does not change the snapshot
+		AnsibleInventory copy = snapshot.toInventory();
+		Map<String, Object> copied = (Map<String, Object>) copy.getHost("h").getVariable("m").getValue();
+		copied.put("k", 99);
+		((List<Object>) copied.get("l")).add(3);
+		((List<Object>) copy.getGroup("web").getVariable("ports").getValue()).clear();
+		Assert.assertEquals(expected, snapshot.getHost("h").getVariable("m").getValue());
+		Assert.assertEquals(expected, snapshot.toInventory().getHost("h").getVariable("m").getValue());
+		Assert.assertEquals(Arrays.asList(80, 443), snapshot.getGroup("web").getVariable("ports").getValue());
+
+		// Neither does changing the original inventory
+		((Map<String, Object>) inventory.getHost("h").getVariable("m").getValue()).put("k", 98);
+		Assert.assertEquals(expected, snapshot.getHost("h").getVariable("m").getValue());
+
+		// The variables of the snapshot equal plain ones
+		Assert.assertTrue(snapshot.getHost("h").getVariables().contains(new AnsibleVariable("m")));
+		Assert.assertEquals(new AnsibleVariable("m"), snapshot.getHost("h").getVariable("m"));
+		Assert.assertEquals(snapshot.getHost("h").getVariable("m"), new AnsibleVariable("m"));
+
+		// The values of the snapshot can not be changed
+		try {
+			((Map<String, Object>) snapshot.getHost("h").getVariable("m").getValue()).put("k", 97);
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			((List<Object>) ((Map<String, Object>) snapshot.getHost("h").getVariable("m").getValue()).get("l"))
+					.add(3);
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testFreezeAfterRemovingAndAddingGroup() {
+		AnsibleInventory inventory = new AnsibleInventory();
+		AnsibleInventoryTest.addHosts(inventory, "g", "h1");
+		inventory.freeze();
+		inventory.removeGroup("g");
+		inventory.addGroup(new AnsibleGroup("g"));
+
+		AnsibleInventorySnapshot snapshot = inventory.freeze();
+		Assert.assertTrue(snapshot.getGroup("g").getHostNames().isEmpty());
+		Assert.assertTrue(snapshot.getHost("h1").getGroupNames().isEmpty());
+	}
+
+	@Test
+	public void testIncrementalFreezeIsIdenticalToFullFreeze() {
+		for (long seed = 0; seed < 300; seed++) {
+			Random random = new Random(seed);
+			List<Consumer<AnsibleInventory>> changes = new ArrayList<>();
+			AnsibleInventory inventory = new AnsibleInventory();
+			for (int step = 0; step < 60; step++) {
+				Consumer<AnsibleInventory> change = randomChange(random);
+				change.accept(inventory);
+				changes.add(change);
+				if (random.nextBoolean()) {
+					// The first snapshot of a new inventory is built from scratch
+					AnsibleInventory replayed = new AnsibleInventory();
+					changes.forEach(c -> c.accept(replayed));
+					Assert.assertEquals("seed " + seed + ", step " + step, describe(replayed.freeze()),
+							describe(inventory.freeze()));
+				}
+			}
+		}
+	}
+
+	private static Consumer<AnsibleInventory> randomChange(Random random) {
+		final String host = "h" + random.nextInt(4);
+		final String group = "g" + random.nextInt(3);
+		final String other = "g" + random.nextInt(3);
+		final String value = String.valueOf(random.nextInt(3));
+		final boolean all = random.nextBoolean();
+		switch (random.nextInt(11)) {
+			case 0:
+				return inventory -> inventory.addHost(new AnsibleHost(host));
+			case 1:
+				return inventory -> inventory.removeHost(host);
+			case 2:
+				return inventory -> inventory.addGroup(new AnsibleGroup(group));
+			case 3:
+				return inventory -> inventory.removeGroup(group);
+			case 4:
+				return inventory -> {
+					if (inventory.getGroup(group) != null && inventory.getHost(host) != null) {
+						inventory.getGroup(group).addHost(inventory.getHost(host));
+					}
+				};
+			case 5:
+				return inventory -> {
+					if (inventory.getGroup(group) != null) {
+						inventory.getGroup(group).removeHost(host);
+					}
+				};
+			case 6:
+				return inventory -> {
+					if (!group.equals(other) && inventory.getGroup(group) != null && inventory.getGroup(other) != null) {
+						inventory.getGroup(group).addSubgroup(inventory.getGroup(other));
+					}
+				};
+			case 7:
+				return inventory -> {
+					if (inventory.getGroup(group) != null) {
+						inventory.getGroup(group).removeSubgroup(other);
+					}
+				};
+			case 8:
+				return inventory -> {
+					if (inventory.getHost(host) != null) {
+						inventory.getHost(host).addVariable(new AnsibleVariable("v", value));
+					}
+				};
+			case 9:
+				return inventory -> {
+					if (inventory.getGroup(group) != null) {
+						inventory.getGroup(group).addVariable(new AnsibleVariable("v", value));
+					}
+				};
+			default:
+				return inventory -> {
+					if (all) {
+						inventory.getAllGroup();
+					} else {
+						inventory.getUngroupedGroup();
+					}
+				};
+		}
+	}
+
+	/**
+	 * @return the hosts, subgroups and variables of every group and the groups and variables of every host, in a
+	 * form which does not depend on the order of the hosts and groups
+	 */
+	private static Map<String, Object> describe(AnsibleInventorySnapshot snapshot) {
+		Map<String, Object> result = new TreeMap<>();
+		for (AnsibleInventorySnapshot.Group group : snapshot.getGroups()) {
+			Map<String, Object> variables = new TreeMap<>();
+			group.getVariables().forEach(variable -> variables.put(variable.getName(), variable.getValue()));
+			result.put("group " + group.getName(), Arrays.asList(group.isImplicit(),
+					new TreeSet<>(group.getHostNames()), new TreeSet<>(group.getSubgroupNames()), variables));
+		}
+		for (AnsibleInventorySnapshot.Host host : snapshot.getHosts()) {
+			Map<String, Object> variables = new TreeMap<>();
+			host.getVariables().forEach(variable -> variables.put(variable.getName(), variable.getValue()));
+			result.put("host " + host.getName(), Arrays.asList(new TreeSet<>(host.getGroupNames()), variables));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,584 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory;
+
+import net.aschemann.ansible.inventory.type.AnsibleGroup;
+import net.aschemann.ansible.inventory.type.AnsibleHost;
+import net.aschemann.ansible.inventory.type.AnsibleInventory;
+import net.aschemann.ansible.inventory.type.AnsibleInventoryBatch;
+import net.aschemann.ansible.inventory.type.AnsibleVariable;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Andrea Scarpino
+ */
+public class AnsibleInventoryTest {
+
+	@Test
+	public void testSelectHostsWithPatterns() {
+		AnsibleInventory inventory = new AnsibleInventory();
+		addHosts(inventory, "webservers", "web1", "web2", "phoenix");
+		addHosts(inventory, "db", "db1", "db2", "db3");
+		addHosts(inventory, "staging", "web2", "phoenix", "db1");
+		addHosts(inventory, "backend").addSubgroup(inventory.getGroup("db"));
+
+		Assert.assertEquals(Arrays.asList("web2"), names(inventory.selectHosts("webservers:&staging:!phoenix")));
+		Assert.assertEquals(Arrays.asList("web2"), names(inventory.selectHosts("webservers,&staging,!phoenix")));
+		Assert.assertEquals(Arrays.asList("web1", "web2", "db1"), names(inventory.selectHosts("web*:db1:!phoenix")));
+		Assert.assertEquals(Arrays.asList("db1", "db2"), names(inventory.selectHosts("backend[0:1]")));
+		Assert.assertEquals(Arrays.asList("db3"), names(inventory.selectHosts("db[-1]")));
+		Assert.assertEquals(Arrays.asList("db1", "db2", "db3"), names(inventory.selectHosts("db[0:-1]")));
+		Assert.assertEquals(Arrays.asList("db1", "db2"), names(inventory.selectHosts("db[0:-2]")));
+		Assert.assertEquals(Arrays.asList("db1", "db2"), names(inventory.selectHosts("db[-3:-2]")));
+		Assert.assertEquals(Arrays.asList("db2", "db3"), names(inventory.selectHosts("db[1:]")));
+		Assert.assertTrue(inventory.selectHosts("db[0:-4]").isEmpty());
+		Assert.assertEquals(Arrays.asList("web1", "web2"), names(inventory.selectHosts("~web\\d+")));
+		Assert.assertEquals(Arrays.asList("phoenix", "db3"), names(inventory.selectHosts("!web?:!db1:!db2")));
+		Assert.assertEquals(6, inventory.selectHosts("all").size());
+		Assert.assertTrue(inventory.selectHosts("unknown").isEmpty());
+
+		// Selections follow changes of the groups
+		inventory.getGroup("db").removeHost("db2");
+		Assert.assertEquals(Arrays.asList("db1", "db3"), names(inventory.selectHosts("backend[0:1]")));
+	}
+
+	@Test
+	public void testRemoveAndAddHostWithSameName() {
+		AnsibleInventory inventory = new AnsibleInventory();
+		addHosts(inventory, "web", "web1", "web2");
+		// Fill the caches
+		Assert.assertEquals(2, inventory.selectHosts("web").size());
+		AnsibleHost removed = inventory.getHost("web1");
+		inventory.removeHost("web1");
+
+		AnsibleHost web1 = new AnsibleHost("web1");
+		inventory.addHost(web1);
+		inventory.getGroup("web").addHost(web1);
+
+		Assert.assertSame(web1, inventory.selectHosts("web1").get(0));
+		for (String pattern : new String[]{"web", "all"}) {
+			for (AnsibleHost host : inventory.selectHosts(pattern)) {
+				Assert.assertNotSame(pattern, removed, host);
+			}
+			Assert.assertEquals(pattern, 2, inventory.selectHosts(pattern).size());
+		}
+	}
+
+	@Test
+	public void testAddOtherHostWithSameNameToGroup() {
+		AnsibleInventory inventory = new AnsibleInventory();
+		AnsibleGroup web = addHosts(inventory, "web", "x");
+		AnsibleHost existing = inventory.getHost("x");
+		existing.addVariable(new AnsibleVariable("port", "80"));
+		// Fill the caches
+		Assert.assertEquals(Collections.singleton(web), inventory.getAncestorGroupsOf(existing));
+
+		// The group keeps the host of the inventory, which gets the variables it does not have yet
+		AnsibleHost other = new AnsibleHost("x");
+		other.addVariable(new AnsibleVariable("port", "8080"));
+		other.addVariable(new AnsibleVariable("motd", "hello"));
+		AnsibleGroup db = addHosts(inventory, "db");
+		db.addHost(other);
+		web.addHost(other);
+		Assert.assertSame(existing, inventory.getHost("x"));
+		Assert.assertSame(existing, db.getHost("x"));
+		Assert.assertSame(existing, web.getHost("x"));
+		Assert.assertEquals("80", existing.getVariable("port").getValue());
+		Assert.assertEquals("hello", inventory.getEffectiveVariable(existing, "motd").getValue());
+		Assert.assertEquals(2, inventory.getAncestorGroupsOf(existing).size());
+		Assert.assertTrue(inventory.getAncestorGroupsOf(other).isEmpty());
+		Assert.assertSame(existing, inventory.selectHosts("db").get(0));
+		Assert.assertEquals(Arrays.asList("x"), names(inventory.getHostsWithVariable("motd")));
+
+		// The same applies to the hosts of a group which is added to the inventory
+		AnsibleHost third = new AnsibleHost("x");
+		third.addVariable(new AnsibleVariable("user", "admin"));
+		AnsibleGroup app = new AnsibleGroup("app", Collections.singletonList(third));
+		inventory.addGroup(app);
+		Assert.assertSame(existing, app.getHost("x"));
+		Assert.assertEquals("admin", existing.getVariable("user").getValue());
+		Assert.assertSame(existing, inventory.selectHosts("app").get(0));
+		Assert.assertEquals(3, inventory.getGroupsOf(existing).size());
+	}
+
+	@Test
+	public void testReplaceGroupOfCycle() {
+		AnsibleInventory inventory = new AnsibleInventory();
+		AnsibleGroup a = addHosts(inventory, "a", "host1");
+		AnsibleGroup b = addHosts(inventory, "b", "host2");
+		a.addSubgroup(b);
+		b.addSubgroup(a);
+
+		// The replaced group keeps its own edges, they are not mixed up with those of the new group
+		AnsibleGroup replacement = new AnsibleGroup("b");
+		inventory.addGroup(replacement);
+		replacement.addSubgroup(a);
+		replacement.removeSubgroup("a");
+		Assert.assertEquals(2, inventory.getAncestorsOf(a).size());
+		for (AnsibleGroup ancestor : inventory.getAncestorsOf(a)) {
+			Assert.assertNotSame(replacement, ancestor);
+		}
+
+		inventory.removeGroup("a");
+		Assert.assertTrue(inventory.getGroupsOf(inventory.getHost("host1")).isEmpty());
+		Assert.assertTrue(inventory.getGroupsOf(inventory.getHost("host2")).isEmpty());
+	}
+
+	@Test
+	public void testReplaceGroupWhichIsStillASubgroup() {
+		AnsibleInventory inventory = new AnsibleInventory();
+		AnsibleGroup old = addHosts(inventory, "b", "h1");
+		AnsibleGroup parent = addHosts(inventory, "p");
+		parent.addSubgroup(old);
+
+		AnsibleGroup replacement = new AnsibleGroup("b");
+		inventory.addGroup(replacement);
+		addHosts(inventory, "b", "h2");
+
+		// The parent still holds the old group, whose closure must not be mixed up with the one of the replacement
+		Assert.assertEquals(Arrays.asList("h2"), names(new ArrayList<>(inventory.getAllHosts(replacement))));
+		Assert.assertEquals(Arrays.asList("h1"), names(new ArrayList<>(inventory.getAllHosts(parent))));
+		Assert.assertEquals(Arrays.asList("h1"), names(new ArrayList<>(inventory.getAllHosts(old))));
+		Assert.assertEquals(Arrays.asList("h2"), names(new ArrayList<>(inventory.getAllHosts(replacement))));
+		Assert.assertEquals(Arrays.asList("h2"), names(inventory.selectHosts("b")));
+		Assert.assertEquals(Arrays.asList("h1"), names(inventory.selectHosts("p")));
+	}
+
+	@Test
+	public void testCascadingRemoval() {
+		AnsibleInventory inventory = new AnsibleInventory();
+		AnsibleGroup web = addHosts(inventory, "web", "host1", "host2", "host3");
+		AnsibleGroup db = addHosts(inventory, "db", "host1", "host4");
+		AnsibleGroup prod = addHosts(inventory, "prod");
+		prod.addSubgroup(web);
+		prod.addSubgroup(db);
+
+		inventory.removeHost("host1");
+		Assert.assertNull(web.getHost("host1"));
+		Assert.assertNull(db.getHost("host1"));
+		Assert.assertEquals(3, inventory.getAllHosts(prod).size());
+
+		inventory.removeHosts(Arrays.asList("host2", "host4", "unknown"));
+		Assert.assertEquals(Arrays.asList("host3"), names(new ArrayList<>(web.getHosts())));
+		Assert.assertTrue(db.getHosts().isEmpty());
+		Assert.assertEquals(Arrays.asList("host3"), names(inventory.selectHosts("prod")));
+
+		inventory.removeGroup("web");
+		Assert.assertEquals(Collections.singletonList(db), new ArrayList<>(prod.getSubgroups()));
+		Assert.assertTrue(inventory.getAllHosts(prod).isEmpty());
+		Assert.assertEquals(Arrays.asList("host3"), names(new ArrayList<>(inventory.getUngroupedGroup().getHosts())));
+	}
+
+	@Test
+	public void testBatch() {
+		AnsibleInventory inventory = new AnsibleInventory();
+		addHosts(inventory, "web", "old1", "old2");
+		// Fill the caches, which must be rebuilt after the batch
+		Assert.assertEquals(2, inventory.selectHosts("web").size());
+		AnsibleHost replacement = new AnsibleHost("old2");
+		replacement.addVariable(new AnsibleVariable("replaced", "yes"));
+		AnsibleHost merged = new AnsibleHost("host0");
+		merged.addVariable(new AnsibleVariable("index", "ignored"));
+		merged.addVariable(new AnsibleVariable("extra", "merged"));
+
+		AnsibleInventoryBatch.Summary summary = inventory.batch(batch -> {
+			for (int i = 0; i < 1000; i++) {
+				final String host = "host" + i;
+				batch.addHost(i % 2 == 0 ? "even" : "odd", new AnsibleHost(host));
+				batch.addHostVariable(host, new AnsibleVariable("index", String.valueOf(i)));
+			}
+			batch.addSubgroup("web", "even");
+			batch.addSubgroup("web", "even");
+			batch.addGroupVariable("odd", new AnsibleVariable("parity", "odd"));
+			batch.removeHost("old1");
+			batch.removeGroup("unknown");
+			// Replaces the host like AnsibleInventory.addHost, also in its groups
+			batch.addHost(replacement);
+			batch.addHost(replacement);
+			// Keeps the host like AnsibleGroup.addHost and merges the variables
+			batch.addHost("db", merged);
+		});
+
+		Assert.assertEquals(1000, summary.getHostsAdded());
+		Assert.assertEquals(1, summary.getHostsReplaced());
+		Assert.assertEquals(1, summary.getHostsRemoved());
+		Assert.assertEquals(3, summary.getGroupsAdded());
+		Assert.assertEquals(0, summary.getGroupsRemoved());
+		Assert.assertEquals(1001, summary.getMembershipsAdded());
+		Assert.assertEquals(1, summary.getSubgroupsAdded());
+		Assert.assertEquals(1001, summary.getVariablesSet());
+
+		Assert.assertEquals(501, inventory.selectHosts("web").size());
+		Assert.assertEquals(500, inventory.getAllHosts(inventory.getGroup("odd")).size());
+		Assert.assertEquals("odd", inventory.getEffectiveVariable(inventory.getHost("host7"), "parity").getValue());
+		Assert.assertEquals(Arrays.asList("host42"), names(inventory.getHostsWithVariable("index", "42")));
+		Assert.assertTrue(inventory.getAncestorGroupsOf(inventory.getHost("host42")).contains(inventory.getGroup("web")));
+		Assert.assertSame(replacement, inventory.getGroup("web").getHost("old2"));
+		Assert.assertEquals(Arrays.asList("old2"), names(inventory.getHostsWithVariable("replaced")));
+		AnsibleHost host0 = inventory.getHost("host0");
+		Assert.assertSame(host0, inventory.getGroup("db").getHost("host0"));
+		Assert.assertEquals("0", host0.getVariable("index").getValue());
+		Assert.assertEquals("merged", host0.getVariable("extra").getValue());
+
+		// Nothing is applied if collecting the changes fails
+		try {
+			inventory.batch(batch -> {
+				batch.removeHost("old2");
+				throw new IllegalStateException();
+			});
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			Assert.assertNotNull(inventory.getHost("old2"));
+		}
+	}
+
+	@Test
+	public void testEffectiveVariablePrecedence() {
+		AnsibleInventory inventory = new AnsibleInventory();
+		AnsibleGroup web = addHosts(inventory, "web", "host1", "host2");
+		AnsibleGroup db = addHosts(inventory, "db", "host2");
+		AnsibleGroup prod = addHosts(inventory, "prod");
+		prod.addSubgroup(web);
+		prod.addSubgroup(db);
+		AnsibleHost host1 = inventory.getHost("host1");
+		AnsibleHost host2 = inventory.getHost("host2");
+		host1.addVariable(new AnsibleVariable("port", "1"));
+		web.addVariable(new AnsibleVariable("port", "80"));
+		web.addVariable(new AnsibleVariable("role", "web"));
+		db.addVariable(new AnsibleVariable("role", "db"));
+		prod.addVariable(new AnsibleVariable("port", "8080"));
+		prod.addVariable(new AnsibleVariable("stage", "prod"));
+		inventory.getAllGroup().addVariable(new AnsibleVariable("stage", "all"));
+		inventory.getAllGroup().addVariable(new AnsibleVariable("user", "root"));
+
+		// host < child group < parent group < all
+		Assert.assertEquals("1", inventory.getEffectiveVariable(host1, "port").getValue());
+		Assert.assertEquals("80", inventory.getEffectiveVariable(host2, "port").getValue());
+		Assert.assertEquals("prod", inventory.getEffectiveVariable(host2, "stage").getValue());
+		Assert.assertEquals("root", inventory.getEffectiveVariable(host2, "user").getValue());
+		// Groups of the same depth are applied by name
+		Assert.assertEquals("web", inventory.getEffectiveVariable(host2, "role").getValue());
+
+		db.addVariable(new AnsibleVariable("ansible_group_priority", "10"));
+		Assert.assertEquals("db", inventory.getEffectiveVariable(host2, "role").getValue());
+
+		host2.addVariable(new AnsibleVariable("role", "host"));
+		Assert.assertEquals("host", inventory.getEffectiveVariable(host2, "role").getValue());
+	}
+
+	@Test
+	public void testGroupMembershipIndex() {
+		AnsibleInventory inventory = new AnsibleInventory();
+		AnsibleGroup all = inventory.getAllGroup();
+		AnsibleGroup ungrouped = inventory.getUngroupedGroup();
+		AnsibleGroup web = addHosts(inventory, "web", "host1");
+		AnsibleGroup db = addHosts(inventory, "db", "host2");
+		AnsibleGroup prod = addHosts(inventory, "prod");
+		AnsibleGroup dc = addHosts(inventory, "dc");
+		prod.addSubgroup(web);
+		dc.addSubgroup(prod);
+		AnsibleHost host1 = inventory.getHost("host1");
+
+		Assert.assertEquals(new HashSet<>(Arrays.asList(all, web)), inventory.getGroupsOf(host1));
+		Assert.assertEquals(new HashSet<>(Arrays.asList(all, web, prod, dc)),
+				inventory.getAncestorGroupsOf(host1));
+
+		// The index follows changes of the groups
+		db.addHost(host1);
+		Assert.assertTrue(inventory.getAncestorGroupsOf(host1).contains(db));
+		prod.removeSubgroup("web");
+		Assert.assertFalse(inventory.getAncestorGroupsOf(host1).contains(prod));
+		Assert.assertFalse(inventory.getAncestorGroupsOf(host1).contains(dc));
+		web.removeHost("host1");
+		Assert.assertEquals(new HashSet<>(Arrays.asList(all, db)), inventory.getGroupsOf(host1));
+		inventory.removeGroup("db");
+		// Without any explicit group the host is ungrouped
+		Assert.assertEquals(new HashSet<>(Arrays.asList(all, ungrouped)), inventory.getGroupsOf(host1));
+		Assert.assertTrue(ungrouped.getHosts().contains(host1));
+	}
+
+	@Test
+	public void testAllHostsOfCyclicChildren() {
+		AnsibleInventory inventory = new AnsibleInventory();
+		AnsibleGroup a = addHosts(inventory, "a");
+		AnsibleGroup b = addHosts(inventory, "b", "host1");
+		AnsibleGroup c = addHosts(inventory, "c");
+		AnsibleGroup d = addHosts(inventory, "d", "host2");
+		AnsibleGroup e = addHosts(inventory, "e", "host3");
+		a.addSubgroup(b);
+		a.addSubgroup(c);
+		b.addSubgroup(d);
+		c.addSubgroup(d);
+		d.addSubgroup(b);
+		AnsibleHost host1 = inventory.getHost("host1");
+		AnsibleHost host2 = inventory.getHost("host2");
+		AnsibleHost host3 = inventory.getHost("host3");
+
+		Assert.assertEquals(Collections.singletonList(Arrays.asList("b", "d")), inventory.findGroupCycles());
+		Assert.assertEquals(new HashSet<>(Arrays.asList(host1, host2)), inventory.getAllHosts(a));
+		Assert.assertEquals(new HashSet<>(Arrays.asList(host1, host2)), inventory.getAllHosts(c));
+		Assert.assertEquals(new HashSet<>(Arrays.asList(host1, host2)), inventory.getAllHosts(d));
+
+		// Cached closures follow changes below them
+		c.addSubgroup(e);
+		Assert.assertTrue(inventory.getAllHosts(a).contains(host3));
+		d.removeHost("host2");
+		Assert.assertEquals(new HashSet<>(Arrays.asList(host1, host3)), inventory.getAllHosts(a));
+		d.removeSubgroup("b");
+		Assert.assertTrue(inventory.findGroupCycles().isEmpty());
+	}
+
+	@Test
+	public void testHostsWithVariable() {
+		AnsibleInventory inventory = new AnsibleInventory();
+		AnsibleGroup web = addHosts(inventory, "web", "web1", "web2", "web3");
+		inventory.getHost("web1").addVariable(new AnsibleVariable("ansible_user", "deploy"));
+		inventory.getHost("web2").addVariable(new AnsibleVariable("ansible_user", "root"));
+		inventory.getHost("web3").addVariable(new AnsibleVariable("ansible_user", "deploy"));
+		inventory.getHost("web3").addVariable(new AnsibleVariable("mysql_replication_role", "master"));
+		web.addVariable(new AnsibleVariable("mysql_replication_role", "none"));
+
+		Assert.assertEquals(Arrays.asList("web1", "web3"),
+				names(inventory.getHostsWithVariable("ansible_user", "deploy")));
+		// Group variables are not indexed
+		Assert.assertEquals(Arrays.asList("web3"), names(inventory.getHostsWithVariable("mysql_replication_role")));
+		Assert.assertTrue(inventory.getHostsWithVariable("ansible_user", "admin").isEmpty());
+
+		// The index follows changes of the hosts
+		final AnsibleHost web2 = inventory.getHost("web2");
+		web2.removeVariable(new AnsibleVariable("ansible_user"));
+		web2.addVariable(new AnsibleVariable("ansible_user", "deploy"));
+		inventory.getHost("web3").clear();
+		Assert.assertEquals(Arrays.asList("web1", "web2"),
+				names(inventory.getHostsWithVariable("ansible_user", "deploy")));
+		Assert.assertTrue(inventory.getHostsWithVariable("mysql_replication_role").isEmpty());
+		inventory.removeHost("web1");
+		Assert.assertEquals(Arrays.asList("web2"), names(inventory.getHostsWithVariable("ansible_user")));
+
+		// A new host with the name of a removed one is indexed with its own variables
+		final AnsibleHost removed = inventory.getHost("web2");
+		inventory.removeHost("web2");
+		final AnsibleHost added = new AnsibleHost("web2");
+		added.addVariable(new AnsibleVariable("ansible_user", "admin"));
+		inventory.addHost(added);
+		Assert.assertTrue(inventory.getHostsWithVariable("ansible_user", "deploy").isEmpty());
+		Assert.assertEquals(Collections.singletonList(added), inventory.getHostsWithVariable("ansible_user", "admin"));
+		Assert.assertNotSame(removed, inventory.getHostsWithVariable("ansible_user").get(0));
+		Assert.assertSame(added, inventory.getHostsWithVariable("ansible_user").get(0));
+	}
+
+	@Test
+	public void testHostWithManyVariables() {
+		AnsibleHost host = new AnsibleHost("host1");
+		for (int i = 0; i < 100; i++) {
+			host.addVariable(new AnsibleVariable("var" + i, String.valueOf(i)));
+		}
+		// The first value is kept
+		host.addVariable(new AnsibleVariable("var5", "x"));
+		for (int i = 0; i < 100; i += 2) {
+			host.removeVariable(new AnsibleVariable("var" + i));
+		}
+		host.getVariables().add(new AnsibleVariable("var0", "0"));
+
+		Assert.assertEquals(51, host.getVariables().size());
+		Assert.assertEquals("5", host.getVariable("var5").getValue());
+		Assert.assertNull(host.getVariable("var4"));
+		Assert.assertTrue(host.getVariables().contains(new AnsibleVariable("var99")));
+
+		final List<String> names = new ArrayList<>();
+		for (AnsibleVariable variable : host.getVariables()) {
+			names.add(variable.getName());
+		}
+		Assert.assertEquals(Arrays.asList("var1", "var3", "var5"), names.subList(0, 3));
+		Assert.assertEquals("var0", names.get(50));
+
+		host.getVariables().removeIf(variable -> !variable.getName().equals("var7"));
+		Assert.assertEquals(Collections.singleton(new AnsibleVariable("var7")), host.getVariables());
+	}
+
+	@Test
+	public void testImplicitGroups() {
+		AnsibleInventory inventory = new AnsibleInventory();
+		AnsibleGroup all = inventory.getAllGroup();
+		AnsibleGroup ungrouped = inventory.getUngroupedGroup();
+		AnsibleHost host1 = new AnsibleHost("host1");
+		inventory.addHost(host1);
+		addHosts(inventory, "web", "host2");
+		AnsibleHost host2 = inventory.getHost("host2");
+		all.addVariable(new AnsibleVariable("user", "root"));
+
+		Assert.assertEquals(2, all.getHosts().size());
+		Assert.assertEquals(Arrays.asList(host1), new ArrayList<>(ungrouped.getHosts()));
+		Assert.assertEquals("root", all.getVariable("user").getValue());
+
+		// Both groups follow programmatic changes
+		inventory.getGroup("web").addHost(host1);
+		inventory.getGroup("web").removeHost("host2");
+		Assert.assertEquals(Arrays.asList(host2), new ArrayList<>(ungrouped.getHosts()));
+		Assert.assertNull(ungrouped.getHost("host1"));
+
+		AnsibleHost host3 = new AnsibleHost("host3");
+		all.addHost(host3);
+		Assert.assertSame(host3, inventory.getHost("host3"));
+		Assert.assertEquals(3, all.getHosts().size());
+		Assert.assertEquals(new HashSet<>(Arrays.asList(host2, host3)), new HashSet<>(ungrouped.getHosts()));
+		Assert.assertEquals(Arrays.asList("host2", "host3"), names(inventory.selectHosts("ungrouped")));
+		Assert.assertEquals("root", inventory.getEffectiveVariable(host3, "user").getValue());
+
+		inventory.removeHost("host2");
+		Assert.assertEquals(new HashSet<>(Arrays.asList(host1, host3)), new HashSet<>(all.getHosts()));
+		Assert.assertEquals(Arrays.asList(host3), new ArrayList<>(ungrouped.getHosts()));
+		Assert.assertEquals(new AnsibleGroup("all"), all);
+		Assert.assertEquals(all, new AnsibleGroup("all"));
+
+		// An explicit group replaces the implicit one, which is created again on demand
+		AnsibleGroup explicit = new AnsibleGroup("ungrouped");
+		explicit.addVariable(new AnsibleVariable("zone", "dmz"));
+		inventory.addGroup(explicit);
+		Assert.assertSame(explicit, inventory.getGroup("ungrouped"));
+		AnsibleGroup implicit = inventory.getUngroupedGroup();
+		Assert.assertNotSame(ungrouped, implicit);
+		Assert.assertSame(implicit, inventory.getGroup("ungrouped"));
+		Assert.assertEquals(Arrays.asList(host3), new ArrayList<>(implicit.getHosts()));
+		Assert.assertEquals("dmz", implicit.getVariable("zone").getValue());
+	}
+
+	@Test
+	public void testHostChurn() {
+		AnsibleInventory inventory = new AnsibleInventory();
+		AnsibleGroup web = addHosts(inventory, "web", "web0", "web1");
+		inventory.getHost("web1").addVariable(new AnsibleVariable("role", "keep"));
+		// Removed hosts release their identifiers, which are compacted from time to time
+		for (int i = 0; i < 1000; i++) {
+			AnsibleHost host = new AnsibleHost("tmp" + i);
+			host.addVariable(new AnsibleVariable("role", "tmp"));
+			inventory.addHost(host);
+			web.addHost(host);
+			Assert.assertEquals(3, inventory.selectHosts("web").size());
+			Assert.assertEquals(Arrays.asList("web1", "tmp" + i), names(inventory.getHostsWithVariable("role")));
+			if (i % 2 == 0) {
+				inventory.removeHost("tmp" + i);
+			} else {
+				inventory.addHost(new AnsibleHost("tmp" + i));
+				inventory.removeHosts(Collections.singleton("tmp" + i));
+			}
+		}
+		AnsibleHost last = new AnsibleHost("last");
+		inventory.addHost(last);
+		web.addHost(last);
+		Assert.assertEquals(Arrays.asList("web0", "web1", "last"), names(inventory.selectHosts("web")));
+		Assert.assertEquals(Arrays.asList("web1", "last"), names(inventory.selectHosts("web[1:]")));
+		Assert.assertEquals(Arrays.asList("web1"), names(inventory.getHostsWithVariable("role", "keep")));
+		Assert.assertTrue(inventory.getHostsWithVariable("role", "tmp").isEmpty());
+	}
+
+	@Test
+	public void testConcurrentQueries() throws Exception {
+		// More patterns than the inventory caches, so the cache keeps changing while it is read
+		final List<String> patterns = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			patterns.add("group" + i % 40 + ":&region" + i % 3 + ":!host" + i + "[0:-2]");
+		}
+		final AnsibleInventory expected = populate(new AnsibleInventory());
+		final List<String> results = query(expected, patterns);
+
+		final AnsibleInventory inventory = populate(new AnsibleInventory());
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<List<String>>> futures = new ArrayList<>();
+			for (int thread = 0; thread < 4; thread++) {
+				futures.add(executor.submit(() -> query(inventory, patterns)));
+			}
+			for (Future<List<String>> future : futures) {
+				Assert.assertEquals(results, future.get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static AnsibleInventory populate(AnsibleInventory inventory) {
+		for (int i = 0; i < 2000; i++) {
+			addHosts(inventory, "group" + i % 40, "host" + i);
+			inventory.getHost("host" + i).addVariable(new AnsibleVariable("index", String.valueOf(i % 7)));
+		}
+		for (int g = 0; g < 40; g++) {
+			final AnsibleGroup region = addHosts(inventory, "region" + g % 3);
+			region.addSubgroup(inventory.getGroup("group" + g));
+			region.addVariable(new AnsibleVariable("region", String.valueOf(g % 3)));
+		}
+		inventory.getUngroupedGroup();
+		return inventory;
+	}
+
+	private static List<String> query(AnsibleInventory inventory, List<String> patterns) {
+		final List<String> results = new ArrayList<>();
+		for (String pattern : patterns) {
+			results.add(names(inventory.selectHosts(pattern)).toString());
+		}
+		for (AnsibleHost host : inventory.getHosts()) {
+			results.add(host.getName() + inventory.getEffectiveVariables(host)
+					+ inventory.getAncestorGroupsOf(host).size());
+		}
+		for (AnsibleGroup group : inventory.getGroups()) {
+			results.add(group.getName() + inventory.getAllHosts(group).size() + inventory.getAncestorsOf(group).size());
+		}
+		results.add(names(inventory.getHostsWithVariable("index", "3")).toString());
+		return results;
+	}
+
+	/**
+	 * Adds hosts to a group like an INI section would, creating the group and the hosts if necessary.
+	 *
+	 * @return the group
+	 */
+	static AnsibleGroup addHosts(AnsibleInventory inventory, String group, String... hosts) {
+		AnsibleGroup result = inventory.getGroup(group);
+		if (result == null) {
+			result = new AnsibleGroup(group);
+			inventory.addGroup(result);
+		}
+		for (String name : hosts) {
+			AnsibleHost host = inventory.getHost(name);
+			if (host == null) {
+				host = new AnsibleHost(name);
+				inventory.addHost(host);
+			}
+			result.addHost(host);
+		}
+		return result;
+	}
+
+	static List<String> names(List<AnsibleHost> hosts) {
+		final List<String> names = new ArrayList<>();
+		for (AnsibleHost host : hosts) {
+			names.add(host.getName());
+		}
+		return names;
+	}
+}
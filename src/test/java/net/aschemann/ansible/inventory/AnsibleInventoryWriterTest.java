@@ -21,9 +21,25 @@ import net.aschemann.ansible.inventory.type.AnsibleGroup;
 import net.aschemann.ansible.inventory.type.AnsibleHost;
 import net.aschemann.ansible.inventory.type.AnsibleInventory;
 import net.aschemann.ansible.inventory.type.AnsibleVariable;
+import net.aschemann.ansible.inventory.util.AnsibleInventoryJsonWriter;
+import net.aschemann.ansible.inventory.util.AnsibleInventoryReader;
 import net.aschemann.ansible.inventory.util.AnsibleInventoryWriter;
 import org.junit.Assert;
 import org.junit.Test;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author Andrea Scarpino
@@ -169,4 +185,163 @@ public class AnsibleInventoryWriterTest {
 				inventoryText);
 	}
 
+	@Test
+	public void testWriteVariantsAreIdentical() throws IOException {
+		AnsibleInventory inventory = new AnsibleInventory();
+
+		AnsibleGroup europe = new AnsibleGroup("europe");
+		inventory.addGroup(europe);
+		europe.addVariable(new AnsibleVariable("motd", "Grüße aus Köln \uD83D\uDE80"));
+		europe.addVariable(new AnsibleVariable("share", "C:\\data\\"));
+
+		AnsibleGroup cologne = new AnsibleGroup("cologne");
+		europe.addSubgroup(cologne);
+		inventory.addGroup(cologne);
+		// Enough text to fill the buffer of the stream variant several times
+		for (int i = 0; i < 1000; i++) {
+			AnsibleHost host = new AnsibleHost("köln" + i + ".example.com");
+			host.addVariable(new AnsibleVariable("path", "\\\\server\\share" + i));
+			cologne.addHost(host);
+		}
+
+		String text = AnsibleInventoryWriter.write(inventory);
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		AnsibleInventoryWriter.write(inventory, stream);
+		Assert.assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), stream.toByteArray());
+
+		// A PrintStream is both an OutputStream and an Appendable, the stream variant is chosen
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		AnsibleInventoryWriter.write(inventory, new PrintStream(printed, false, "UTF-8"));
+		Assert.assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), printed.toByteArray());
+
+		StringWriter writer = new StringWriter();
+		AnsibleInventoryWriter.append(inventory, writer);
+		Assert.assertEquals(text, writer.toString());
+
+		Assert.assertTrue(text.contains("[europe:vars]\n"));
+		Assert.assertTrue(text.contains("share=C:\\\\data\\\\\n"));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testWriteJsonList() throws IOException {
+		AnsibleInventory inventory = AnsibleInventoryReader.read(Arrays.asList(new String[]{
+				"bastion",
+				"[web]",
+				"web1 http_port=80 motd=\"Hello \\\"world\\\"\"",
+				"web2",
+				"[db]",
+				"db1",
+				"[prod:children]",
+				"web",
+				"db",
+				"[prod:vars]",
+				"env=production\\tab",
+				"[all:vars]",
+				"ntp=ntp.example.com"
+		}));
+		inventory.getHost("db1").addVariable(new AnsibleVariable("replicas", Arrays.asList(1, 2L, true)));
+		inventory.getHost("db1").addVariable(new AnsibleVariable("control", "\u0001\n\u00e9\uD83D\uDE80"));
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		AnsibleInventoryJsonWriter.writeList(inventory, stream);
+		String json = new String(stream.toByteArray(), StandardCharsets.UTF_8);
+		StringBuilder builder = new StringBuilder();
+		AnsibleInventoryJsonWriter.writeList(inventory, builder);
+		Assert.assertEquals(builder.toString(), json);
+
+		// JSON is a subset of YAML
+		Map<String, Object> list = (Map<String, Object>) new Yaml().load(json);
+		Map<String, Object> all = (Map<String, Object>) list.get("all");
+		Assert.assertEquals(new HashSet<>(Arrays.asList("prod", "ungrouped")),
+				new HashSet<>((List<String>) all.get("children")));
+		Assert.assertEquals(Collections.singletonMap("ntp", "ntp.example.com"), all.get("vars"));
+		Assert.assertEquals(Collections.singletonList("bastion"),
+				((Map<String, Object>) list.get("ungrouped")).get("hosts"));
+		Map<String, Object> prod = (Map<String, Object>) list.get("prod");
+		Assert.assertEquals(new HashSet<>(Arrays.asList("web", "db")), new HashSet<>((List<String>) prod.get("children")));
+		Assert.assertEquals("production\\tab", ((Map<String, Object>) prod.get("vars")).get("env"));
+		Assert.assertEquals(new HashSet<>(Arrays.asList("web1", "web2")),
+				new HashSet<>((List<String>) ((Map<String, Object>) list.get("web")).get("hosts")));
+
+		Map<String, Object> hostvars = (Map<String, Object>) ((Map<String, Object>) list.get("_meta")).get("hostvars");
+		Assert.assertEquals(new HashSet<>(Arrays.asList("web1", "db1")), hostvars.keySet());
+		Map<String, Object> web1 = (Map<String, Object>) hostvars.get("web1");
+		Assert.assertEquals("80", web1.get("http_port"));
+		Assert.assertEquals(inventory.getHost("web1").getVariable("motd").getValue(), web1.get("motd"));
+		Map<String, Object> db1 = (Map<String, Object>) hostvars.get("db1");
+		Assert.assertEquals(Arrays.asList(1, 2, true), db1.get("replicas"));
+		Assert.assertTrue(json.contains("\"control\":\"\\u0001\\n\u00e9\uD83D\uDE80\""));
+
+		StringBuilder host = new StringBuilder();
+		AnsibleInventoryJsonWriter.writeHost(inventory, "web1", host);
+		Assert.assertEquals(web1, new Yaml().load(host.toString()));
+		host.setLength(0);
+		AnsibleInventoryJsonWriter.writeHost(inventory, "unknown", host);
+		Assert.assertEquals("{}", host.toString());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testWriteYaml() throws IOException {
+		AnsibleInventory inventory = AnsibleInventoryReader.read(Arrays.asList(new String[]{
+				"bastion",
+				"[web]",
+				"web1 http_port=80 motd=\"Hello \\\"world\\\"\"",
+				"web2",
+				"[db]",
+				"db1",
+				"web1",
+				"[prod:children]",
+				"web",
+				"db",
+				"[prod:vars]",
+				"env=production",
+				"[all:vars]",
+				"ntp=ntp.example.com"
+		}));
+		inventory.getHost("db1").addVariable(new AnsibleVariable("replicas", Arrays.asList(1, 2L, true, null)));
+		inventory.getHost("db1").addVariable(new AnsibleVariable("settings",
+				Collections.singletonMap("ratio", 0.5)));
+		inventory.getHost("db1").addVariable(new AnsibleVariable("flags", new String[]{"yes", "no"}));
+		inventory.getHost("db1").addVariable(new AnsibleVariable("motd", "line1\nline2"));
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		AnsibleInventoryWriter.writeYaml(inventory, stream);
+		String yaml = new String(stream.toByteArray(), StandardCharsets.UTF_8);
+		StringWriter writer = new StringWriter();
+		AnsibleInventoryWriter.writeYaml(inventory, writer);
+		Assert.assertEquals(writer.toString(), yaml);
+
+		Map<String, Object> all = (Map<String, Object>) ((Map<String, Object>) new Yaml().load(yaml)).get("all");
+		Assert.assertEquals(Collections.singletonMap("ntp", "ntp.example.com"), all.get("vars"));
+		Map<String, Object> children = (Map<String, Object>) all.get("children");
+		Assert.assertEquals(Arrays.asList("ungrouped", "prod"), new ArrayList<>(children.keySet()));
+		Assert.assertEquals(Collections.singletonMap("bastion", null),
+				((Map<String, Object>) children.get("ungrouped")).get("hosts"));
+		Map<String, Object> prod = (Map<String, Object>) children.get("prod");
+		Assert.assertEquals(Collections.singletonMap("env", "production"), prod.get("vars"));
+		Map<String, Object> prodChildren = (Map<String, Object>) prod.get("children");
+		Map<String, Object> web = (Map<String, Object>) ((Map<String, Object>) prodChildren.get("web")).get("hosts");
+		Map<String, Object> web1 = (Map<String, Object>) web.get("web1");
+		// Values read from INI are strings
+		Assert.assertEquals("80", web1.get("http_port"));
+		Assert.assertEquals(inventory.getHost("web1").getVariable("motd").getValue(), web1.get("motd"));
+		Map<String, Object> db = (Map<String, Object>) ((Map<String, Object>) prodChildren.get("db")).get("hosts");
+		// The variables of web1 are only written once
+		Assert.assertNull(db.get("web1"));
+		Map<String, Object> db1 = (Map<String, Object>) db.get("db1");
+		Assert.assertEquals(Arrays.asList(1, 2, true, null), db1.get("replicas"));
+		Assert.assertEquals(Collections.singletonMap("ratio", 0.5), db1.get("settings"));
+		Assert.assertEquals(Arrays.asList("yes", "no"), db1.get("flags"));
+		Assert.assertEquals("line1\nline2", db1.get("motd"));
+
+		AnsibleInventory read = AnsibleInventoryReader.readYaml(new StringReader(yaml));
+		Assert.assertEquals(inventory.getHost("web1").getVariables(), read.getHost("web1").getVariables());
+		Assert.assertEquals(inventory.getHost("db1").getVariables().size(), read.getHost("db1").getVariables().size());
+		Assert.assertEquals(inventory.getGroupsOf(inventory.getHost("web1")).size(),
+				read.getGroupsOf(read.getHost("web1")).size());
+	}
+
 }
@@ -0,0 +1,158 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Andrea Scarpino <me@andreascarpino.it>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.aschemann.ansible.inventory;
+
+import net.aschemann.ansible.inventory.type.AnsibleGroup;
+import net.aschemann.ansible.inventory.type.AnsibleHost;
+import net.aschemann.ansible.inventory.type.AnsibleInventory;
+import net.aschemann.ansible.inventory.type.AnsibleVariable;
+import net.aschemann.ansible.inventory.type.ConcurrentAnsibleInventory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Andrea Scarpino
+ */
+public class ConcurrentAnsibleInventoryTest {
+
+	@Test
+	public void testConcurrentPopulation() throws Exception {
+		final int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+		final int hostsPerThread = 5000;
+		final ConcurrentAnsibleInventory inventory = new ConcurrentAnsibleInventory();
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<?>> importers = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				final String dc = "dc" + t;
+				importers.add(executor.submit(() -> {
+					for (int i = 0; i < hostsPerThread; i++) {
+						final String host = dc + "-host" + i;
+						inventory.addHost(dc, host);
+						// Shared groups and hosts are contended by all importers
+						inventory.addHost(i % 2 == 0 ? "even" : "odd", host);
+						inventory.addHost("shared", "shared" + (i % 100));
+						inventory.addHostVariable(host, new AnsibleVariable("dc", dc));
+						inventory.addHostVariable("shared" + (i % 100), new AnsibleVariable("owner", dc));
+					}
+					inventory.addSubgroup("datacenters", dc);
+					inventory.addGroupVariable(dc, new AnsibleVariable("region", dc));
+				}));
+			}
+			for (Future<?> importer : importers) {
+				importer.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		Assert.assertEquals(threads * hostsPerThread + 100, inventory.getHosts().size());
+		Assert.assertEquals(threads * hostsPerThread / 2, inventory.getGroup("even").getHosts().size());
+		Assert.assertEquals(100, inventory.getGroup("shared").getHosts().size());
+		Assert.assertEquals(threads, inventory.getGroup("datacenters").getSubgroups().size());
+		Assert.assertEquals("dc1", inventory.getHostVariable("dc1-host42", "dc").getValue());
+		Assert.assertNotNull(inventory.getHostVariable("shared7", "owner"));
+
+		inventory.removeHost("dc0-host0");
+		inventory.removeGroup("dc1");
+		AnsibleInventory copy = inventory.toInventory();
+		Assert.assertEquals(threads * hostsPerThread + 99, copy.getHosts().size());
+		Assert.assertNull(copy.getHost("dc0-host0"));
+		Assert.assertEquals((threads - 1) * hostsPerThread - 1, copy.selectHosts("datacenters").size());
+		Assert.assertEquals("dc2", copy.getEffectiveVariable(copy.getHost("dc2-host9"), "region").getValue());
+		Assert.assertTrue(copy.selectHosts("ungrouped").isEmpty());
+
+		// Removing hosts while they are added to groups leaves no group with a host outside the inventory
+		final ExecutorService racers = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				final boolean add = t % 2 == 0;
+				futures.add(racers.submit(() -> {
+					for (int i = 0; i < 20000; i++) {
+						if (add) {
+							inventory.addHost("racy" + (i % 3), "racer" + (i % 5));
+						} else {
+							inventory.removeHost("racer" + (i % 5));
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			racers.shutdown();
+		}
+		for (int g = 0; g < 3; g++) {
+			for (AnsibleHost host : inventory.getGroup("racy" + g).getHosts()) {
+				Assert.assertSame(host, inventory.getHost(host.getName()));
+			}
+		}
+	}
+
+	@Test
+	public void testAddSubgroupsWhileRemovingGroups() throws Exception {
+		final int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+		final ConcurrentAnsibleInventory inventory = new ConcurrentAnsibleInventory();
+		final ExecutorService racers = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				final int role = t % 3;
+				final String parent = "parent" + t;
+				futures.add(racers.submit(() -> {
+					for (int i = 0; i < 3000; i++) {
+						final String child = "child" + i;
+						if (role == 0) {
+							inventory.addSubgroup(parent, child);
+						} else if (role == 1) {
+							// Links in the opposite direction must not deadlock
+							inventory.addSubgroup(child, parent);
+						} else {
+							inventory.removeGroup(child);
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(60, TimeUnit.SECONDS);
+			}
+		} finally {
+			racers.shutdownNow();
+		}
+		// Removing groups while they are added as subgroups leaves no group with a subgroup outside the inventory
+		for (AnsibleGroup group : inventory.getGroups()) {
+			for (AnsibleGroup subgroup : group.getSubgroups()) {
+				Assert.assertSame(subgroup, inventory.getGroup(subgroup.getName()));
+			}
+		}
+		// Nor does the copy bring back removed groups
+		for (AnsibleGroup group : inventory.toInventory().getGroups()) {
+			Assert.assertTrue(group.getName(), group.getName().startsWith("parent") || group.getName().equals("all")
+					|| group.getName().equals("ungrouped") || inventory.getGroup(group.getName()) != null);
+		}
+	}
+}